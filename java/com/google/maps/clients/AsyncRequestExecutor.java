@@ -0,0 +1,287 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.Sleeper;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executes API requests on a small thread pool, returning a {@link Future} of the parsed
+ * response.
+ *
+ * {@code AsyncRequestExecutor executor = new AsyncRequestExecutor(8);
+ * Future<Table> table = executor.submit(engine.tables().get(TABLE_ID));
+ * }
+ *
+ * Back-off requested by an {@link HttpBackOffUnsuccessfulResponseHandler} (such as the one set
+ * by {@link BackOffWhenRateLimitedRequestInitializer}) is scheduled on the executor rather than
+ * slept, so requests waiting out a rate limit don't hold a thread.  Neither do requests held back
+ * by a shared {@link RateLimitPause}: they're rescheduled for when the pause has passed.  Only
+ * the HTTP round trips themselves hold a thread, so a handful of threads can keep many more
+ * requests outstanding.
+ */
+public class AsyncRequestExecutor {
+
+  /**
+   * Receives the outcome of a request, on one of the executor's threads.
+   * @param <T> The type of the parsed response
+   */
+  public interface Callback<T> {
+
+    /** Called with the parsed response when the request succeeds. */
+    void onSuccess(T response);
+
+    /** Called when the request fails, after any retries. */
+    void onFailure(IOException e);
+  }
+
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Creates an executor with its own thread pool.  Call {@link #shutdown()} when done with it.
+   * @param threads  The number of requests that can be in transit at once
+   */
+  public AsyncRequestExecutor(int threads) {
+    this(Executors.newScheduledThreadPool(threads));
+  }
+
+  /**
+   * Creates an executor using the thread pool provided, which is used both to send requests and
+   * to schedule retries.
+   * @param executor  The thread pool to use
+   */
+  public AsyncRequestExecutor(ScheduledExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Sends the request in the background.
+   * @param request  The API request to execute
+   * @return The eventual parsed response
+   */
+  public <T> Future<T> submit(AbstractGoogleClientRequest<T> request) {
+    return submit(request, null);
+  }
+
+  /**
+   * Sends the request in the background, calling the callback with the outcome.
+   * @param request  The API request to execute
+   * @param callback  Called when the request completes, or null
+   * @return The eventual parsed response
+   */
+  public <T> Future<T> submit(AbstractGoogleClientRequest<T> request, Callback<T> callback) {
+    Call<T> call = new Call<T>(request, callback);
+    call.schedule(0);
+    return call;
+  }
+
+  /** Shuts down the thread pool, letting requests already submitted complete. */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * One request, attempted as many times as its back-off allows.  The same {@link HttpRequest}
+   * is re-executed for each attempt, so its back-off state carries over.
+   */
+  private class Call<T> implements Future<T>, Runnable, HttpUnsuccessfulResponseHandler,
+      Sleeper {
+    private final AbstractGoogleClientRequest<T> request;
+    private final Callback<T> callback;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private HttpRequest httpRequest;
+    private HttpUnsuccessfulResponseHandler handler;
+    private int retriesRemaining;
+    private long backOffMillis;
+    private volatile Future<?> pending;
+    private volatile boolean cancelled;
+    private boolean completed;
+    private T result;
+    private IOException failure;
+
+    Call(AbstractGoogleClientRequest<T> request, Callback<T> callback) {
+      this.request = request;
+      this.callback = callback;
+    }
+
+    void schedule(long delayMillis) {
+      pending = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+      if (cancelled) {
+        pending.cancel(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        attempt();
+      } catch (RuntimeException e) {
+        complete(null, new IOException(e.getMessage(), e));
+      } catch (Error e) {
+        // the executor would swallow it, leaving anyone waiting on the result blocked forever
+        complete(null, new IOException(e.getMessage(), e));
+        throw e;
+      }
+    }
+
+    /** Sends the request once, completing the call or scheduling the next attempt. */
+    private void attempt() {
+      if (cancelled) {
+        return;
+      }
+      HttpResponse response = null;
+      long pausedMillis = -1;
+      try {
+        if (httpRequest == null) {
+          httpRequest = request.buildHttpRequest();
+          handler = httpRequest.getUnsuccessfulResponseHandler();
+          HttpBackOffUnsuccessfulResponseHandler backOffHandler =
+              HttpRequestInitializerPipeline.findBackOffHandler(handler, httpRequest);
+          if (backOffHandler != null) {
+            backOffHandler.setSleeper(this);
+          }
+          httpRequest.setUnsuccessfulResponseHandler(this);
+          retriesRemaining = httpRequest.getNumberOfRetries();
+        }
+        backOffMillis = -1;
+        RateLimitPause.setDeferring(true);
+        try {
+          response = httpRequest.execute();
+        } finally {
+          RateLimitPause.setDeferring(false);
+        }
+      } catch (RateLimitPause.PausedException e) {
+        // not sent, so not a retry
+        pausedMillis = e.getRemainingMillis();
+      } catch (IOException e) {
+        if (backOffMillis < 0) {
+          complete(null, e);
+          return;
+        }
+      }
+
+      try {
+        if (pausedMillis >= 0) {
+          schedule(pausedMillis);
+        } else if (backOffMillis >= 0) {
+          if (response != null) {
+            response.disconnect();
+          }
+          retriesRemaining--;
+          schedule(backOffMillis);
+        } else {
+          complete(response.parseAs(request.getResponseClass()), null);
+        }
+      } catch (IOException e) {
+        complete(null, e);
+      } catch (RejectedExecutionException e) {
+        complete(null, new IOException("Executor shut down before the request could be retried"));
+      }
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+        boolean supportsRetry) throws IOException {
+      if (handler == null) {
+        return false;
+      }
+      boolean retry = handler.handleResponse(request, response,
+          supportsRetry && retriesRemaining > 0);
+      // a back-off was requested, so fail this attempt and schedule the next
+      return retry && backOffMillis < 0;
+    }
+
+    @Override
+    public void sleep(long millis) {
+      backOffMillis = millis;
+    }
+
+    private void complete(T result, IOException failure) {
+      synchronized (this) {
+        if (completed) {
+          return;
+        }
+        completed = true;
+        this.result = result;
+        this.failure = failure;
+      }
+      // call back before waking any waiting threads, so they see the callback's effects
+      try {
+        if (callback != null) {
+          if (failure == null) {
+            callback.onSuccess(result);
+          } else {
+            callback.onFailure(failure);
+          }
+        }
+      } finally {
+        done.countDown();
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (this) {
+        if (completed) {
+          return false;
+        }
+        completed = true;
+        cancelled = true;
+      }
+      done.countDown();
+      Future<?> attempt = pending;
+      if (attempt != null) {
+        attempt.cancel(mayInterruptIfRunning);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      done.await();
+      return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      return result;
+    }
+  }
+}
@@ -1,47 +1,215 @@
 package com.google.maps.clients;
 
 import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler.BackOffRequired;
+import com.google.api.client.http.HttpExecuteInterceptor;
 import com.google.api.client.http.HttpRequest;
-import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
 import com.google.api.client.util.ExponentialBackOff;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Syntactic short-cut that sets up HTTP request retries when an API response errors due to
  * quota exceeded errors or back-end errors. If you wish to tweak the options any further,
  * consider writing your own HttpUnsuccessfulResponseHandler.
  *
+ * Checking for a quota error means reading the response body.  Wrap the transport with
+ * {@link #wrap(HttpTransport)} so the body can be read again afterwards, otherwise
+ * {@code GoogleJsonResponseException.getDetails()} will be null for errors that aren't retried.
+ *
+ * Back-off state is kept per request, so one initializer, and one API client, can be shared by
+ * any number of threads.  Pass a {@link RateLimitPause} to have all of those threads hold off
+ * together when any of them is rate limited.
+ *
+ * Any unsuccessful response handler already installed on a request, such as a credential's token
+ * refresh, is run first, and the request is only backed off if that handler doesn't retry it.
+ *
  * {@link com.google.api.client.util.ExponentialBackOff}
  */
-public class BackOffWhenRateLimitedRequestInitializer implements HttpRequestInitializer {
+public class BackOffWhenRateLimitedRequestInitializer implements ChainingRequestInitializer {
 
+  /**
+   * The back-off check of the request last initialized, on any thread.
+   * @deprecated Use {@link #getResponseBody(HttpRequest)}, or {@link #getLastResponseBody()} on
+   *     the thread that executed the request.
+   */
+  @Deprecated
   protected RateLimitedBackOffRequired backOffRequired;
 
+  // the body of the error response last checked on each thread, for getLastResponseBody(); only
+  // the body is kept, not the check, so its buffer goes when the request does
+  private final ThreadLocal<String> lastResponseBody = new ThreadLocal<String>();
+
+  private final RateLimitPause pause;
+
+  /** Creates an initializer that backs off each request independently. */
+  public BackOffWhenRateLimitedRequestInitializer() {
+    this(null);
+  }
+
+  /**
+   * Creates an initializer that, as well as backing off each request, makes every request wait
+   * out a pause shared with the other requests to the project.
+   * @param pause  The shared pause, or null to back off each request independently
+   */
+  public BackOffWhenRateLimitedRequestInitializer(RateLimitPause pause) {
+    this.pause = pause;
+  }
+
   @Override
   public void initialize(HttpRequest httpRequest) throws IOException {
     // use the built in exponential back-off classes
     HttpBackOffUnsuccessfulResponseHandler failHandler =
         new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff());
 
-    // use this wrapper's custom back-off logic
-    backOffRequired = new RateLimitedBackOffRequired();
+    // use this wrapper's custom back-off logic, with state for this request only
+    ThreadTrackedBackOffRequired backOffRequired = new ThreadTrackedBackOffRequired();
     failHandler.setBackOffRequired(backOffRequired);
+    this.backOffRequired = backOffRequired;
 
-    httpRequest.setUnsuccessfulResponseHandler(failHandler);
+    // only back off when any handler already installed, e.g. a token refresh, doesn't retry
+    httpRequest.setUnsuccessfulResponseHandler(HttpRequestInitializerPipeline.compose(
+        httpRequest.getUnsuccessfulResponseHandler(), failHandler));
+
+    if (pause != null) {
+      PauseInterceptor interceptor = new PauseInterceptor(
+          httpRequest.getInterceptor(), httpRequest.getResponseInterceptor());
+      httpRequest.setInterceptor(interceptor);
+      httpRequest.setResponseInterceptor(interceptor);
+    }
   }
 
   /**
-   * Retrieve the last response body. Responses are cached with each processed request to ensure
-   * that the data from an InputStream that has been consumed can be made available.
+   * Retrieve the last response body handled on the calling thread. Responses are cached with each
+   * processed request to ensure that the data from an InputStream that has been consumed can be
+   * made available.
    *
    * You should only rely on the data in this method when catching a GoogleJsonResponseException
-   * and when the getContent or getDetails calls return null. This is not thread-safe.
+   * and when the getContent or getDetails calls return null.  Since requests are executed on the
+   * thread that calls {@code execute()}, this is the body of the request that just failed, even
+   * when the client is shared between threads.
    *
    * @return The full response body from the last JSON error response handled by the
-   * UnsuccessfulResponseHandler.
+   * UnsuccessfulResponseHandler on this thread, or null if there was none.
    */
   public String getLastResponseBody() {
-    return backOffRequired.responseBody;
+    return lastResponseBody.get();
+  }
+
+  /**
+   * Retrieve the last response body handled for a request initialized by this class, for when
+   * requests are executed on other threads.  Call it once the request has completed.
+   *
+   * @param httpRequest  A request initialized by this class
+   * @return The response body from the last JSON error response handled for the request, or null
+   * if there was none.
+   */
+  public static String getResponseBody(HttpRequest httpRequest) {
+    HttpBackOffUnsuccessfulResponseHandler handler =
+        HttpRequestInitializerPipeline.findBackOffHandler(
+            httpRequest.getUnsuccessfulResponseHandler(), httpRequest);
+    if (handler != null) {
+      BackOffRequired backOffRequired = handler.getBackOffRequired();
+      if (backOffRequired instanceof RateLimitedBackOffRequired) {
+        return ((RateLimitedBackOffRequired) backOffRequired).getResponseBody();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Wraps the transport used by the API client so that error response bodies can be read more
+   * than once.
+   * @param transport  The transport that actually sends requests
+   * @return A transport to pass to the API client's builder
+   */
+  public static HttpTransport wrap(HttpTransport transport) {
+    return new ReplayableErrorTransport(transport);
+  }
+
+  /** Keeps error response bodies as they're read, so they can be rewound. */
+  private static final class ReplayableErrorTransport extends ForwardingHttpTransport {
+
+    ReplayableErrorTransport(HttpTransport delegate) {
+      super(delegate);
+    }
+
+    @Override
+    protected LowLevelHttpResponse execute(ForwardedRequest request) throws IOException {
+      LowLevelHttpResponse response = request.forward();
+      if (HttpStatusCodes.isSuccess(response.getStatusCode())) {
+        return response;
+      }
+      InputStream content = response.getContent();
+      return content == null
+          ? response : new ReplayedResponse(response, new ReplayableInputStream(content));
+    }
+  }
+
+  /**
+   * Records the body it checks as the last on the thread it runs on, and opens the shared pause
+   * when rate limited.
+   */
+  private final class ThreadTrackedBackOffRequired extends RateLimitedBackOffRequired {
+    @Override
+    public boolean isRequired(HttpResponse httpResponse) {
+      try {
+        return super.isRequired(httpResponse);
+      } finally {
+        String body = getResponseBody();
+        if (body == null) {
+          lastResponseBody.remove();
+        } else {
+          lastResponseBody.set(body);
+        }
+      }
+    }
+
+    @Override
+    protected void onRateLimited(HttpResponse httpResponse) {
+      if (pause != null) {
+        pause.onRateLimited();
+      }
+    }
+  }
+
+  /**
+   * Waits out the shared pause before each request is sent and shrinks it after each success.
+   * On an {@link AsyncRequestExecutor}'s threads the pause isn't waited out, but ends the attempt
+   * so the executor can reschedule it.  Any interceptors already installed on the request are run
+   * first.
+   */
+  private final class PauseInterceptor implements HttpExecuteInterceptor, HttpResponseInterceptor {
+    private final HttpExecuteInterceptor previous;
+    private final HttpResponseInterceptor previousResponse;
+
+    PauseInterceptor(HttpExecuteInterceptor previous, HttpResponseInterceptor previousResponse) {
+      this.previous = previous;
+      this.previousResponse = previousResponse;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      if (previous != null) {
+        previous.intercept(request);
+      }
+      pause.await();
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      if (previousResponse != null) {
+        previousResponse.interceptResponse(response);
+      }
+      if (response.isSuccessStatusCode()) {
+        pause.onSuccess();
+      }
+    }
   }
 }
@@ -0,0 +1,12 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpRequestInitializer;
+
+/**
+ * An initializer that wraps, rather than replaces, any interceptors and handlers already installed
+ * on a request.  {@link HttpRequestInitializerPipeline} composes the interceptors and handlers of
+ * any other initializer with those installed before it, so that one can't silently overwrite
+ * another, e.g. a back-off handler overwriting a credential's token refresh.
+ */
+public interface ChainingRequestInitializer extends HttpRequestInitializer {
+}
@@ -0,0 +1,231 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.NanoClock;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fails requests fast while the API is down.  After a run of server errors or connection
+ * failures the circuit for that host opens, and requests (including retries) throw
+ * {@link OpenCircuitException} without being sent.  Once the circuit has been open for a while,
+ * a single probe request is let through: if it succeeds the circuit closes, otherwise it stays
+ * open for another period.
+ *
+ * {@code HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(credential,
+ *     new BackOffWhenRateLimitedRequestInitializer(), new CircuitBreaker());
+ * }
+ *
+ * Circuits are kept per host.  Override {@link #getCircuitKey(HttpRequest)} to keep them per
+ * API method instead.
+ */
+public class CircuitBreaker implements ChainingRequestInitializer {
+
+  /** Consecutive failures that open a circuit, unless otherwise specified. */
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  /** How long a circuit stays open before it is probed, unless otherwise specified. */
+  public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final NanoClock clock;
+  private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+  /** Creates a breaker that opens after 5 failures, for 30 seconds at a time. */
+  public CircuitBreaker() {
+    this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+  }
+
+  /**
+   * Creates a breaker.
+   * @param failureThreshold  The number of consecutive failures that open a circuit
+   * @param openMillis  How long a circuit stays open before a probe request is let through
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, NanoClock.SYSTEM);
+  }
+
+  CircuitBreaker(int failureThreshold, long openMillis, NanoClock clock) {
+    if (failureThreshold <= 0 || openMillis <= 0) {
+      throw new IllegalArgumentException("Failure threshold and open time must be positive");
+    }
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.clock = clock;
+  }
+
+  @Override
+  public void initialize(HttpRequest httpRequest) throws IOException {
+    BreakingInterceptor interceptor = new BreakingInterceptor(httpRequest.getInterceptor(),
+        httpRequest.getResponseInterceptor(), httpRequest.getUnsuccessfulResponseHandler(),
+        httpRequest.getIOExceptionHandler());
+    httpRequest.setInterceptor(interceptor);
+    httpRequest.setResponseInterceptor(interceptor);
+    httpRequest.setUnsuccessfulResponseHandler(interceptor);
+    httpRequest.setIOExceptionHandler(interceptor);
+  }
+
+  /**
+   * Returns the key of the circuit a request belongs to, by default its host.
+   * @param request  The request about to be sent
+   */
+  protected String getCircuitKey(HttpRequest request) {
+    return request.getUrl().getHost();
+  }
+
+  /**
+   * Returns true if the circuit for the key is open, or being probed.
+   * @param key  A key returned by {@link #getCircuitKey(HttpRequest)}
+   */
+  public boolean isOpen(String key) {
+    Circuit circuit = circuits.get(key);
+    return circuit != null && circuit.state != Circuit.CLOSED;
+  }
+
+  private Circuit circuitFor(String key) {
+    Circuit circuit = circuits.get(key);
+    if (circuit == null) {
+      Circuit created = new Circuit();
+      circuit = circuits.putIfAbsent(key, created);
+      if (circuit == null) {
+        circuit = created;
+      }
+    }
+    return circuit;
+  }
+
+  /** Thrown instead of sending a request while its circuit is open. */
+  public static class OpenCircuitException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    OpenCircuitException(String key) {
+      super("Circuit open for " + key + " after repeated failures, request not sent");
+    }
+  }
+
+  /** The state of the requests to one host. */
+  private final class Circuit {
+    static final int CLOSED = 0;
+    static final int OPEN = 1;
+    static final int HALF_OPEN = 2;
+
+    volatile int state = CLOSED;
+    final AtomicInteger failures = new AtomicInteger();
+    // when the circuit opened, or was last probed
+    final AtomicLong openedAt = new AtomicLong();
+
+    boolean allowRequest() {
+      if (state == CLOSED) {
+        return true;
+      }
+      long now = clock.nanoTime();
+      long opened = openedAt.get();
+      // let exactly one request through each period, as a probe
+      if (now - opened >= openNanos && openedAt.compareAndSet(opened, now)) {
+        state = HALF_OPEN;
+        return true;
+      }
+      return false;
+    }
+
+    void onSuccess() {
+      if (failures.get() != 0) {
+        failures.set(0);
+      }
+      if (state != CLOSED) {
+        state = CLOSED;
+      }
+    }
+
+    void onFailure() {
+      if (state != CLOSED || failures.incrementAndGet() >= failureThreshold) {
+        openedAt.set(clock.nanoTime());
+        state = OPEN;
+      }
+    }
+  }
+
+  /**
+   * Stops requests on open circuits, and records each response or connection failure against
+   * the request's circuit.  Any interceptors or handlers already installed on the request are run
+   * first.
+   *
+   * The response interceptor only sees the final response, after any retries, while the
+   * unsuccessful response handler sees every error response, so failures are recorded by the
+   * handler and successes by the interceptor.
+   */
+  private class BreakingInterceptor implements HttpExecuteInterceptor, HttpResponseInterceptor,
+      ForwardingResponseHandler, HttpIOExceptionHandler {
+    private final HttpExecuteInterceptor previous;
+    private final HttpResponseInterceptor previousResponse;
+    private final HttpUnsuccessfulResponseHandler previousHandler;
+    private final HttpIOExceptionHandler previousIOExceptionHandler;
+    private Circuit circuit;
+
+    BreakingInterceptor(HttpExecuteInterceptor previous, HttpResponseInterceptor previousResponse,
+        HttpUnsuccessfulResponseHandler previousHandler,
+        HttpIOExceptionHandler previousIOExceptionHandler) {
+      this.previous = previous;
+      this.previousResponse = previousResponse;
+      this.previousHandler = previousHandler;
+      this.previousIOExceptionHandler = previousIOExceptionHandler;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      if (previous != null) {
+        previous.intercept(request);
+      }
+      String key = getCircuitKey(request);
+      circuit = circuitFor(key);
+      if (!circuit.allowRequest()) {
+        throw new OpenCircuitException(key);
+      }
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      if (previousResponse != null) {
+        previousResponse.interceptResponse(response);
+      }
+      if (response.getStatusCode() < 500) {
+        circuit.onSuccess();
+      }
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+        throws IOException {
+      if (response.getStatusCode() >= 500) {
+        circuit.onFailure();
+      }
+      return previousHandler != null
+          && previousHandler.handleResponse(request, response, supportsRetry);
+    }
+
+    @Override
+    public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+      return Collections.singletonList(previousHandler);
+    }
+
+    @Override
+    public boolean handleIOException(HttpRequest request, boolean supportsRetry)
+        throws IOException {
+      circuit.onFailure();
+      return previousIOExceptionHandler != null
+          && previousIOExceptionHandler.handleIOException(request, supportsRetry);
+    }
+  }
+}
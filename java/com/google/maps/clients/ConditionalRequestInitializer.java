@@ -0,0 +1,260 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Limits another initializer to the requests it's relevant to, by HTTP method, API method path or
+ * request size, so that e.g. read requests don't pay for upload-only logic.
+ *
+ * {@code HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(credential,
+ *     new ConditionalRequestInitializer("POST", "tables/{id}/features/batchInsert",
+ *         new GZipContentRequestInitializer()),
+ *     new ConditionalRequestInitializer("GET", null, cache));
+ * }
+ *
+ * Requests are initialized before their method and URL are set, so the conditions are checked as
+ * each request is sent, and apply to the interceptors and handlers the initializer installs.
+ * Whether a route (an HTTP method and path, with IDs replaced by {@code {id}}) matches is worked
+ * out once and cached; only the size is checked for every request.
+ */
+public class ConditionalRequestInitializer implements ChainingRequestInitializer {
+
+  // path segments in an ID's position that are actually part of the method
+  private static final Set<String> CUSTOM_VERBS = new HashSet<String>(Arrays.asList(
+      "batchDelete", "batchInsert", "batchPatch", "cancelProcessing", "process", "publish",
+      "published", "unpublish", "upload"));
+
+  private final String method;
+  private final Pattern pathPattern;
+  private final long minContentLength;
+  private final HttpRequestInitializer initializer;
+  private final ConcurrentMap<String, Boolean> routes = new ConcurrentHashMap<String, Boolean>();
+
+  /**
+   * Creates an initializer that applies to requests with the given method and path.
+   * @param method  The HTTP method, e.g. {@code POST}, or null for any
+   * @param pathTemplate  The path after the API version, e.g. {@code tables/{id}/features}, where
+   *     {@code *} matches any part of a path segment, or null for any
+   * @param initializer  The initializer to apply to matching requests
+   */
+  public ConditionalRequestInitializer(String method, String pathTemplate,
+      HttpRequestInitializer initializer) {
+    this(method, pathTemplate, 0, initializer);
+  }
+
+  /**
+   * Creates an initializer that applies to requests with the given method and path, and a body of
+   * at least the given size.
+   * @param method  The HTTP method, e.g. {@code POST}, or null for any
+   * @param pathTemplate  The path after the API version, e.g. {@code tables/{id}/features}, where
+   *     {@code *} matches any part of a path segment, or null for any
+   * @param minContentLength  The smallest body, in bytes, to apply to.  Bodies of unknown length
+   *     match.
+   * @param initializer  The initializer to apply to matching requests
+   */
+  public ConditionalRequestInitializer(String method, String pathTemplate, long minContentLength,
+      HttpRequestInitializer initializer) {
+    this.method = method;
+    this.pathPattern = pathTemplate == null ? null : compile(pathTemplate);
+    this.minContentLength = minContentLength;
+    this.initializer = initializer;
+  }
+
+  @Override
+  public void initialize(HttpRequest httpRequest) throws IOException {
+    HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+    HttpResponseInterceptor responseInterceptor = httpRequest.getResponseInterceptor();
+    HttpUnsuccessfulResponseHandler handler = httpRequest.getUnsuccessfulResponseHandler();
+    HttpIOExceptionHandler ioExceptionHandler = httpRequest.getIOExceptionHandler();
+
+    // composed, so that what's installed runs everything that was installed before
+    HttpRequestInitializerPipeline.initializeComposed(initializer, httpRequest);
+
+    Gate gate = new Gate(interceptor, httpRequest.getInterceptor(), responseInterceptor,
+        httpRequest.getResponseInterceptor(), handler, httpRequest.getUnsuccessfulResponseHandler(),
+        ioExceptionHandler, httpRequest.getIOExceptionHandler());
+    if (httpRequest.getInterceptor() != interceptor) {
+      httpRequest.setInterceptor(gate);
+    }
+    if (httpRequest.getResponseInterceptor() != responseInterceptor) {
+      httpRequest.setResponseInterceptor(gate);
+    }
+    if (httpRequest.getUnsuccessfulResponseHandler() != handler) {
+      httpRequest.setUnsuccessfulResponseHandler(gate);
+    }
+    if (httpRequest.getIOExceptionHandler() != ioExceptionHandler) {
+      httpRequest.setIOExceptionHandler(gate);
+    }
+  }
+
+  /** Returns the initializer applied to matching requests. */
+  public HttpRequestInitializer getInitializer() {
+    return initializer;
+  }
+
+  /**
+   * Returns true if the request matches the conditions.
+   * @param request  A request about to be sent
+   */
+  public boolean appliesTo(HttpRequest request) {
+    String route = routeOf(request);
+    Boolean matches = routes.get(route);
+    if (matches == null) {
+      String path = route.substring(route.indexOf(' ') + 1);
+      matches = (method == null || method.equals(request.getRequestMethod()))
+          && (pathPattern == null || pathPattern.matcher(path).matches());
+      routes.putIfAbsent(route, matches);
+    }
+    if (!matches) {
+      return false;
+    }
+
+    HttpContent content = request.getContent();
+    if (minContentLength > 0 && content != null) {
+      try {
+        long length = content.getLength();
+        return length < 0 || length >= minContentLength;
+      } catch (IOException e) {
+        // the length is unknown
+      }
+    }
+    return minContentLength <= 0 || content != null;
+  }
+
+  /**
+   * Returns the route of a request: the HTTP method and the path after the API version, with IDs
+   * replaced by {@code {id}}, e.g. {@code POST tables/{id}/features/batchInsert}.
+   * @param request  A request with its method and URL set
+   */
+  static String routeOf(HttpRequest request) {
+    List<String> parts = request.getUrl().getPathParts();
+    StringBuilder route = new StringBuilder(request.getRequestMethod()).append(' ');
+    int start = 1;
+    for (int i = 1; parts != null && i < parts.size(); i++) {
+      String part = parts.get(i);
+      if (part.length() > 1 && part.charAt(0) == 'v' && Character.isDigit(part.charAt(1))) {
+        start = i + 1;
+        break;
+      }
+    }
+    // resources alternate between collection names and IDs
+    for (int i = start; parts != null && i < parts.size(); i++) {
+      String part = parts.get(i);
+      if (i > start) {
+        route.append('/');
+      }
+      boolean idPosition = (i - start) % 2 == 1;
+      route.append(idPosition && !CUSTOM_VERBS.contains(part) ? "{id}" : part);
+    }
+    return route.toString();
+  }
+
+  private static Pattern compile(String pathTemplate) {
+    StringBuilder regex = new StringBuilder();
+    for (String literal : pathTemplate.split("\\*", -1)) {
+      if (regex.length() > 0) {
+        regex.append("[^/]*");
+      }
+      regex.append(Pattern.quote(literal));
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * Runs the interceptors and handlers the initializer installed when the request matches, and
+   * those installed before it otherwise.
+   */
+  private class Gate implements HttpExecuteInterceptor, HttpResponseInterceptor,
+      ForwardingResponseHandler, HttpIOExceptionHandler {
+    private final HttpExecuteInterceptor interceptor;
+    private final HttpExecuteInterceptor matchedInterceptor;
+    private final HttpResponseInterceptor responseInterceptor;
+    private final HttpResponseInterceptor matchedResponseInterceptor;
+    private final HttpUnsuccessfulResponseHandler handler;
+    private final HttpUnsuccessfulResponseHandler matchedHandler;
+    private final HttpIOExceptionHandler ioExceptionHandler;
+    private final HttpIOExceptionHandler matchedIOExceptionHandler;
+    // the request's route doesn't change, so it's only matched once
+    private Boolean applies;
+
+    Gate(HttpExecuteInterceptor interceptor, HttpExecuteInterceptor matchedInterceptor,
+        HttpResponseInterceptor responseInterceptor,
+        HttpResponseInterceptor matchedResponseInterceptor,
+        HttpUnsuccessfulResponseHandler handler, HttpUnsuccessfulResponseHandler matchedHandler,
+        HttpIOExceptionHandler ioExceptionHandler,
+        HttpIOExceptionHandler matchedIOExceptionHandler) {
+      this.interceptor = interceptor;
+      this.matchedInterceptor = matchedInterceptor;
+      this.responseInterceptor = responseInterceptor;
+      this.matchedResponseInterceptor = matchedResponseInterceptor;
+      this.handler = handler;
+      this.matchedHandler = matchedHandler;
+      this.ioExceptionHandler = ioExceptionHandler;
+      this.matchedIOExceptionHandler = matchedIOExceptionHandler;
+    }
+
+    private boolean applies(HttpRequest request) {
+      if (applies == null) {
+        applies = appliesTo(request);
+      }
+      return applies;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      HttpExecuteInterceptor chosen = applies(request) ? matchedInterceptor : interceptor;
+      if (chosen != null) {
+        chosen.intercept(request);
+      }
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      HttpResponseInterceptor chosen =
+          applies(response.getRequest()) ? matchedResponseInterceptor : responseInterceptor;
+      if (chosen != null) {
+        chosen.interceptResponse(response);
+      }
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+        throws IOException {
+      HttpUnsuccessfulResponseHandler chosen = applies(request) ? matchedHandler : handler;
+      return chosen != null && chosen.handleResponse(request, response, supportsRetry);
+    }
+
+    @Override
+    public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+      if (request == null) {
+        return Arrays.asList(handler, matchedHandler);
+      }
+      return Collections.singletonList(applies(request) ? matchedHandler : handler);
+    }
+
+    @Override
+    public boolean handleIOException(HttpRequest request, boolean supportsRetry)
+        throws IOException {
+      HttpIOExceptionHandler chosen =
+          applies(request) ? matchedIOExceptionHandler : ioExceptionHandler;
+      return chosen != null && chosen.handleIOException(request, supportsRetry);
+    }
+  }
+}
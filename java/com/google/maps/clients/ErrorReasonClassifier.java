@@ -0,0 +1,63 @@
+package com.google.maps.clients;
+
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Finds the reason for an API error response by walking its JSON tokens, without binding the
+ * body to objects.  Reading stops as soon as the answer is known, typically within the first few
+ * hundred bytes.
+ *
+ * {@code String reason = ErrorReasonClassifier.singleReason(jsonFactory.createJsonParser(in));}
+ */
+final class ErrorReasonClassifier {
+
+  private ErrorReasonClassifier() {}
+
+  /**
+   * Reads the reason from an error response of the form
+   * {@code {"error": {"errors": [{"reason": "..."}]}}}.
+   * @param parser  A parser positioned at the start of the response
+   * @return the reason, or null if the response doesn't have exactly one error with a reason
+   * @throws IOException when the response could not be read or is not valid JSON
+   */
+  static String singleReason(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT
+        || !seekField(parser, "error") || parser.nextToken() != JsonToken.START_OBJECT
+        || !seekField(parser, "errors") || parser.nextToken() != JsonToken.START_ARRAY
+        || parser.nextToken() != JsonToken.START_OBJECT) {
+      return null;
+    }
+
+    String reason = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if ("reason".equals(name) && value == JsonToken.VALUE_STRING) {
+        reason = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    // anything after the first error means there was more than one
+    return parser.nextToken() == JsonToken.END_ARRAY ? reason : null;
+  }
+
+  /**
+   * Skips the fields of the current object up to the named one.
+   * @return true if the field was found, leaving the parser on its name
+   */
+  private static boolean seekField(JsonParser parser, String name) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      if (name.equals(parser.getCurrentName())) {
+        return true;
+      }
+      parser.nextToken();
+      parser.skipChildren();
+    }
+    return false;
+  }
+}
@@ -0,0 +1,356 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link HttpTransport} that hands every low-level request on to another transport.
+ *
+ * {@link HttpResponse} is final and reads its body straight from the transport, so anything that
+ * wants to replace a response body (e.g. serving a cached copy) has to sit here rather than in an
+ * {@link com.google.api.client.http.HttpRequestInitializer}.  Subclasses override
+ * {@link #execute(ForwardedRequest)} to inspect or replace the exchange.
+ */
+abstract class ForwardingHttpTransport extends HttpTransport {
+
+  private final HttpTransport delegate;
+  private final HttpRequestFactory requestFactory;
+
+  ForwardingHttpTransport(HttpTransport delegate) {
+    this.delegate = delegate;
+    this.requestFactory = delegate.createRequestFactory();
+  }
+
+  @Override
+  public boolean supportsMethod(String method) throws IOException {
+    return delegate.supportsMethod(method);
+  }
+
+  @Override
+  protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+    return new ForwardedRequest(method, url);
+  }
+
+  @Override
+  public void shutdown() throws IOException {
+    delegate.shutdown();
+  }
+
+  /**
+   * Executes a request.  The default implementation forwards it, unchanged, to the wrapped
+   * transport.
+   * @param request  The request built by the client library
+   * @return The response to hand back to the client library
+   */
+  protected LowLevelHttpResponse execute(ForwardedRequest request) throws IOException {
+    return request.forward();
+  }
+
+  /**
+   * A low-level request that records everything the client library sets on it, so that it can be
+   * replayed against the wrapped transport any number of times.
+   */
+  class ForwardedRequest extends LowLevelHttpRequest {
+    private final String method;
+    private final String url;
+    private final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+    private int connectTimeout = 20 * 1000;
+    private int readTimeout = 20 * 1000;
+
+    ForwardedRequest(String method, String url) {
+      this.method = method;
+      this.url = url;
+    }
+
+    String getMethod() {
+      return method;
+    }
+
+    String getUrl() {
+      return url;
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      String key = name.toLowerCase();
+      List<String> values = headers.get(key);
+      if (values == null) {
+        values = new ArrayList<String>(1);
+        headers.put(key, values);
+      }
+      values.add(value);
+    }
+
+    /** Returns the first value of the named header, or null if it was not set. */
+    String getFirstHeaderValue(String name) {
+      List<String> values = headers.get(name.toLowerCase());
+      return values == null ? null : values.get(0);
+    }
+
+    /** Removes all values of the named header. */
+    void removeHeader(String name) {
+      headers.remove(name.toLowerCase());
+    }
+
+    @Override
+    public void setTimeout(int connectTimeout, int readTimeout) {
+      this.connectTimeout = connectTimeout;
+      this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public LowLevelHttpResponse execute() throws IOException {
+      return ForwardingHttpTransport.this.execute(this);
+    }
+
+    /**
+     * Sends this request, as it currently stands, to the wrapped transport.  Retries, redirects
+     * and error handling are left to the client library's own request.
+     */
+    LowLevelHttpResponse forward() throws IOException {
+      StreamingContent content = getStreamingContent();
+      HttpRequest request = requestFactory.buildRequest(method, new GenericUrl(url),
+          content == null ? null : new ForwardedContent(content, getContentType(),
+              getContentLength()));
+      request.setNumberOfRetries(0)
+          .setFollowRedirects(false)
+          .setThrowExceptionOnExecuteError(false)
+          .setLoggingEnabled(false)
+          .setSuppressUserAgentSuffix(true)
+          .setConnectTimeout(connectTimeout)
+          .setReadTimeout(readTimeout)
+          .setResponseHeaders(new HttpHeaders().setAcceptEncoding(null));
+
+      HttpHeaders requestHeaders = request.getHeaders();
+      requestHeaders.setAcceptEncoding(null);
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        if (!"content-length".equals(header.getKey())) {
+          requestHeaders.set(header.getKey(), new ArrayList<String>(header.getValue()));
+        }
+      }
+      if (getContentEncoding() != null) {
+        requestHeaders.setContentEncoding(getContentEncoding());
+      }
+
+      return new ForwardedResponse(request.execute());
+    }
+  }
+
+  /** Presents the client library's streaming content as an {@link HttpContent}. */
+  private static final class ForwardedContent implements HttpContent {
+    private final StreamingContent content;
+    private final String type;
+    private final long length;
+
+    ForwardedContent(StreamingContent content, String type, long length) {
+      this.content = content;
+      this.type = type;
+      this.length = length;
+    }
+
+    @Override
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public String getType() {
+      return type;
+    }
+
+    @Override
+    public boolean retrySupported() {
+      return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      content.writeTo(out);
+    }
+  }
+
+  /**
+   * Presents a response from the wrapped transport as a low-level response.  The content has
+   * already been decoded by the wrapped request, so no content encoding is reported.  If the
+   * body has already been read, it can be supplied separately to be replayed.
+   */
+  static final class ForwardedResponse extends LowLevelHttpResponse {
+    private final HttpResponse response;
+    private final byte[] content;
+    private final List<String> headerNames = new ArrayList<String>();
+    private final List<String> headerValues = new ArrayList<String>();
+
+    ForwardedResponse(HttpResponse response) {
+      this(response, null);
+    }
+
+    ForwardedResponse(HttpResponse response, byte[] content) {
+      this.response = response;
+      this.content = content;
+      boolean encoded = response.getContentEncoding() != null;
+      for (Map.Entry<String, Object> header : response.getHeaders().entrySet()) {
+        String name = header.getKey();
+        if ("content-encoding".equalsIgnoreCase(name)
+            || (encoded && "content-length".equalsIgnoreCase(name))) {
+          continue;
+        }
+        Object value = header.getValue();
+        if (value instanceof Iterable<?>) {
+          for (Iterator<?> it = ((Iterable<?>) value).iterator(); it.hasNext(); ) {
+            headerNames.add(name);
+            headerValues.add(String.valueOf(it.next()));
+          }
+        } else if (value != null) {
+          headerNames.add(name);
+          headerValues.add(String.valueOf(value));
+        }
+      }
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      return content != null ? new ByteArrayInputStream(content) : response.getContent();
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public long getContentLength() {
+      if (content != null) {
+        return content.length;
+      }
+      Long length = response.getHeaders().getContentLength();
+      return response.getContentEncoding() == null && length != null ? length : -1;
+    }
+
+    @Override
+    public String getContentType() {
+      return response.getContentType();
+    }
+
+    @Override
+    public String getStatusLine() {
+      return null;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() {
+      return response.getStatusMessage();
+    }
+
+    @Override
+    public int getHeaderCount() {
+      return headerNames.size();
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+      return headerNames.get(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+      return headerValues.get(index);
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+      response.disconnect();
+    }
+  }
+
+  /**
+   * A low-level response with its content replaced, for example by a stream that replays the
+   * part that has already been read.
+   */
+  static final class ReplayedResponse extends LowLevelHttpResponse {
+    private final LowLevelHttpResponse response;
+    private final InputStream content;
+
+    ReplayedResponse(LowLevelHttpResponse response, InputStream content) {
+      this.response = response;
+      this.content = content;
+    }
+
+    @Override
+    public InputStream getContent() {
+      return content;
+    }
+
+    @Override
+    public String getContentEncoding() throws IOException {
+      return response.getContentEncoding();
+    }
+
+    @Override
+    public long getContentLength() throws IOException {
+      return response.getContentLength();
+    }
+
+    @Override
+    public String getContentType() throws IOException {
+      return response.getContentType();
+    }
+
+    @Override
+    public String getStatusLine() throws IOException {
+      return response.getStatusLine();
+    }
+
+    @Override
+    public int getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() throws IOException {
+      return response.getReasonPhrase();
+    }
+
+    @Override
+    public int getHeaderCount() throws IOException {
+      return response.getHeaderCount();
+    }
+
+    @Override
+    public String getHeaderName(int index) throws IOException {
+      return response.getHeaderName(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) throws IOException {
+      return response.getHeaderValue(index);
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+      response.disconnect();
+    }
+  }
+}
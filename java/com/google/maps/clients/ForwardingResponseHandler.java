@@ -0,0 +1,23 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.util.List;
+
+/**
+ * An unsuccessful response handler that hands failed responses on to other handlers, such as
+ * one installed before it.  Lets the handlers it wraps be found, notably the back-off handler
+ * whose sleeper and back-off check other classes need (see
+ * {@link HttpRequestInitializerPipeline#findBackOffHandler}).
+ */
+interface ForwardingResponseHandler extends HttpUnsuccessfulResponseHandler {
+
+  /**
+   * Returns the handlers that the request's failed responses may be handed on to, in the order
+   * they're offered them.  Any of them may be null.
+   * @param request  The request, or null if it's not yet built, in which case every handler that
+   *     might be used is returned
+   */
+  List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request);
+}
@@ -0,0 +1,195 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpEncoding;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses request bodies larger than a threshold with gzip, and asks for gzipped responses.
+ * Large {@code batchInsert} bodies are GeoJSON, which typically shrinks by around 10:1.
+ *
+ * {@code HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(
+ *     credential, new GZipContentRequestInitializer(64 * 1024));
+ * }
+ *
+ * The client library's own {@link com.google.api.client.http.GZipEncoding} compresses every body,
+ * however small, and compresses it twice: once to find its length and again to send it.  This
+ * replaces it with an encoding that compresses once, streaming the body through a pooled
+ * {@link Deflater}, and keeps only the compressed bytes for sending.  Requests
+ * queued in a batch are unaffected, as batches don't encode their parts.
+ */
+public class GZipContentRequestInitializer implements ChainingRequestInitializer {
+
+  /** Bodies smaller than this fit in a packet or two, so aren't worth compressing. */
+  public static final long DEFAULT_THRESHOLD_BYTES = 1024;
+
+  // magic number, deflate, no flags, no modification time, no extra flags, unknown OS
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+  private static final BlockingQueue<Deflater> DEFLATERS =
+      new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+
+  private final long thresholdBytes;
+
+  /**
+   * Creates an initializer that compresses bodies of {@value #DEFAULT_THRESHOLD_BYTES} bytes or
+   * more.
+   */
+  public GZipContentRequestInitializer() {
+    this(DEFAULT_THRESHOLD_BYTES);
+  }
+
+  /**
+   * Creates an initializer that compresses bodies of at least the size specified.  Bodies of
+   * unknown length are always compressed.
+   * @param thresholdBytes  The size, in bytes, of the smallest body to compress
+   */
+  public GZipContentRequestInitializer(long thresholdBytes) {
+    if (thresholdBytes < 0) {
+      throw new IllegalArgumentException("Threshold must not be negative");
+    }
+    this.thresholdBytes = thresholdBytes;
+  }
+
+  @Override
+  public void initialize(HttpRequest httpRequest) throws IOException {
+    httpRequest.setInterceptor(new CompressingInterceptor(httpRequest.getInterceptor()));
+  }
+
+  /**
+   * Chooses the encoding just before the request is sent, after the client library has set its
+   * own and after any content changes.
+   */
+  private class CompressingInterceptor implements HttpExecuteInterceptor {
+    private final HttpExecuteInterceptor previous;
+
+    CompressingInterceptor(HttpExecuteInterceptor previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      if (previous != null) {
+        previous.intercept(request);
+      }
+      if (request.getHeaders().getAcceptEncoding() == null) {
+        request.getHeaders().setAcceptEncoding("gzip");
+      }
+
+      HttpContent content = request.getContent();
+      if (content == null) {
+        request.setEncoding(null);
+        return;
+      }
+      long length = content.getLength();
+      if (length >= 0 && length < thresholdBytes) {
+        request.setEncoding(null);
+      } else {
+        request.setEncoding(new PooledGZipEncoding());
+      }
+    }
+  }
+
+  /**
+   * gzip encoding that compresses the content once, however many times it's asked to write it.
+   * {@link HttpRequest} writes the encoded content once to measure it and again to send it.  A
+   * new one is used for each attempt, in case the content changes between retries.
+   */
+  private static final class PooledGZipEncoding implements HttpEncoding {
+    private StreamingContent encodedContent;
+    private ByteArrayOutputStream encoded;
+
+    @Override
+    public String getName() {
+      return "gzip";
+    }
+
+    @Override
+    public void encode(StreamingContent content, OutputStream out) throws IOException {
+      if (content != encodedContent) {
+        encoded = new ByteArrayOutputStream();
+        encodedContent = null;
+        compress(content, encoded);
+        encodedContent = content;
+      }
+      encoded.writeTo(out);
+    }
+  }
+
+  /** Writes the content to the stream as a gzip member, using a pooled deflater. */
+  private static void compress(StreamingContent content, OutputStream out) throws IOException {
+    Deflater deflater = DEFLATERS.poll();
+    if (deflater == null) {
+      deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+    boolean reusable = false;
+    try {
+      out.write(GZIP_HEADER);
+      DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 8192);
+      CrcOutputStream body = new CrcOutputStream(deflated);
+      content.writeTo(body);
+      deflated.finish();
+      writeIntLE(out, (int) body.crc.getValue());
+      writeIntLE(out, (int) body.count);
+      reusable = true;
+    } finally {
+      if (reusable) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+          deflater.end();
+        }
+      } else {
+        deflater.end();
+      }
+    }
+  }
+
+  private static void writeIntLE(OutputStream out, int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >>> 8) & 0xff);
+    out.write((value >>> 16) & 0xff);
+    out.write((value >>> 24) & 0xff);
+  }
+
+  /** Tracks the checksum and length of the uncompressed data for the gzip trailer. */
+  private static final class CrcOutputStream extends FilterOutputStream {
+    final CRC32 crc = new CRC32();
+    long count;
+
+    CrcOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      crc.update(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      crc.update(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() {
+      // the content isn't allowed to finish the stream; compress() does that
+    }
+  }
+}
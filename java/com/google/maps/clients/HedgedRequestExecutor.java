@@ -0,0 +1,207 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.util.NanoClock;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cuts the tail latency of GET requests by hedging: if no response has arrived once a request
+ * has taken longer than most recent requests (the 95th percentile, by default), the same request
+ * is sent again and the first response to arrive is returned.  The other attempt's result is
+ * discarded: it is interrupted, but a request blocked on the network can't be aborted, so it
+ * keeps its connection until its response arrives, which is then disconnected without being read.
+ *
+ * {@code HedgedRequestExecutor hedger = new HedgedRequestExecutor(Executors.newCachedThreadPool());
+ * Table table = hedger.execute(engine.tables().get(TABLE_ID));
+ * }
+ *
+ * Hedges are extra load, so give the executor the {@link RetryBudget} and {@link RateLimitPause}
+ * used by the client: each hedge then spends a retry, and no hedges are sent while the pause is
+ * open.  Attempts run on the executor, so it needs two threads for each concurrent request.
+ * Anything other than a GET is executed directly.
+ */
+public class HedgedRequestExecutor {
+
+  /** The latency percentile after which requests are hedged, unless otherwise specified. */
+  public static final double DEFAULT_PERCENTILE = 95;
+
+  // the number of recent latencies kept, and how many are needed before hedging starts
+  static final int SAMPLE_COUNT = 256;
+  static final int MIN_SAMPLES = 32;
+  // how often the hedge delay is recalculated, in samples
+  private static final int RECALCULATE_EVERY = 16;
+
+  private final ExecutorService executor;
+  private final double percentile;
+  private final RetryBudget budget;
+  private final RateLimitPause pause;
+  private final NanoClock clock;
+
+  private final AtomicLongArray latencies = new AtomicLongArray(SAMPLE_COUNT);
+  // a long, so it doesn't wrap negative however many latencies are recorded
+  final AtomicLong sampled = new AtomicLong();
+  // -1 until there are enough samples
+  private volatile long hedgeDelayNanos = -1;
+  private final AtomicLong hedgeCount = new AtomicLong();
+
+  /**
+   * Creates an executor that hedges requests slower than the 95th percentile, without limit.
+   * @param executor  The thread pool that sends each attempt
+   */
+  public HedgedRequestExecutor(ExecutorService executor) {
+    this(executor, DEFAULT_PERCENTILE, null, null);
+  }
+
+  /**
+   * Creates an executor.
+   * @param executor  The thread pool that sends each attempt
+   * @param percentile  The latency percentile, from 0 to 100, after which requests are hedged
+   * @param budget  The retry budget each hedge spends a retry from, or null
+   * @param pause  The rate limit pause during which no hedges are sent, or null
+   */
+  public HedgedRequestExecutor(ExecutorService executor, double percentile, RetryBudget budget,
+      RateLimitPause pause) {
+    this(executor, percentile, budget, pause, NanoClock.SYSTEM);
+  }
+
+  HedgedRequestExecutor(ExecutorService executor, double percentile, RetryBudget budget,
+      RateLimitPause pause, NanoClock clock) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    this.executor = executor;
+    this.percentile = percentile;
+    this.budget = budget;
+    this.pause = pause;
+    this.clock = clock;
+  }
+
+  /**
+   * Executes the request, hedging it if it is slow.
+   * @param request  The API request to execute
+   * @return The parsed response from whichever attempt answered first
+   * @throws IOException when every attempt failed, with the first failure
+   */
+  public <T> T execute(AbstractGoogleClientRequest<T> request) throws IOException {
+    if (!HttpMethods.GET.equals(request.getRequestMethod())) {
+      return request.execute();
+    }
+
+    ExecutorCompletionService<T> attempts = new ExecutorCompletionService<T>(executor);
+    List<Future<T>> sent = new ArrayList<Future<T>>(2);
+    try {
+      sent.add(attempts.submit(new Attempt<T>(request)));
+      long delay = hedgeDelayNanos;
+      Future<T> first = delay < 0 ? attempts.take() : attempts.poll(delay, TimeUnit.NANOSECONDS);
+      if (first == null) {
+        if (mayHedge()) {
+          sent.add(attempts.submit(new Attempt<T>(request)));
+          hedgeCount.incrementAndGet();
+        }
+        first = attempts.take();
+      }
+
+      try {
+        return first.get();
+      } catch (ExecutionException e) {
+        if (sent.size() == 1) {
+          throw rethrow(e);
+        }
+        // the other attempt may yet succeed
+        try {
+          return attempts.take().get();
+        } catch (ExecutionException ignored) {
+          throw rethrow(e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a hedged request");
+    } finally {
+      for (Future<T> attempt : sent) {
+        attempt.cancel(true);
+      }
+    }
+  }
+
+  /** Returns the number of hedges sent. */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /** Returns the current hedge delay in milliseconds, or -1 if requests aren't hedged yet. */
+  public long getHedgeDelayMillis() {
+    long delay = hedgeDelayNanos;
+    return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+  }
+
+  private boolean mayHedge() {
+    return (pause == null || pause.getRemainingMillis() == 0)
+        && (budget == null || budget.trySpendRetry());
+  }
+
+  private void record(long latencyNanos) {
+    long count = sampled.incrementAndGet();
+    latencies.set((int) ((count - 1) % SAMPLE_COUNT), latencyNanos);
+    if (count >= MIN_SAMPLES && count % RECALCULATE_EVERY == 0) {
+      int size = (int) Math.min(count, SAMPLE_COUNT);
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = latencies.get(i);
+      }
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * size) - 1;
+      hedgeDelayNanos = sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+  }
+
+  private static IOException rethrow(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(cause.getMessage(), cause);
+  }
+
+  /** One attempt at a request, recording its latency if it succeeds. */
+  private class Attempt<T> implements Callable<T> {
+    private final AbstractGoogleClientRequest<T> request;
+
+    Attempt(AbstractGoogleClientRequest<T> request) {
+      this.request = request;
+    }
+
+    @Override
+    public T call() throws IOException {
+      long start = clock.nanoTime();
+      HttpResponse response = request.buildHttpRequest().execute();
+      if (Thread.interrupted()) {
+        // the other attempt answered first, so don't read this one's body
+        response.disconnect();
+        throw new InterruptedIOException("Hedged request lost to the other attempt");
+      }
+      T result = response.parseAs(request.getResponseClass());
+      record(clock.nanoTime() - start);
+      return result;
+    }
+  }
+}
@@ -1,28 +1,57 @@
 package com.google.maps.clients;
 
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.Sleeper;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Provides a mechanism for running multiple HttpRequestInitializers in sequence.
  *
+ * Initializers often install their own interceptors and handlers, replacing any already on the
+ * request.  The pipeline composes them instead: interceptors run in the order their initializers
+ * were given, and each failed response is offered to the handlers in that order until one retries
+ * the request.  {@link ChainingRequestInitializer}s compose their own, and are left alone.
+ *
+ * Given a {@link SpanSink}, the pipeline also traces each request: a span for the request as a
+ * whole, and a child span for each initializer, for each execute interceptor and unsuccessful
+ * response handler they install, and for each back-off sleep.  An interceptor or handler that
+ * chains to one installed earlier includes its time.  The request's span is marked as an error
+ * when the request fails, whether with an error response or by throwing.  The trace context is
+ * sent in a W3C {@code traceparent} header, continuing any trace already named in that header.
+ *
+ * {@code RingBufferSpanSink spans = new RingBufferSpanSink(1024);
+ * HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(spans, credential, retrier);
+ * }
+ *
  * @author macd@google.com (Mark McDonald)
  */
-public class HttpRequestInitializerPipeline implements HttpRequestInitializer {
+public class HttpRequestInitializerPipeline implements ChainingRequestInitializer {
+
+  static final String TRACEPARENT = "traceparent";
+  private static final Random RANDOM = new Random();
 
   protected final List<HttpRequestInitializer> initializers;
+  private final SpanSink spanSink;
 
   /**
    * Creates a new pipeline from the provided list of initializers.
    * @param existing The existing initializers are cloned, exactly like a new List<>(someList)
    */
   public HttpRequestInitializerPipeline(List<HttpRequestInitializer> existing) {
-    initializers = new ArrayList<HttpRequestInitializer>(existing);
+    this(null, existing);
   }
 
   /**
@@ -31,15 +60,149 @@ public class HttpRequestInitializerPipeline implements HttpRequestInitializer {
    */
   public HttpRequestInitializerPipeline(HttpRequestInitializer... initializers) {
     this.initializers = Arrays.asList(initializers);
+    this.spanSink = null;
+  }
+
+  /**
+   * Creates a new pipeline from the provided list of initializers, tracing each request.
+   * @param spanSink  Receives the spans of each request
+   * @param existing The existing initializers are cloned, exactly like a new List<>(someList)
+   */
+  public HttpRequestInitializerPipeline(SpanSink spanSink, List<HttpRequestInitializer> existing) {
+    this.initializers = new ArrayList<HttpRequestInitializer>(existing);
+    this.spanSink = spanSink;
+  }
+
+  /**
+   * Creates a new pipeline from the provided initializers, tracing each request.
+   * @param spanSink  Receives the spans of each request
+   * @param initializers  The existing initializers to be used in the order specified.
+   */
+  public HttpRequestInitializerPipeline(SpanSink spanSink,
+      HttpRequestInitializer... initializers) {
+    this(spanSink, Arrays.asList(initializers));
   }
 
   @Override
   public void initialize(HttpRequest httpRequest) throws IOException {
+    if (spanSink == null) {
+      for (HttpRequestInitializer initializer : initializers) {
+        initializeComposed(initializer, httpRequest);
+      }
+      return;
+    }
+
+    Trace trace = new Trace(httpRequest);
     for (HttpRequestInitializer initializer : initializers) {
-      initializer.initialize(httpRequest);
+      String name = nameOf(initializer);
+      HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+      HttpUnsuccessfulResponseHandler handler = httpRequest.getUnsuccessfulResponseHandler();
+
+      long start = System.nanoTime();
+      initializeComposed(initializer, httpRequest);
+      trace.export("initialize " + name, start);
+
+      // time whatever the initializer installed
+      if (httpRequest.getInterceptor() != interceptor && httpRequest.getInterceptor() != null) {
+        httpRequest.setInterceptor(trace.new TracedInterceptor(
+            "intercept " + name, httpRequest.getInterceptor()));
+      }
+      HttpUnsuccessfulResponseHandler installed = httpRequest.getUnsuccessfulResponseHandler();
+      if (installed != handler && installed != null) {
+        // the request isn't built yet, so any back-off handler it might use is traced
+        HttpBackOffUnsuccessfulResponseHandler backOffHandler =
+            findBackOffHandler(installed, null);
+        // a handler already traced by an earlier initializer may have been composed in
+        if (backOffHandler != null
+            && !(backOffHandler.getSleeper() instanceof Trace.TracedSleeper)) {
+          backOffHandler.setSleeper(trace.new TracedSleeper(backOffHandler.getSleeper()));
+        }
+        httpRequest.setUnsuccessfulResponseHandler(
+            trace.new TracedHandler("handleResponse " + name, installed));
+      }
+    }
+    Trace.RequestEnd end = trace.new RequestEnd(httpRequest.getInterceptor(),
+        httpRequest.getResponseInterceptor(), httpRequest.getUnsuccessfulResponseHandler(),
+        httpRequest.getIOExceptionHandler());
+    httpRequest.setInterceptor(end);
+    httpRequest.setResponseInterceptor(end);
+    httpRequest.setUnsuccessfulResponseHandler(end);
+    httpRequest.setIOExceptionHandler(end);
+    httpRequest.getHeaders().set(TRACEPARENT, "00-" + trace.traceId + "-" + trace.spanId + "-01");
+  }
+
+  /**
+   * Runs an initializer, composing anything it installs with what was installed before it, unless
+   * it's a {@link ChainingRequestInitializer} that does so itself.
+   */
+  static void initializeComposed(HttpRequestInitializer initializer, HttpRequest request)
+      throws IOException {
+    if (initializer instanceof ChainingRequestInitializer) {
+      initializer.initialize(request);
+      return;
+    }
+    HttpExecuteInterceptor interceptor = request.getInterceptor();
+    HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+    HttpUnsuccessfulResponseHandler handler = request.getUnsuccessfulResponseHandler();
+    HttpIOExceptionHandler ioExceptionHandler = request.getIOExceptionHandler();
+
+    initializer.initialize(request);
+
+    if (interceptor != null && request.getInterceptor() != interceptor) {
+      request.setInterceptor(new ComposedInterceptor(interceptor, request.getInterceptor(),
+          null, null));
+    }
+    if (responseInterceptor != null && request.getResponseInterceptor() != responseInterceptor) {
+      request.setResponseInterceptor(new ComposedInterceptor(null, null, responseInterceptor,
+          request.getResponseInterceptor()));
+    }
+    if (request.getUnsuccessfulResponseHandler() != handler) {
+      request.setUnsuccessfulResponseHandler(
+          compose(handler, request.getUnsuccessfulResponseHandler()));
+    }
+    if (ioExceptionHandler != null && request.getIOExceptionHandler() != ioExceptionHandler) {
+      request.setIOExceptionHandler(new ComposedHandler(null, null, ioExceptionHandler,
+          request.getIOExceptionHandler()));
     }
   }
 
+  /**
+   * Composes two unsuccessful response handlers, offering each failed response to the first and
+   * then, if it doesn't retry the request, to the second.
+   * @param first  The handler to run first, or null
+   * @param second  The handler to run if the first doesn't retry, or null
+   */
+  static HttpUnsuccessfulResponseHandler compose(HttpUnsuccessfulResponseHandler first,
+      HttpUnsuccessfulResponseHandler second) {
+    return first == null || second == null ? (first == null ? second : first)
+        : new ComposedHandler(first, second, null, null);
+  }
+
+  /**
+   * Finds the back-off handler among the handlers composed by the pipeline or wrapped by this
+   * library's initializers, so that its sleeper and back-off check can be reached.
+   * @param handler  A request's unsuccessful response handler
+   * @param request  The request the handler is for, or null if it's not yet built
+   * @return The last back-off handler composed into it, or null if there is none
+   */
+  static HttpBackOffUnsuccessfulResponseHandler findBackOffHandler(
+      HttpUnsuccessfulResponseHandler handler, HttpRequest request) {
+    if (handler instanceof HttpBackOffUnsuccessfulResponseHandler) {
+      return (HttpBackOffUnsuccessfulResponseHandler) handler;
+    } else if (handler instanceof ForwardingResponseHandler) {
+      List<HttpUnsuccessfulResponseHandler> delegates =
+          ((ForwardingResponseHandler) handler).getDelegates(request);
+      for (int i = delegates.size() - 1; i >= 0; i--) {
+        HttpBackOffUnsuccessfulResponseHandler found =
+            findBackOffHandler(delegates.get(i), request);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
   /**
    * Return the HttpRequestInitializer at the position specified.
    * @param index  The index, ordering consistent with use in the constructor.
@@ -48,4 +211,285 @@ public class HttpRequestInitializerPipeline implements HttpRequestInitializer {
   public HttpRequestInitializer getInitializer(int index) {
     return initializers.get(index);
   }
+
+  private static String nameOf(Object o) {
+    if (o instanceof ConditionalRequestInitializer) {
+      o = ((ConditionalRequestInitializer) o).getInitializer();
+    }
+    String name = o.getClass().getSimpleName();
+    return name.length() == 0 ? o.getClass().getName() : name;
+  }
+
+  private static String randomHex(int longs) {
+    StringBuilder hex = new StringBuilder(longs * 16);
+    for (int i = 0; i < longs; i++) {
+      String digits = Long.toHexString(RANDOM.nextLong());
+      for (int pad = digits.length(); pad < 16; pad++) {
+        hex.append('0');
+      }
+      hex.append(digits);
+    }
+    return hex.toString();
+  }
+
+  /** Runs the interceptors installed before an initializer, then the ones it installed. */
+  private static class ComposedInterceptor implements HttpExecuteInterceptor,
+      HttpResponseInterceptor {
+    private final HttpExecuteInterceptor first;
+    private final HttpExecuteInterceptor second;
+    private final HttpResponseInterceptor firstResponse;
+    private final HttpResponseInterceptor secondResponse;
+
+    ComposedInterceptor(HttpExecuteInterceptor first, HttpExecuteInterceptor second,
+        HttpResponseInterceptor firstResponse, HttpResponseInterceptor secondResponse) {
+      this.first = first;
+      this.second = second;
+      this.firstResponse = firstResponse;
+      this.secondResponse = secondResponse;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      first.intercept(request);
+      if (second != null) {
+        second.intercept(request);
+      }
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      firstResponse.interceptResponse(response);
+      if (secondResponse != null) {
+        secondResponse.interceptResponse(response);
+      }
+    }
+  }
+
+  /**
+   * Offers a failure to the handler installed before an initializer, then, if that one doesn't
+   * retry the request, to the handler it installed.
+   */
+  private static class ComposedHandler implements ForwardingResponseHandler,
+      HttpIOExceptionHandler {
+    private final HttpUnsuccessfulResponseHandler first;
+    private final HttpUnsuccessfulResponseHandler second;
+    private final HttpIOExceptionHandler firstIOException;
+    private final HttpIOExceptionHandler secondIOException;
+
+    ComposedHandler(HttpUnsuccessfulResponseHandler first, HttpUnsuccessfulResponseHandler second,
+        HttpIOExceptionHandler firstIOException, HttpIOExceptionHandler secondIOException) {
+      this.first = first;
+      this.second = second;
+      this.firstIOException = firstIOException;
+      this.secondIOException = secondIOException;
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+        throws IOException {
+      return first.handleResponse(request, response, supportsRetry)
+          || (second != null && second.handleResponse(request, response, supportsRetry));
+    }
+
+    @Override
+    public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+      return Arrays.asList(first, second);
+    }
+
+    @Override
+    public boolean handleIOException(HttpRequest request, boolean supportsRetry)
+        throws IOException {
+      return firstIOException.handleIOException(request, supportsRetry)
+          || (secondIOException != null
+              && secondIOException.handleIOException(request, supportsRetry));
+    }
+  }
+
+  /** The spans of one request, all children of the span for the request as a whole. */
+  private class Trace {
+    final String traceId;
+    final String spanId = randomHex(1);
+    final String parentSpanId;
+    final long startMillis = System.currentTimeMillis();
+    final long startNanos = System.nanoTime();
+
+    Trace(HttpRequest request) {
+      // continue the caller's trace if there is one, i.e. 00-<trace id>-<parent span id>-<flags>
+      String traceparent = request.getHeaders().getFirstHeaderStringValue(TRACEPARENT);
+      String[] parts = traceparent == null ? new String[0] : traceparent.split("-");
+      if (parts.length == 4 && parts[1].length() == 32 && parts[2].length() == 16) {
+        traceId = parts[1];
+        parentSpanId = parts[2];
+      } else {
+        traceId = randomHex(2);
+        parentSpanId = null;
+      }
+    }
+
+    void export(String name, long startNanos) {
+      long durationNanos = System.nanoTime() - startNanos;
+      long startMillis = System.currentTimeMillis() - durationNanos / 1000000;
+      spanSink.export(new Span(traceId, randomHex(1), spanId, name, startMillis, durationNanos));
+    }
+
+    /** Times an execute interceptor. */
+    class TracedInterceptor implements HttpExecuteInterceptor {
+      private final String name;
+      private final HttpExecuteInterceptor interceptor;
+
+      TracedInterceptor(String name, HttpExecuteInterceptor interceptor) {
+        this.name = name;
+        this.interceptor = interceptor;
+      }
+
+      @Override
+      public void intercept(HttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        try {
+          interceptor.intercept(request);
+        } finally {
+          export(name, start);
+        }
+      }
+    }
+
+    /** Times an unsuccessful response handler. */
+    class TracedHandler implements ForwardingResponseHandler {
+      private final String name;
+      private final HttpUnsuccessfulResponseHandler handler;
+
+      TracedHandler(String name, HttpUnsuccessfulResponseHandler handler) {
+        this.name = name;
+        this.handler = handler;
+      }
+
+      @Override
+      public boolean handleResponse(HttpRequest request, HttpResponse response,
+          boolean supportsRetry) throws IOException {
+        long start = System.nanoTime();
+        try {
+          return handler.handleResponse(request, response, supportsRetry);
+        } finally {
+          export(name, start);
+        }
+      }
+
+      @Override
+      public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+        return Collections.singletonList(handler);
+      }
+    }
+
+    /** Times back-off sleeps. */
+    class TracedSleeper implements Sleeper {
+      private final Sleeper sleeper;
+
+      TracedSleeper(Sleeper sleeper) {
+        this.sleeper = sleeper;
+      }
+
+      @Override
+      public void sleep(long millis) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+          sleeper.sleep(millis);
+        } finally {
+          export("backOff", start);
+        }
+      }
+    }
+
+    /**
+     * Ends the request's span when the final response arrives, or when the request fails without
+     * one: an interceptor or handler throws, or an I/O error isn't retried.  Otherwise the other
+     * spans would name a parent that's never exported.
+     */
+    class RequestEnd implements HttpExecuteInterceptor, HttpResponseInterceptor,
+        ForwardingResponseHandler, HttpIOExceptionHandler {
+      private final HttpExecuteInterceptor interceptor;
+      private final HttpResponseInterceptor responseInterceptor;
+      private final HttpUnsuccessfulResponseHandler handler;
+      private final HttpIOExceptionHandler ioExceptionHandler;
+
+      RequestEnd(HttpExecuteInterceptor interceptor, HttpResponseInterceptor responseInterceptor,
+          HttpUnsuccessfulResponseHandler handler, HttpIOExceptionHandler ioExceptionHandler) {
+        this.interceptor = interceptor;
+        this.responseInterceptor = responseInterceptor;
+        this.handler = handler;
+        this.ioExceptionHandler = ioExceptionHandler;
+      }
+
+      @Override
+      public void intercept(HttpRequest request) throws IOException {
+        if (interceptor == null) {
+          return;
+        }
+        try {
+          interceptor.intercept(request);
+        } catch (IOException e) {
+          end(request, true);
+          throw e;
+        } catch (RuntimeException e) {
+          end(request, true);
+          throw e;
+        }
+      }
+
+      @Override
+      public void interceptResponse(HttpResponse response) throws IOException {
+        try {
+          if (responseInterceptor != null) {
+            responseInterceptor.interceptResponse(response);
+          }
+        } finally {
+          end(response.getRequest(), !response.isSuccessStatusCode());
+        }
+      }
+
+      @Override
+      public boolean handleResponse(HttpRequest request, HttpResponse response,
+          boolean supportsRetry) throws IOException {
+        if (handler == null) {
+          return false;
+        }
+        try {
+          return handler.handleResponse(request, response, supportsRetry);
+        } catch (IOException e) {
+          end(request, true);
+          throw e;
+        } catch (RuntimeException e) {
+          end(request, true);
+          throw e;
+        }
+      }
+
+      @Override
+      public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+        return handler == null ? Collections.<HttpUnsuccessfulResponseHandler>emptyList()
+            : Collections.singletonList(handler);
+      }
+
+      @Override
+      public boolean handleIOException(HttpRequest request, boolean supportsRetry)
+          throws IOException {
+        boolean retry = false;
+        try {
+          retry = ioExceptionHandler != null
+              && ioExceptionHandler.handleIOException(request, supportsRetry);
+          return retry;
+        } finally {
+          // the request only retries if it has retries left, and otherwise throws
+          if (!retry || !supportsRetry) {
+            end(request, true);
+          }
+        }
+      }
+
+      private void end(HttpRequest request, boolean error) {
+        spanSink.export(new Span(traceId, spanId, parentSpanId,
+            "execute " + request.getRequestMethod(), startMillis, System.nanoTime() - startNanos,
+            error));
+      }
+    }
+  }
 }
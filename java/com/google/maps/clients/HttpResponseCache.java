@@ -0,0 +1,395 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A conditional-GET cache for API responses.  Successful GET responses carrying an ETag are kept
+ * in memory, later requests for the same URL are sent with {@code If-None-Match} and any
+ * {@code 304 Not Modified} reply is answered from memory.
+ *
+ * The cache has two halves: add it to your {@link HttpRequestInitializerPipeline} so requests are
+ * sent conditionally, and wrap your transport so that 304s can be swapped for the cached body.
+ *
+ * {@code HttpResponseCache cache = new HttpResponseCache(16 * 1024 * 1024);
+ * HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(credential, cache);
+ * MapsEngine engine = new MapsEngine.Builder(cache.wrap(transport), jsonFactory, pipeline)
+ *     .build();
+ * }
+ *
+ * Entries are spread over a number of independently locked segments, each evicting its least
+ * recently used entries once it holds more than its share of the byte limit.  A response that
+ * was in transit while its URL was invalidated, by a write or a call to {@link #invalidate}, isn't
+ * cached, since it may have been read before the write.
+ */
+public class HttpResponseCache implements ChainingRequestInitializer {
+
+  static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+  private final Segment[] segments;
+  private final AtomicLong hitCount = new AtomicLong();
+
+  /**
+   * Creates a cache holding at most {@code maxBytes} of response bodies.
+   * @param maxBytes  The total size of the response bodies to hold
+   */
+  public HttpResponseCache(long maxBytes) {
+    this(maxBytes, DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  /**
+   * Creates a cache holding at most {@code maxBytes} of response bodies, split across enough
+   * segments for {@code concurrencyLevel} threads to use it without contention.
+   * @param maxBytes  The total size of the response bodies to hold
+   * @param concurrencyLevel  The expected number of concurrently updating threads
+   */
+  public HttpResponseCache(long maxBytes, int concurrencyLevel) {
+    if (maxBytes <= 0 || concurrencyLevel <= 0) {
+      throw new IllegalArgumentException("Cache size and concurrency level must be positive");
+    }
+    int segmentCount = 1;
+    while (segmentCount < concurrencyLevel) {
+      segmentCount <<= 1;
+    }
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(Math.max(1, maxBytes / segmentCount));
+    }
+  }
+
+  @Override
+  public void initialize(HttpRequest httpRequest) throws IOException {
+    httpRequest.setInterceptor(new ConditionalInterceptor(httpRequest.getInterceptor()));
+  }
+
+  /**
+   * Wraps the transport used by the API client so that {@code 304 Not Modified} responses can be
+   * answered from this cache.
+   * @param transport  The transport that actually sends requests
+   * @return A transport to pass to the API client's builder
+   */
+  public HttpTransport wrap(HttpTransport transport) {
+    return new CachingTransport(transport);
+  }
+
+  /**
+   * Removes any cached response for the URL provided.
+   * @param url  The full request URL, including query parameters
+   */
+  public void invalidate(String url) {
+    segmentFor(url).invalidate(url);
+  }
+
+  /** Removes all cached responses. */
+  public void invalidateAll() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /** Returns the total size, in bytes, of the response bodies currently cached. */
+  public long getSize() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.getSize();
+    }
+    return size;
+  }
+
+  /** Returns the number of {@code 304 Not Modified} responses answered from this cache. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  CachedResponse get(String url) {
+    return segmentFor(url).get(url);
+  }
+
+  private Segment segmentFor(String url) {
+    int hash = url.hashCode();
+    // spread the higher bits down, URLs for one table differ mostly at the end
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return segments[hash & (segments.length - 1)];
+  }
+
+  /**
+   * Adds an {@code If-None-Match} header to GET requests for which a response is cached.  Any
+   * interceptor already installed on the request is run first.
+   */
+  private class ConditionalInterceptor implements HttpExecuteInterceptor {
+    private final HttpExecuteInterceptor previous;
+    private String sentEtag;
+
+    ConditionalInterceptor(HttpExecuteInterceptor previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      if (previous != null) {
+        previous.intercept(request);
+      }
+      if (!HttpMethods.GET.equals(request.getRequestMethod())) {
+        return;
+      }
+
+      // leave any header the caller set themselves alone, but refresh our own on retries
+      String ifNoneMatch = request.getHeaders().getIfNoneMatch();
+      if (ifNoneMatch != null && !ifNoneMatch.equals(sentEtag)) {
+        return;
+      }
+      CachedResponse cached = get(request.getUrl().build());
+      sentEtag = cached == null ? null : cached.etag;
+      request.getHeaders().setIfNoneMatch(sentEtag);
+    }
+  }
+
+  /** Serves {@code 304 Not Modified} responses from the cache and stores new ones. */
+  private class CachingTransport extends ForwardingHttpTransport {
+
+    CachingTransport(HttpTransport delegate) {
+      super(delegate);
+    }
+
+    @Override
+    protected LowLevelHttpResponse execute(ForwardedRequest request) throws IOException {
+      String url = request.getUrl();
+      if (!HttpMethods.GET.equals(request.getMethod())) {
+        if (HttpMethods.HEAD.equals(request.getMethod())) {
+          return request.forward();
+        }
+        invalidate(url);
+        try {
+          return request.forward();
+        } finally {
+          // a GET sent while the write was in transit may have read the old body
+          invalidate(url);
+        }
+      }
+
+      // read before sending, so an invalidation while the response is in transit is noticed
+      long generation = segmentFor(url).getGeneration();
+      String etag = request.getFirstHeaderValue("If-None-Match");
+      LowLevelHttpResponse response = request.forward();
+      if (etag != null && response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+        CachedResponse cached = get(url);
+        response.disconnect();
+        if (cached != null && etag.equals(cached.etag)) {
+          hitCount.incrementAndGet();
+          return new CachedLowLevelHttpResponse(cached);
+        }
+        // the entry has since been evicted (or was never ours), so ask for the full body
+        request.removeHeader("If-None-Match");
+        response = request.forward();
+      }
+
+      if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_OK) {
+        return store(url, response, generation);
+      }
+      return response;
+    }
+
+    /**
+     * Buffers and caches the response if it has an ETag and fits in the cache, otherwise returns
+     * a response that streams as normal.  The response isn't cached if the URL has been
+     * invalidated since the generation given.
+     */
+    private LowLevelHttpResponse store(String url, LowLevelHttpResponse response,
+        long generation) throws IOException {
+      String etag = null;
+      List<String> headerNames = new ArrayList<String>(response.getHeaderCount());
+      List<String> headerValues = new ArrayList<String>(response.getHeaderCount());
+      for (int i = 0; i < response.getHeaderCount(); i++) {
+        headerNames.add(response.getHeaderName(i));
+        headerValues.add(response.getHeaderValue(i));
+        if ("ETag".equalsIgnoreCase(response.getHeaderName(i))) {
+          etag = response.getHeaderValue(i);
+        }
+      }
+
+      Segment segment = segmentFor(url);
+      InputStream content = response.getContent();
+      if (etag == null || content == null || response.getContentLength() > segment.maxBytes) {
+        return response;
+      }
+
+      // read no more than fits, handing back whatever is left to the caller if it overflows
+      ByteArrayOutputStream body = new ByteArrayOutputStream(
+          (int) Math.max(32, Math.min(segment.maxBytes, response.getContentLength())));
+      byte[] chunk = new byte[4096];
+      int read;
+      while ((read = content.read(chunk)) != -1) {
+        body.write(chunk, 0, read);
+        if (body.size() > segment.maxBytes) {
+          return new ReplayedResponse(response, new SequenceInputStream(
+              new ByteArrayInputStream(body.toByteArray()), content));
+        }
+      }
+      content.close();
+
+      CachedResponse cached = new CachedResponse(etag, response.getStatusCode(),
+          response.getReasonPhrase(), response.getContentType(), body.toByteArray(),
+          headerNames, headerValues);
+      segment.putIfNotInvalidated(url, cached, generation);
+      return new CachedLowLevelHttpResponse(cached);
+    }
+  }
+
+  /** A cached response body along with the headers that came with it. */
+  static final class CachedResponse {
+    final String etag;
+    final int statusCode;
+    final String reasonPhrase;
+    final String contentType;
+    final byte[] content;
+    final List<String> headerNames;
+    final List<String> headerValues;
+
+    CachedResponse(String etag, int statusCode, String reasonPhrase, String contentType,
+        byte[] content, List<String> headerNames, List<String> headerValues) {
+      this.etag = etag;
+      this.statusCode = statusCode;
+      this.reasonPhrase = reasonPhrase;
+      this.contentType = contentType;
+      this.content = content;
+      this.headerNames = headerNames;
+      this.headerValues = headerValues;
+    }
+  }
+
+  /** A low-level response served from memory. */
+  private static final class CachedLowLevelHttpResponse extends LowLevelHttpResponse {
+    private final CachedResponse cached;
+
+    CachedLowLevelHttpResponse(CachedResponse cached) {
+      this.cached = cached;
+    }
+
+    @Override
+    public InputStream getContent() {
+      return new ByteArrayInputStream(cached.content);
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public long getContentLength() {
+      return cached.content.length;
+    }
+
+    @Override
+    public String getContentType() {
+      return cached.contentType;
+    }
+
+    @Override
+    public String getStatusLine() {
+      return null;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return cached.statusCode;
+    }
+
+    @Override
+    public String getReasonPhrase() {
+      return cached.reasonPhrase;
+    }
+
+    @Override
+    public int getHeaderCount() {
+      return cached.headerNames.size();
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+      return cached.headerNames.get(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+      return cached.headerValues.get(index);
+    }
+  }
+
+  /** One independently locked, least-recently-used portion of the cache. */
+  private static final class Segment {
+    final long maxBytes;
+    private final LinkedHashMap<String, CachedResponse> entries =
+        new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private long size;
+    // bumped by every invalidation, so responses fetched across one aren't cached
+    private long generation;
+
+    Segment(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    synchronized CachedResponse get(String url) {
+      return entries.get(url);
+    }
+
+    synchronized void put(String url, CachedResponse cached) {
+      CachedResponse previous = entries.put(url, cached);
+      if (previous != null) {
+        size -= previous.content.length;
+      }
+      size += cached.content.length;
+
+      Iterator<CachedResponse> eldest = entries.values().iterator();
+      while (size > maxBytes && eldest.hasNext()) {
+        size -= eldest.next().content.length;
+        eldest.remove();
+      }
+    }
+
+    synchronized void putIfNotInvalidated(String url, CachedResponse cached,
+        long fetchGeneration) {
+      if (generation == fetchGeneration) {
+        put(url, cached);
+      }
+    }
+
+    synchronized void invalidate(String url) {
+      generation++;
+      CachedResponse previous = entries.remove(url);
+      if (previous != null) {
+        size -= previous.content.length;
+      }
+    }
+
+    synchronized void clear() {
+      generation++;
+      entries.clear();
+      size = 0;
+    }
+
+    synchronized long getSize() {
+      return size;
+    }
+
+    synchronized long getGeneration() {
+      return generation;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.google.maps.clients;
+
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pause shared by every request to a project.  The first quota rejection opens a randomized
+ * pause window that all requests wait out before they're sent, rather than each thread collecting
+ * its own rejection.  Each rejection after a window has passed opens a longer one, and each
+ * success shrinks the next, so a quota storm settles into a steady request rate.
+ *
+ * {@code RateLimitPause pause = new RateLimitPause();
+ * HttpRequestInitializer retrier = new BackOffWhenRateLimitedRequestInitializer(pause);
+ * }
+ *
+ * Use one pause, and one initializer, for all of the clients that share a project's quota.
+ * Requests sent on an {@link AsyncRequestExecutor} don't wait out the pause on one of its
+ * threads, but are rescheduled for when it has passed.
+ */
+public class RateLimitPause {
+
+  /** The length of the first pause, unless otherwise specified. */
+  public static final long DEFAULT_INITIAL_PAUSE_MILLIS = 500;
+  /** The longest pause, unless otherwise specified. */
+  public static final long DEFAULT_MAX_PAUSE_MILLIS = 60 * 1000;
+
+  // the same growth and jitter as the default ExponentialBackOff
+  private static final double MULTIPLIER = 1.5;
+  private static final double RANDOMIZATION_FACTOR = 0.5;
+
+  // set on threads that reschedule a paused request rather than wait for the pause to pass
+  private static final ThreadLocal<Boolean> DEFERRING = new ThreadLocal<Boolean>();
+
+  private final long initialNanos;
+  private final long maxNanos;
+  private final NanoClock clock;
+  private final Sleeper sleeper;
+
+  // the length of the next pause, or 0 when requests are succeeding
+  private final AtomicLong windowNanos = new AtomicLong();
+  private final AtomicLong pausedUntilNanos;
+
+  /** Creates a pause starting at half a second and growing to at most a minute. */
+  public RateLimitPause() {
+    this(DEFAULT_INITIAL_PAUSE_MILLIS, DEFAULT_MAX_PAUSE_MILLIS);
+  }
+
+  /**
+   * Creates a pause.
+   * @param initialPauseMillis  The length of the first pause, in milliseconds
+   * @param maxPauseMillis  The longest pause, in milliseconds
+   */
+  public RateLimitPause(long initialPauseMillis, long maxPauseMillis) {
+    this(initialPauseMillis, maxPauseMillis, NanoClock.SYSTEM, Sleeper.DEFAULT);
+  }
+
+  RateLimitPause(long initialPauseMillis, long maxPauseMillis, NanoClock clock, Sleeper sleeper) {
+    if (initialPauseMillis <= 0 || maxPauseMillis < initialPauseMillis) {
+      throw new IllegalArgumentException(
+          "Initial pause must be positive and no longer than the max pause");
+    }
+    this.initialNanos = TimeUnit.MILLISECONDS.toNanos(initialPauseMillis);
+    this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxPauseMillis);
+    this.clock = clock;
+    this.sleeper = sleeper;
+    this.pausedUntilNanos = new AtomicLong(clock.nanoTime());
+  }
+
+  /** Thrown by {@link #await()}, instead of waiting, on threads that defer paused requests. */
+  static final class PausedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long remainingMillis;
+
+    PausedException(long remainingMillis) {
+      super("Rate limit pause open for " + remainingMillis + "ms, request not sent");
+      this.remainingMillis = remainingMillis;
+    }
+
+    /** Returns how long to wait before sending the request, in milliseconds. */
+    long getRemainingMillis() {
+      return remainingMillis;
+    }
+  }
+
+  /**
+   * Sets whether {@link #await()} on the calling thread throws {@link PausedException} rather
+   * than waiting, for threads that can send the request again later instead.
+   */
+  static void setDeferring(boolean defer) {
+    if (defer) {
+      DEFERRING.set(Boolean.TRUE);
+    } else {
+      DEFERRING.remove();
+    }
+  }
+
+  /**
+   * Waits for any open pause window to pass.
+   * @throws InterruptedIOException when interrupted while waiting
+   */
+  public void await() throws IOException {
+    long remaining;
+    while ((remaining = pausedUntilNanos.get() - clock.nanoTime()) > 0) {
+      // round up, so we don't spin for the last fraction of a millisecond
+      long remainingMillis = (remaining + 999999) / 1000000;
+      if (DEFERRING.get() != null) {
+        throw new PausedException(remainingMillis);
+      }
+      try {
+        sleeper.sleep(remainingMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for rate limit pause");
+      }
+    }
+  }
+
+  /**
+   * Opens a pause window after a quota rejection.  Rejections arriving while a window is open
+   * were sent before it opened, so they don't lengthen it.
+   */
+  public void onRateLimited() {
+    long now = clock.nanoTime();
+    long pausedUntil = pausedUntilNanos.get();
+    if (pausedUntil - now > 0) {
+      return;
+    }
+    long window = windowNanos.get();
+    long next = window == 0 ? initialNanos : Math.min((long) (window * MULTIPLIER), maxNanos);
+    long jittered = (long) (next * (1 - RANDOMIZATION_FACTOR
+        + 2 * RANDOMIZATION_FACTOR * Math.random()));
+    // only the thread that opens the window grows it
+    if (pausedUntilNanos.compareAndSet(pausedUntil, now + jittered)) {
+      windowNanos.set(next);
+    }
+  }
+
+  /** Shrinks the next pause window after a successful response. */
+  public void onSuccess() {
+    long window = windowNanos.get();
+    if (window != 0) {
+      long next = (long) (window / MULTIPLIER);
+      windowNanos.compareAndSet(window, next < initialNanos ? 0 : next);
+    }
+  }
+
+  /** Returns the time left in the open pause window, in milliseconds, or 0 if there is none. */
+  public long getRemainingMillis() {
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(pausedUntilNanos.get() - clock.nanoTime()));
+  }
+}
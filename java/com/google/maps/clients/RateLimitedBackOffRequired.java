@@ -3,14 +3,17 @@ package com.google.maps.clients;
 import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler.BackOffRequired;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.gson.GsonFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
 
 /**
  * Back-off only when the API response signals a "Quota Exceeded" error.
@@ -19,17 +22,44 @@ public class RateLimitedBackOffRequired implements BackOffRequired {
 
   protected static final List<String> QUOTA_EXCEEDED_REASONS =
       Arrays.asList("rateLimitExceeded", "userRateLimitExceeded");
-  private static final List<Integer> RETRY_ERROR_CODES =  Arrays.asList(500, 503, 504);
 
+  /** The error reasons retried unless otherwise specified. */
+  public static final Set<String> DEFAULT_RETRY_REASONS = Collections.unmodifiableSet(
+      new HashSet<String>(QUOTA_EXCEEDED_REASONS));
+  /** The HTTP status codes retried regardless of reason, unless otherwise specified. */
+  public static final Set<Integer> DEFAULT_RETRY_STATUS_CODES = Collections.unmodifiableSet(
+      new HashSet<Integer>(Arrays.asList(500, 503, 504)));
+
+  /** Error bodies larger than this can't be a quota error, so aren't read. */
+  static final int MAX_BODY_BYTES = 64 * 1024;
+  private static final int INITIAL_BODY_BYTES = 1024;
+
+  private final JsonFactory jsonFactory;
+  private final Set<String> retryReasons;
+  // indexed by status code, so checking doesn't box
+  private final BitSet retryStatusCodes = new BitSet();
+
+  /**
+   * The body of the last error response checked, as returned by {@link #getResponseBody()}.
+   * @deprecated Use {@link #getResponseBody()} instead.
+   */
+  @Deprecated
   protected String responseBody;
-  private JsonFactory jsonFactory;
+
+  // a buffer for copying error bodies, allocated when one is first copied and reused after that
+  private byte[] buffer;
+  private int bodyLength;
+  private String reason;
+  // the last response checked, and whether it needed back-off
+  private HttpResponse checked;
+  private boolean required;
 
   /**
    * Create a RateLimitedBackOffRequired using the default {@link JsonFactory},
    * a {@link GsonFactory}.
    */
   public RateLimitedBackOffRequired() {
-    jsonFactory = new GsonFactory();
+    this(new GsonFactory());
   }
 
   /**
@@ -37,48 +67,78 @@ public class RateLimitedBackOffRequired implements BackOffRequired {
    * @param jsonFactory  The JSON library to use to parse the HTTP response
    */
   public RateLimitedBackOffRequired(JsonFactory jsonFactory) {
+    this(jsonFactory, DEFAULT_RETRY_REASONS, DEFAULT_RETRY_STATUS_CODES);
+  }
+
+  /**
+   * Create a RateLimitedBackOffRequired that retries on the specified errors.
+   * @param jsonFactory  The JSON library to use to parse the HTTP response
+   * @param retryReasons  The error reasons to retry, e.g. {@link #DEFAULT_RETRY_REASONS}
+   * @param retryStatusCodes  The HTTP status codes to retry regardless of reason, e.g.
+   *     {@link #DEFAULT_RETRY_STATUS_CODES}
+   */
+  public RateLimitedBackOffRequired(JsonFactory jsonFactory, Set<String> retryReasons,
+      Set<Integer> retryStatusCodes) {
     this.jsonFactory = jsonFactory;
+    this.retryReasons = new HashSet<String>(retryReasons);
+    for (int statusCode : retryStatusCodes) {
+      this.retryStatusCodes.set(statusCode);
+    }
   }
 
   @Override
   public boolean isRequired(HttpResponse httpResponse) {
+    responseBody = null;
+    bodyLength = 0;
+    reason = null;
+    checked = httpResponse;
+    required = false;
     try {
       // Test for back-end errors first, without consuming the InputStream
-      if (RETRY_ERROR_CODES.contains(httpResponse.getStatusCode())) {
-        responseBody = null;
+      int statusCode = httpResponse.getStatusCode();
+      if (statusCode >= 0 && retryStatusCodes.get(statusCode)) {
+        required = true;
         return true;
       }
 
-      // Copy the response body, leaving the stream open so that HttpResponse.execute() can use it.
-      Scanner scanner = new Scanner(httpResponse.getContent(),
-          httpResponse.getContentCharset().toString()).useDelimiter("\\A");
-      responseBody = scanner.next();
-      if (responseBody == null || responseBody.isEmpty()) {
+      InputStream content = httpResponse.getContent();
+      if (content == null) {
         return false;
       }
+      Charset bodyCharset = httpResponse.getContentCharset();
 
-      // Parse the response as JSON.
-      JsonObjectParser jsonParser = jsonFactory.createJsonObjectParser();
-      ApiErrorResponseJson apiError = jsonParser.parseAndClose(
-          new ByteArrayInputStream(responseBody.getBytes()), httpResponse.getContentCharset(),
-          ApiErrorResponseJson.class);
-
-      // we will only retry if the *only* failure reason was due to a known error
-      if (apiError != null && apiError.error != null && apiError.error.errors != null
-          && apiError.error.errors.size() == 1) {
-        String reason = apiError.error.errors.get(0).reason;
-        if (QUOTA_EXCEEDED_REASONS.contains(reason)) {
-          return true;
+      // Stream the body through the parser, keeping what it reads, and stop as soon as the
+      // reason is known.  If the stream can be rewound, do so, so that HttpResponse.execute()
+      // can read it again.  Streams from a transport wrapped by
+      // BackOffWhenRateLimitedRequestInitializer.wrap() can always be rewound, and already keep
+      // what's read, so the body is inspected in their buffer rather than copied.
+      boolean replayable = content.markSupported();
+      if (replayable) {
+        content.mark(MAX_BODY_BYTES);
+      }
+      CapturingInputStream capture = new CapturingInputStream(content);
+      try {
+        reason = ErrorReasonClassifier.singleReason(
+            jsonFactory.createJsonParser(capture, bodyCharset));
+      } finally {
+        if (replayable) {
+          content.reset();
+        } else {
+          // Any further dependencies on the stream will not find any data (specifically the
+          // getContent/getDetails methods in GoogleJsonResponseException), so keep the rest of
+          // the body for getResponseBody().
+          capture.drain();
         }
+        byte[] body = capture.kept();
+        responseBody = body == null ? "" : new String(body, 0, bodyLength, bodyCharset);
       }
 
-      // Known bug: Here the InputStream has been read, so any further dependencies on the
-      // stream will not find any data (specifically the getContent/getDetails methods in
-      // GoogleJsonResponseException). There is currently no way to mark/reset this stream or to
-      // throw a GoogleJsonResponseException as the HttpResponse class is final and can't be
-      // re-created with a new LowLevelHttpResponse. The output will be logged according to the
-      // default logging settings, at the CONFIG log level.
-
+      // we will only retry if the *only* failure reason was due to a known error
+      if (reason != null && retryReasons.contains(reason)) {
+        required = true;
+        onRateLimited(httpResponse);
+        return true;
+      }
       return false;
     } catch (IOException e) {
       // This could be thrown from the HttpResponse or during the parsing phase.  If it's a
@@ -86,6 +146,122 @@ public class RateLimitedBackOffRequired implements BackOffRequired {
       // it's a parsing error, then we genuinely want to decline the retry,
       // since it's not something we're expecting.
       return false;
+    } catch (IllegalArgumentException e) {
+      // Thrown by some parsers when the body is not JSON at all.
+      return false;
+    }
+  }
+
+  /**
+   * Called when a response is retried because of its error reason, rather than its status code.
+   * Does nothing unless overridden.
+   * @param httpResponse  The rate limited response
+   */
+  protected void onRateLimited(HttpResponse httpResponse) {
+  }
+
+  /**
+   * Returns the reason given by the last error response checked, or null if it didn't give
+   * exactly one, or wasn't read.
+   */
+  public String getReason() {
+    return reason;
+  }
+
+  /**
+   * Returns the reason the response needed back-off, or null if it gave none, or wasn't the last
+   * response checked, or didn't need back-off.
+   */
+  String getBackOffReason(HttpResponse httpResponse) {
+    return checked == httpResponse && required ? reason : null;
+  }
+
+  /**
+   * Returns the body of the last error response checked, or null if it was not read.  Bodies
+   * larger than 64KB are truncated, and if the response could be rewound, only the part read to
+   * find the error reason is kept.
+   */
+  public String getResponseBody() {
+    return responseBody;
+  }
+
+  /**
+   * Keeps what is read, counting it in {@code bodyLength}, and ends the stream after
+   * {@link #MAX_BODY_BYTES}.  What is read is copied into the buffer, unless the stream is a
+   * {@link ReplayableInputStream}, which keeps it already.
+   */
+  private class CapturingInputStream extends InputStream {
+    private final InputStream content;
+    // null when what is read has to be copied
+    private final ReplayableInputStream replayable;
+
+    CapturingInputStream(InputStream content) {
+      this.content = content;
+      this.replayable = content instanceof ReplayableInputStream
+          ? (ReplayableInputStream) content : null;
+    }
+
+    /** Returns the array holding the first {@code bodyLength} bytes read. */
+    byte[] kept() {
+      return replayable == null ? buffer : replayable.buffer();
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (replayable == null) {
+        return fill(1) == -1 ? -1 : buffer[bodyLength - 1] & 0xff;
+      }
+      if (bodyLength == MAX_BODY_BYTES) {
+        return -1;
+      }
+      int read = content.read();
+      if (read != -1) {
+        bodyLength++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (replayable == null) {
+        int read = fill(len);
+        if (read > 0) {
+          System.arraycopy(buffer, bodyLength - read, b, off, read);
+        }
+        return read;
+      }
+      if (bodyLength == MAX_BODY_BYTES) {
+        return -1;
+      }
+      int read = content.read(b, off, Math.min(len, MAX_BODY_BYTES - bodyLength));
+      if (read > 0) {
+        bodyLength += read;
+      }
+      return read;
+    }
+
+    /** Reads the rest of the body, up to the limit, into the buffer. */
+    void drain() throws IOException {
+      while (fill(MAX_BODY_BYTES) != -1) {
+        // keep reading
+      }
+    }
+
+    /** Reads up to len bytes onto the end of the buffer, growing it if needed. */
+    private int fill(int len) throws IOException {
+      if (buffer == null) {
+        buffer = new byte[INITIAL_BODY_BYTES];
+      } else if (bodyLength == buffer.length) {
+        if (buffer.length >= MAX_BODY_BYTES) {
+          return -1;
+        }
+        buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_BODY_BYTES));
+      }
+      int read = content.read(buffer, bodyLength, Math.min(len, buffer.length - bodyLength));
+      if (read > 0) {
+        bodyLength += read;
+      }
+      return read;
     }
   }
 }
@@ -0,0 +1,95 @@
+package com.google.maps.clients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Keeps everything read from a stream, so that it can be rewound to its mark however far it has
+ * been read, and lets what has been kept be inspected in place rather than copied out.
+ *
+ * Only for small bodies, such as error responses, since nothing read is ever discarded.
+ */
+final class ReplayableInputStream extends InputStream {
+
+  private static final int INITIAL_BUFFER_BYTES = 1024;
+
+  private final InputStream in;
+  private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+  // the bytes kept, the position of the next byte to read, and the position to reset to
+  private int count;
+  private int position;
+  private int markPosition;
+
+  ReplayableInputStream(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Returns the buffer holding what has been read so far, from the start of the stream.  Bytes
+   * already in it are never changed, though reading further may move them to a larger buffer.
+   */
+  byte[] buffer() {
+    return buffer;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position == count && fill() == -1) {
+      return -1;
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (position == count && fill() == -1) {
+      return -1;
+    }
+    int read = Math.min(len, count - position);
+    System.arraycopy(buffer, position, b, off, read);
+    position += read;
+    return read;
+  }
+
+  /** Reads more of the stream onto the end of the buffer, growing it if it's full. */
+  private int fill() throws IOException {
+    if (count == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    int read = in.read(buffer, count, buffer.length - count);
+    if (read > 0) {
+      count += read;
+    }
+    return read;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return count - position + in.available();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public void mark(int readLimit) {
+    // everything is kept, so the limit doesn't matter
+    markPosition = position;
+  }
+
+  @Override
+  public void reset() {
+    position = markPosition;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
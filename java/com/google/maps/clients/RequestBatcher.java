@@ -0,0 +1,277 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.batch.BatchCallback;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClient;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.Charsets;
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.Sleeper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Sends API requests in multipart batches of up to 100, so that N small calls cost roughly N/100
+ * round trips.  Requests are queued with a callback and sent when the batch fills up or when
+ * {@link #flush()} is called.
+ *
+ * {@code RequestBatcher batcher = new RequestBatcher(engine);
+ * for (String tableId : tableIds) {
+ *   batcher.queue(engine.tables().get(tableId), callback);
+ * }
+ * batcher.flush();
+ * }
+ *
+ * Each queued request is initialized by the client's own {@link HttpRequestInitializer}, as is
+ * the batch request itself, so an {@link HttpRequestInitializerPipeline} applies to both.  A
+ * {@link BackOffWhenRateLimitedRequestInitializer} in the pipeline retries the whole batch when
+ * it fails, and also retries the individual requests in it that fail with
+ * {@code rateLimitExceeded}.  Rather than sleeping once per failed request, the batcher waits
+ * for the longest back-off any of them asked for, then resends them together.
+ *
+ * This class is not thread-safe.
+ */
+public class RequestBatcher {
+
+  /** The number of requests sent in each batch, unless otherwise specified. */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  private final AbstractGoogleJsonClient client;
+  private final int batchSize;
+  private final Sleeper sleeper;
+  private BatchRequest batch;
+  private long pendingBackOffMillis;
+
+  /**
+   * Creates a batcher sending batches of {@value #DEFAULT_BATCH_SIZE} requests.
+   * @param client  The API client that will build the queued requests
+   */
+  public RequestBatcher(AbstractGoogleJsonClient client) {
+    this(client, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Creates a batcher.
+   * @param client  The API client that will build the queued requests
+   * @param batchSize  The number of requests to send in each batch
+   */
+  public RequestBatcher(AbstractGoogleJsonClient client, int batchSize) {
+    this(client, batchSize, Sleeper.DEFAULT);
+  }
+
+  RequestBatcher(AbstractGoogleJsonClient client, int batchSize, Sleeper sleeper) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.client = client;
+    this.batchSize = batchSize;
+    this.sleeper = sleeper;
+  }
+
+  /**
+   * Queues a request, sending the current batch if this fills it.
+   * @param request  A request built by this batcher's client
+   * @param callback  Called with the parsed response or error when the batch has been sent
+   * @throws IOException when a full batch could not be sent
+   */
+  public <T> void queue(AbstractGoogleJsonClientRequest<T> request, JsonBatchCallback<T> callback)
+      throws IOException {
+    if (request.getAbstractGoogleClient() != client) {
+      throw new IllegalArgumentException("Request was not built by this batcher's client");
+    }
+    if (batch == null) {
+      batch = client.batch(new BatchInitializer());
+    }
+
+    HttpRequest httpRequest = request.buildHttpRequest();
+    SubRequest<T> subRequest = new SubRequest<T>(httpRequest, callback);
+    httpRequest.setUnsuccessfulResponseHandler(subRequest);
+    // errors are parsed by the SubRequest, from the body it buffered
+    batch.queue(httpRequest, request.getResponseClass(), Void.class, subRequest);
+
+    if (batch.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Sends any queued requests, calling their callbacks before returning.
+   * @throws IOException when the batch could not be sent
+   */
+  public void flush() throws IOException {
+    if (batch == null) {
+      return;
+    }
+    BatchRequest sending = batch;
+    batch = null;
+    pendingBackOffMillis = 0;
+    sending.execute();
+  }
+
+  /** Returns the number of requests waiting to be sent. */
+  public int size() {
+    return batch == null ? 0 : batch.size();
+  }
+
+  /**
+   * Initializes the batch request as the client would, then waits out the longest back-off
+   * requested by the last round's failures before each resend.
+   */
+  private class BatchInitializer implements HttpRequestInitializer, HttpExecuteInterceptor {
+    private HttpExecuteInterceptor chainedInterceptor;
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+      HttpRequestInitializer clientInitializer = client.getRequestFactory().getInitializer();
+      if (clientInitializer != null) {
+        clientInitializer.initialize(request);
+      }
+      chainedInterceptor = request.getInterceptor();
+      request.setInterceptor(this);
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      long backOffMillis = pendingBackOffMillis;
+      pendingBackOffMillis = 0;
+      if (backOffMillis > 0) {
+        try {
+          sleeper.sleep(backOffMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted backing off a batch request");
+        }
+      }
+      if (chainedInterceptor != null) {
+        chainedInterceptor.intercept(request);
+      }
+    }
+  }
+
+  /**
+   * A queued request.  Failed responses are buffered before being handed to the request's own
+   * unsuccessful response handler, so that the handler (which may read the body to look for a
+   * rate limit error) and the callback both see the whole body.  Any back-off the handler asks
+   * for is deferred to the next round of the batch.
+   */
+  private class SubRequest<T> implements BatchCallback<T, Void>, HttpUnsuccessfulResponseHandler,
+      Sleeper {
+    private final HttpRequest request;
+    private final JsonBatchCallback<T> callback;
+    private final HttpUnsuccessfulResponseHandler handler;
+    private byte[] errorBody;
+    private int errorStatusCode;
+    private String errorStatusMessage;
+
+    SubRequest(HttpRequest request, JsonBatchCallback<T> callback) {
+      this.request = request;
+      this.callback = callback;
+      this.handler = request.getUnsuccessfulResponseHandler();
+      // the back-off handler may be composed with, or wrapped by, others
+      HttpBackOffUnsuccessfulResponseHandler backOffHandler =
+          HttpRequestInitializerPipeline.findBackOffHandler(handler, request);
+      if (backOffHandler != null) {
+        backOffHandler.setSleeper(this);
+      }
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+        boolean supportsRetry) throws IOException {
+      errorStatusCode = response.getStatusCode();
+      errorStatusMessage = response.getStatusMessage();
+      errorBody = readBody(response);
+      if (handler == null) {
+        return false;
+      }
+      return handler.handleResponse(request, replay(request, response, errorBody), supportsRetry);
+    }
+
+    @Override
+    public void sleep(long millis) {
+      pendingBackOffMillis = Math.max(pendingBackOffMillis, millis);
+    }
+
+    @Override
+    public void onSuccess(T t, HttpHeaders responseHeaders) throws IOException {
+      callback.onSuccess(t, responseHeaders);
+    }
+
+    @Override
+    public void onFailure(Void ignored, HttpHeaders responseHeaders) throws IOException {
+      GoogleJsonErrorContainer container = null;
+      if (errorBody != null && errorBody.length > 0) {
+        try {
+          container = request.getParser().parseAndClose(new ByteArrayInputStream(errorBody),
+              Charsets.UTF_8, GoogleJsonErrorContainer.class);
+        } catch (IOException e) {
+          // not a JSON error body, so describe the error from the status line instead
+        } catch (IllegalArgumentException e) {
+          // likewise
+        }
+      }
+      if (container == null || container.getError() == null) {
+        GoogleJsonError error = new GoogleJsonError();
+        error.setCode(errorStatusCode);
+        error.setMessage(errorStatusMessage);
+        container = new GoogleJsonErrorContainer();
+        container.setError(error);
+      }
+      callback.onFailure(container, responseHeaders);
+    }
+  }
+
+  private static byte[] readBody(HttpResponse response) throws IOException {
+    InputStream content = response.getContent();
+    if (content == null) {
+      return new byte[0];
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    IOUtils.copy(content, body, false);
+    return body.toByteArray();
+  }
+
+  /** Returns a copy of the response that reads its body from the buffer provided. */
+  private static HttpResponse replay(HttpRequest request, HttpResponse response, byte[] body)
+      throws IOException {
+    final LowLevelHttpResponse replayed = new ForwardingHttpTransport.ForwardedResponse(
+        response, body);
+    HttpTransport transport = new HttpTransport() {
+      @Override
+      protected LowLevelHttpRequest buildRequest(String method, String url) {
+        return new LowLevelHttpRequest() {
+          @Override
+          public void addHeader(String name, String value) {
+          }
+
+          @Override
+          public LowLevelHttpResponse execute() {
+            return replayed;
+          }
+        };
+      }
+    };
+    HttpRequest replay = transport.createRequestFactory().buildGetRequest(request.getUrl());
+    replay.setThrowExceptionOnExecuteError(false);
+    replay.setLoggingEnabled(false);
+    replay.setNumberOfRetries(0);
+    return replay.execute();
+  }
+}
@@ -0,0 +1,146 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClient;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpMethods;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collapses identical, concurrent GET requests into a single API call.  The first thread to
+ * execute a request makes the call, and any thread executing the same request before it
+ * completes waits for and receives the same parsed response (or exception) instead of sending
+ * its own.  This stops a burst of threads that all miss a cache at once from stampeding the API
+ * and tripping its rate limit.
+ *
+ * {@code RequestCoalescer coalescer = new RequestCoalescer();
+ * Table table = coalescer.execute(engine.tables().get(TABLE_ID));
+ * }
+ *
+ * Requests are identical when they are sent by the same client, to the same URL, for the same
+ * response type.  Responses are shared between threads, so treat them as read-only.  Anything
+ * other than a GET is executed directly.
+ */
+public class RequestCoalescer {
+
+  private final ConcurrentMap<Key, InFlight> inFlight = new ConcurrentHashMap<Key, InFlight>();
+
+  /**
+   * Executes the request, or waits for an identical one that is already in flight.
+   * @param request  The API request to execute
+   * @return The parsed response
+   * @throws IOException when the request failed, for this or any other waiting thread
+   */
+  public <T> T execute(AbstractGoogleClientRequest<T> request) throws IOException {
+    if (!HttpMethods.GET.equals(request.getRequestMethod())) {
+      return request.execute();
+    }
+
+    Key key = new Key(request.getAbstractGoogleClient(), request.buildHttpRequestUrl().build(),
+        request.getResponseClass());
+    InFlight call = new InFlight();
+    InFlight existing = inFlight.putIfAbsent(key, call);
+    if (existing != null) {
+      // the key includes the response class, so the result is always a T
+      @SuppressWarnings("unchecked")
+      T result = (T) existing.await();
+      return result;
+    }
+
+    T result = null;
+    Throwable failure = null;
+    try {
+      result = request.execute();
+      return result;
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } catch (Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      inFlight.remove(key, call);
+      call.complete(result, failure);
+    }
+  }
+
+  /** Returns the number of threads currently waiting on another thread's request. */
+  int getWaitingCount() {
+    int waiting = 0;
+    for (InFlight call : inFlight.values()) {
+      waiting += call.waiting.get();
+    }
+    return waiting;
+  }
+
+  /** A request in progress, and eventually its outcome. */
+  private static final class InFlight {
+    private final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger waiting = new AtomicInteger();
+    private Object result;
+    private Throwable failure;
+
+    void complete(Object result, Throwable failure) {
+      this.result = result;
+      this.failure = failure;
+      done.countDown();
+    }
+
+    Object await() throws IOException {
+      waiting.incrementAndGet();
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a coalesced request");
+      } finally {
+        waiting.decrementAndGet();
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure != null) {
+        throw (Error) failure;
+      }
+      return result;
+    }
+  }
+
+  /** Identifies requests that can share a response. */
+  private static final class Key {
+    private final AbstractGoogleClient client;
+    private final String url;
+    private final Class<?> responseClass;
+
+    Key(AbstractGoogleClient client, String url, Class<?> responseClass) {
+      this.client = client;
+      this.url = url;
+      this.responseClass = responseClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return client == other.client && url.equals(other.url)
+          && responseClass == other.responseClass;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * System.identityHashCode(client) + url.hashCode())
+          + responseClass.hashCode();
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.google.maps.clients;
+
+/**
+ * Receives measurements of the requests initialized by {@link RequestMetrics}.  Methods are
+ * called on the threads executing requests, so should be quick and thread-safe.
+ */
+public interface RequestListener {
+
+  /**
+   * Called when the response to each attempt at a request arrives.
+   * @param method  The API method, e.g. {@code GET tables/{id}/features}
+   * @param statusCode  The HTTP status code
+   * @param latencyNanos  The time from sending the request to receiving the response headers
+   * @param bytesSent  The length of the request body, before any compression
+   * @param bytesReceived  The length of the response body, or -1 if not given
+   */
+  void onResponse(String method, int statusCode, long latencyNanos, long bytesSent,
+      long bytesReceived);
+
+  /**
+   * Called when a request is about to be retried.
+   * @param method  The API method, e.g. {@code GET tables/{id}/features}
+   * @param reason  The error reason, e.g. {@code rateLimitExceeded}, or else the status code
+   * @param backOffNanos  The time spent backing off before the retry
+   */
+  void onRetry(String method, String reason, long backOffNanos);
+}
@@ -0,0 +1,302 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler.BackOffRequired;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.NanoClock;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measures the requests it initializes: latency by API method, bytes sent and received, and
+ * retries and time spent backing off, by error reason.  Counters are striped across threads and
+ * updated without locks, so it is cheap enough to leave on.
+ *
+ * {@code RequestMetrics metrics = new RequestMetrics();
+ * HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(credential,
+ *     new BackOffWhenRateLimitedRequestInitializer(), metrics);
+ * ...
+ * long p99 = metrics.getLatencyPercentileMicros("GET tables/{id}/features", 99);
+ * }
+ *
+ * Retries are counted by wrapping the unsuccessful response handler already installed on each
+ * request, so add the metrics after any initializer that retries.  Pass {@link RequestListener}s
+ * to the constructor to export each measurement elsewhere as well.
+ */
+public class RequestMetrics implements ChainingRequestInitializer, RequestListener {
+
+  // latency buckets, by powers of two of microseconds, up to about half an hour
+  static final int BUCKETS = 32;
+  private static final int BYTES_SENT = BUCKETS;
+  private static final int BYTES_RECEIVED = BUCKETS + 1;
+  private static final int RETRIES = 0;
+  private static final int BACK_OFF_NANOS = 1;
+
+  private final List<RequestListener> listeners;
+  private final NanoClock clock;
+  private final ConcurrentMap<String, StripedCounters> methods =
+      new ConcurrentHashMap<String, StripedCounters>();
+  private final ConcurrentMap<String, StripedCounters> retries =
+      new ConcurrentHashMap<String, StripedCounters>();
+
+  /**
+   * Creates metrics, also passing each measurement to the listeners provided.
+   * @param listeners  Any listeners to pass measurements on to
+   */
+  public RequestMetrics(RequestListener... listeners) {
+    this(NanoClock.SYSTEM, listeners);
+  }
+
+  RequestMetrics(NanoClock clock, RequestListener... listeners) {
+    this.clock = clock;
+    this.listeners = Arrays.asList(listeners);
+  }
+
+  @Override
+  public void initialize(HttpRequest httpRequest) throws IOException {
+    Instrument instrument = new Instrument(httpRequest.getInterceptor(),
+        httpRequest.getResponseInterceptor(), httpRequest.getUnsuccessfulResponseHandler());
+    httpRequest.setInterceptor(instrument);
+    httpRequest.setResponseInterceptor(instrument);
+    httpRequest.setUnsuccessfulResponseHandler(instrument);
+  }
+
+  /**
+   * Returns the API method a request calls: the HTTP method and the path after the API version,
+   * with IDs replaced by {@code {id}}, e.g. {@code POST tables/{id}/features/batchInsert}.
+   * Override to name methods differently.
+   * @param request  The request being measured
+   */
+  protected String getMethodName(HttpRequest request) {
+    return ConditionalRequestInitializer.routeOf(request);
+  }
+
+  @Override
+  public void onResponse(String method, int statusCode, long latencyNanos, long bytesSent,
+      long bytesReceived) {
+    StripedCounters counters = counters(methods, method, BUCKETS + 2);
+    counters.add(bucket(latencyNanos), 1);
+    counters.add(BYTES_SENT, bytesSent);
+    if (bytesReceived > 0) {
+      counters.add(BYTES_RECEIVED, bytesReceived);
+    }
+    for (RequestListener listener : listeners) {
+      listener.onResponse(method, statusCode, latencyNanos, bytesSent, bytesReceived);
+    }
+  }
+
+  @Override
+  public void onRetry(String method, String reason, long backOffNanos) {
+    StripedCounters counters = counters(retries, reason, 2);
+    counters.add(RETRIES, 1);
+    counters.add(BACK_OFF_NANOS, backOffNanos);
+    for (RequestListener listener : listeners) {
+      listener.onRetry(method, reason, backOffNanos);
+    }
+  }
+
+  /** Returns the API methods measured so far. */
+  public Set<String> getMethods() {
+    return Collections.unmodifiableSet(methods.keySet());
+  }
+
+  /** Returns the number of responses received for the API method. */
+  public long getResponseCount(String method) {
+    StripedCounters counters = methods.get(method);
+    long count = 0;
+    for (int i = 0; counters != null && i < BUCKETS; i++) {
+      count += counters.sum(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns an upper bound for the given percentile of the API method's latency, accurate to a
+   * factor of two.
+   * @param method  The API method, as returned by {@link #getMethods()}
+   * @param percentile  The percentile, from 0 to 100
+   * @return The latency in microseconds, or -1 if there have been no responses
+   */
+  public long getLatencyPercentileMicros(String method, double percentile) {
+    StripedCounters counters = methods.get(method);
+    if (counters == null) {
+      return -1;
+    }
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = counters.sum(i);
+      total += counts[i];
+    }
+    long rank = (long) Math.ceil(percentile / 100 * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return 1L << i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the bytes sent in request bodies for the API method, before any compression. */
+  public long getBytesSent(String method) {
+    StripedCounters counters = methods.get(method);
+    return counters == null ? 0 : counters.sum(BYTES_SENT);
+  }
+
+  /** Returns the bytes received in response bodies for the API method, where they had a length. */
+  public long getBytesReceived(String method) {
+    StripedCounters counters = methods.get(method);
+    return counters == null ? 0 : counters.sum(BYTES_RECEIVED);
+  }
+
+  /** Returns the error reasons that requests have been retried for. */
+  public Set<String> getRetryReasons() {
+    return Collections.unmodifiableSet(retries.keySet());
+  }
+
+  /** Returns the number of retries for the error reason, or status code if there was none. */
+  public long getRetryCount(String reason) {
+    StripedCounters counters = retries.get(reason);
+    return counters == null ? 0 : counters.sum(RETRIES);
+  }
+
+  /** Returns the total time spent backing off before retries, in nanoseconds. */
+  public long getBackOffNanos() {
+    long nanos = 0;
+    for (StripedCounters counters : retries.values()) {
+      nanos += counters.sum(BACK_OFF_NANOS);
+    }
+    return nanos;
+  }
+
+  /** Returns the latency bucket, counting latencies under 2^i microseconds in bucket i. */
+  static int bucket(long latencyNanos) {
+    long micros = latencyNanos / 1000;
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+  }
+
+  private static StripedCounters counters(ConcurrentMap<String, StripedCounters> map, String key,
+      int size) {
+    StripedCounters counters = map.get(key);
+    if (counters == null) {
+      StripedCounters created = new StripedCounters(size);
+      counters = map.putIfAbsent(key, created);
+      if (counters == null) {
+        counters = created;
+      }
+    }
+    return counters;
+  }
+
+  /**
+   * Times each attempt at a request and each retry.  Any interceptors or handler already
+   * installed on the request are run first.
+   *
+   * The response interceptor only sees the final response, after any retries, so responses that
+   * are retried are recorded by the unsuccessful response handler instead.
+   */
+  private class Instrument implements HttpExecuteInterceptor, HttpResponseInterceptor,
+      ForwardingResponseHandler {
+    private final HttpExecuteInterceptor previous;
+    private final HttpResponseInterceptor previousResponse;
+    private final HttpUnsuccessfulResponseHandler handler;
+    private String method;
+    private long sentNanos;
+    private long receivedNanos;
+
+    Instrument(HttpExecuteInterceptor previous, HttpResponseInterceptor previousResponse,
+        HttpUnsuccessfulResponseHandler handler) {
+      this.previous = previous;
+      this.previousResponse = previousResponse;
+      this.handler = handler;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      if (previous != null) {
+        previous.intercept(request);
+      }
+      if (method == null) {
+        method = getMethodName(request);
+      }
+      receivedNanos = 0;
+      sentNanos = clock.nanoTime();
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      if (receivedNanos == 0) {
+        receivedNanos = clock.nanoTime();
+      }
+      if (previousResponse != null) {
+        previousResponse.interceptResponse(response);
+      }
+      record(response);
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+        throws IOException {
+      receivedNanos = clock.nanoTime();
+      if (handler == null) {
+        return false;
+      }
+      // the handler sleeps for any back-off before returning
+      boolean retry = handler.handleResponse(request, response, supportsRetry);
+      if (retry) {
+        record(response);
+        onRetry(method, reason(response), clock.nanoTime() - receivedNanos);
+      }
+      return retry;
+    }
+
+    @Override
+    public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+      return Collections.singletonList(handler);
+    }
+
+    private void record(HttpResponse response) {
+      HttpContent content = response.getRequest().getContent();
+      long bytesSent = 0;
+      try {
+        bytesSent = content == null ? 0 : Math.max(0, content.getLength());
+      } catch (IOException e) {
+        // the length is unknown
+      }
+      Long bytesReceived = response.getHeaders().getContentLength();
+      onResponse(method, response.getStatusCode(), receivedNanos - sentNanos, bytesSent,
+          bytesReceived == null ? -1 : bytesReceived);
+    }
+
+    private String reason(HttpResponse response) {
+      HttpBackOffUnsuccessfulResponseHandler backOffHandler =
+          HttpRequestInitializerPipeline.findBackOffHandler(handler, response.getRequest());
+      if (backOffHandler != null) {
+        BackOffRequired backOffRequired = backOffHandler.getBackOffRequired();
+        if (backOffRequired instanceof RateLimitedBackOffRequired) {
+          // only if it was the back-off check that had this response retried, not, say, a
+          // credential refreshing its token
+          String reason =
+              ((RateLimitedBackOffRequired) backOffRequired).getBackOffReason(response);
+          if (reason != null) {
+            return reason;
+          }
+        }
+      }
+      return String.valueOf(response.getStatusCode());
+    }
+  }
+}
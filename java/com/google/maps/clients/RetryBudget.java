@@ -0,0 +1,151 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries of server errors to a fraction of recent successful requests, so that during a
+ * back-end outage requests fail quickly instead of all backing off for minutes.  Each success
+ * earns a fraction of a retry, each retry spends one, and server errors are only retried while
+ * there is a retry to spend.
+ *
+ * The budget limits the retries of the unsuccessful response handler already installed on each
+ * request, so it must come after {@link BackOffWhenRateLimitedRequestInitializer} in the pipeline.
+ *
+ * {@code HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(credential,
+ *     new BackOffWhenRateLimitedRequestInitializer(), new RetryBudget());
+ * }
+ */
+public class RetryBudget implements ChainingRequestInitializer {
+
+  /** The fraction of successful requests that may be retried, unless otherwise specified. */
+  public static final double DEFAULT_RETRY_RATIO = 0.1;
+  /** The retries allowed regardless of successes, unless otherwise specified. */
+  public static final int DEFAULT_MIN_RETRIES = 10;
+
+  // only the retries earned by this many recent successes are kept
+  private static final int RECENT_SUCCESSES = 1000;
+  // balances are kept in thousandths of a retry
+  private static final long ONE_RETRY = 1000;
+
+  private final long depositPerSuccess;
+  private final long maxBalance;
+  private final AtomicLong balance;
+
+  /** Creates a budget allowing retries of 10% of requests, and at least 10 retries. */
+  public RetryBudget() {
+    this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES);
+  }
+
+  /**
+   * Creates a budget.
+   * @param retryRatio  The fraction of successful requests that may be retried, e.g. 0.1
+   * @param minRetries  The number of retries allowed regardless of successes
+   */
+  public RetryBudget(double retryRatio, int minRetries) {
+    if (retryRatio < 0 || minRetries < 0) {
+      throw new IllegalArgumentException("Retry ratio and minimum retries must not be negative");
+    }
+    this.depositPerSuccess = (long) (retryRatio * ONE_RETRY);
+    this.maxBalance = Math.max(minRetries * ONE_RETRY, RECENT_SUCCESSES * depositPerSuccess);
+    this.balance = new AtomicLong(minRetries * ONE_RETRY);
+  }
+
+  @Override
+  public void initialize(HttpRequest httpRequest) throws IOException {
+    BudgetedHandler handler = new BudgetedHandler(
+        httpRequest.getUnsuccessfulResponseHandler(), httpRequest.getResponseInterceptor());
+    httpRequest.setUnsuccessfulResponseHandler(handler);
+    httpRequest.setResponseInterceptor(handler);
+  }
+
+  /** Returns the number of retries currently available. */
+  public double getAvailableRetries() {
+    return (double) balance.get() / ONE_RETRY;
+  }
+
+  /**
+   * Spends one retry, if any are available, for a request sent outside of the usual retry
+   * handling, such as a hedge.
+   * @return true if a retry was spent
+   */
+  public boolean trySpendRetry() {
+    long current;
+    do {
+      current = balance.get();
+      if (current < ONE_RETRY) {
+        return false;
+      }
+    } while (!balance.compareAndSet(current, current - ONE_RETRY));
+    return true;
+  }
+
+  private void deposit(long amount) {
+    long current;
+    do {
+      current = balance.get();
+      if (current >= maxBalance) {
+        return;
+      }
+    } while (!balance.compareAndSet(current, Math.min(maxBalance, current + amount)));
+  }
+
+  /**
+   * Pays for retries of server errors before handing them to the request's own handler, and
+   * earns retries from successful responses.  Any response interceptor already installed on the
+   * request is run first.
+   */
+  private class BudgetedHandler implements ForwardingResponseHandler, HttpResponseInterceptor {
+    private final HttpUnsuccessfulResponseHandler previous;
+    private final HttpResponseInterceptor previousResponse;
+
+    BudgetedHandler(HttpUnsuccessfulResponseHandler previous,
+        HttpResponseInterceptor previousResponse) {
+      this.previous = previous;
+      this.previousResponse = previousResponse;
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+        throws IOException {
+      if (previous == null) {
+        return false;
+      }
+      if (response.getStatusCode() < 500) {
+        return previous.handleResponse(request, response, supportsRetry);
+      }
+
+      // check the budget first, so we don't back off for a retry we won't make
+      if (!supportsRetry || !trySpendRetry()) {
+        return false;
+      }
+      boolean retried = previous.handleResponse(request, response, supportsRetry);
+      if (!retried) {
+        deposit(ONE_RETRY);
+      }
+      return retried;
+    }
+
+    @Override
+    public List<HttpUnsuccessfulResponseHandler> getDelegates(HttpRequest request) {
+      return Collections.singletonList(previous);
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      if (previousResponse != null) {
+        previousResponse.interceptResponse(response);
+      }
+      if (response.isSuccessStatusCode()) {
+        deposit(depositPerSuccess);
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.google.maps.clients;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent spans in memory, overwriting the oldest, for tests and for inspecting a
+ * running process.
+ *
+ * {@code RingBufferSpanSink spans = new RingBufferSpanSink(1024);
+ * HttpRequestInitializer pipeline = new HttpRequestInitializerPipeline(spans, credential, retrier);
+ * ...
+ * List<Span> recent = spans.getSpans();
+ * }
+ */
+public class RingBufferSpanSink implements SpanSink {
+
+  private final AtomicReferenceArray<Span> spans;
+  private final AtomicLong exported = new AtomicLong();
+
+  /**
+   * Creates a sink holding up to {@code capacity} spans.
+   * @param capacity  The number of spans to keep
+   */
+  public RingBufferSpanSink(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    spans = new AtomicReferenceArray<Span>(capacity);
+  }
+
+  @Override
+  public void export(Span span) {
+    spans.set((int) (exported.getAndIncrement() % spans.length()), span);
+  }
+
+  /** Returns the spans held, oldest first. */
+  public List<Span> getSpans() {
+    long end = exported.get();
+    long start = Math.max(0, end - spans.length());
+    List<Span> recent = new ArrayList<Span>((int) (end - start));
+    for (long i = start; i < end; i++) {
+      Span span = spans.get((int) (i % spans.length()));
+      if (span != null) {
+        recent.add(span);
+      }
+    }
+    return recent;
+  }
+
+  /** Returns the total number of spans exported, including those since overwritten. */
+  public long getExportedCount() {
+    return exported.get();
+  }
+}
@@ -0,0 +1,85 @@
+package com.google.maps.clients;
+
+/**
+ * A timed stage in executing a request, such as an initializer or a back-off sleep, as traced by
+ * {@link HttpRequestInitializerPipeline}.  IDs are lower-case hex, as in the W3C
+ * {@code traceparent} header.
+ */
+public final class Span {
+
+  private final String traceId;
+  private final String spanId;
+  private final String parentSpanId;
+  private final String name;
+  private final long startMillis;
+  private final long durationNanos;
+  private final boolean error;
+
+  /**
+   * Creates a span that ended without error.
+   * @param traceId  The 32 digit ID shared by every span of the trace
+   * @param spanId  The 16 digit ID of this span
+   * @param parentSpanId  The ID of the enclosing span, or null if this is the root
+   * @param name  What was timed, e.g. {@code initialize Credential}
+   * @param startMillis  When it started, in milliseconds since the epoch
+   * @param durationNanos  How long it took
+   */
+  public Span(String traceId, String spanId, String parentSpanId, String name, long startMillis,
+      long durationNanos) {
+    this(traceId, spanId, parentSpanId, name, startMillis, durationNanos, false);
+  }
+
+  /**
+   * Creates a span.
+   * @param traceId  The 32 digit ID shared by every span of the trace
+   * @param spanId  The 16 digit ID of this span
+   * @param parentSpanId  The ID of the enclosing span, or null if this is the root
+   * @param name  What was timed, e.g. {@code initialize Credential}
+   * @param startMillis  When it started, in milliseconds since the epoch
+   * @param durationNanos  How long it took
+   * @param error  Whether it failed, e.g. a request that threw or got an error response
+   */
+  public Span(String traceId, String spanId, String parentSpanId, String name, long startMillis,
+      long durationNanos, boolean error) {
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.parentSpanId = parentSpanId;
+    this.name = name;
+    this.startMillis = startMillis;
+    this.durationNanos = durationNanos;
+    this.error = error;
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  public String getSpanId() {
+    return spanId;
+  }
+
+  public String getParentSpanId() {
+    return parentSpanId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  public boolean isError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + durationNanos / 1000 + "us" + (error ? ", error)" : ")");
+  }
+}
@@ -0,0 +1,15 @@
+package com.google.maps.clients;
+
+/**
+ * Receives the spans traced by {@link HttpRequestInitializerPipeline}, to export them to a tracing
+ * system.  Spans are exported on the threads executing requests, as each one ends, so
+ * implementations should be quick and thread-safe.
+ */
+public interface SpanSink {
+
+  /**
+   * Called when a span ends.
+   * @param span  The finished span
+   */
+  void export(Span span);
+}
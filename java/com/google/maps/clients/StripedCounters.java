@@ -0,0 +1,54 @@
+package com.google.maps.clients;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters, each spread over several cells so that threads updating them at
+ * once rarely touch the same cache line.  Adding is a single uncontended atomic add, reading sums
+ * the cells, so it suits counters that are written far more often than read.
+ */
+final class StripedCounters {
+
+  // enough stripes that a thread per core rarely shares one
+  private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+  // longs per cache line
+  private static final int PAD = 8;
+
+  private final int width;
+  private final AtomicLongArray cells;
+
+  /**
+   * Creates the counters, all zero.
+   * @param counters  The number of counters
+   */
+  StripedCounters(int counters) {
+    // each stripe's counters start on their own cache line
+    this.width = (counters + PAD - 1) / PAD * PAD;
+    this.cells = new AtomicLongArray(STRIPES * width);
+  }
+
+  void add(int counter, long delta) {
+    cells.getAndAdd(stripe() * width + counter, delta);
+  }
+
+  long sum(int counter) {
+    long sum = 0;
+    for (int i = counter; i < cells.length(); i += width) {
+      sum += cells.get(i);
+    }
+    return sum;
+  }
+
+  private static int stripe() {
+    long id = Thread.currentThread().getId();
+    return (int) (id ^ (id >>> 32)) & (STRIPES - 1);
+  }
+
+  private static int stripeCount(int processors) {
+    int stripes = 1;
+    while (stripes < processors * 2 && stripes < 64) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+}
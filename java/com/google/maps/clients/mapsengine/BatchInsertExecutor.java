@@ -0,0 +1,252 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.FeaturesBatchInsertRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts any number of features into a table, in batches small enough that a retried request
+ * only resends one batch.  A batch rejected as invalid (or too large) is split in half and each
+ * half sent again, until the features at fault are isolated and handed to a
+ * {@link DeadLetterSink}, so one bad feature doesn't stop the rest being inserted.  When every
+ * feature is rejected on its own just as the whole batch was, the fault is with the request,
+ * such as a column the table doesn't have, and the batch is reported as not inserted.
+ *
+ * {@code BatchInsertExecutor inserter = new BatchInsertExecutor(engine, TABLE_ID, sink);
+ * inserter.insert(features);
+ * }
+ *
+ * Rate limit and back-end errors are left to the client's own retries (see
+ * {@link com.google.maps.clients.BackOffWhenRateLimitedRequestInitializer}).  If a batch still
+ * fails, a {@link PartialInsertException} reports which features have yet to be inserted, so
+ * only those need to be sent again.
+ */
+public class BatchInsertExecutor {
+
+  /** The number of features inserted in each request, unless otherwise specified. */
+  public static final int DEFAULT_BATCH_SIZE = 50;
+
+  private static final int STATUS_CODE_BAD_REQUEST = 400;
+  private static final int STATUS_CODE_REQUEST_ENTITY_TOO_LARGE = 413;
+
+  /** Receives features the API won't accept. */
+  public interface DeadLetterSink {
+
+    /**
+     * Called with a feature that was rejected when inserted on its own.
+     * @param feature  The rejected feature
+     * @param error  The API's error response
+     */
+    void reject(Feature feature, GoogleJsonResponseException error);
+  }
+
+  /**
+   * Thrown when a batch couldn't be inserted for a reason other than invalid features, including
+   * when the API rejects the request whichever features it holds.
+   */
+  public static class PartialInsertException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Feature> remaining;
+
+    PartialInsertException(List<Feature> remaining, IOException cause) {
+      super(remaining.size() + " features were not inserted: " + cause.getMessage(), cause);
+      this.remaining = remaining;
+    }
+
+    /** Returns the features that were not inserted, in their original order. */
+    public List<Feature> getRemaining() {
+      return remaining;
+    }
+  }
+
+  /** A feature rejected on its own, waiting to be handed to the dead-letter sink. */
+  private static class Rejection {
+    final Feature feature;
+    final GoogleJsonResponseException error;
+
+    Rejection(Feature feature, GoogleJsonResponseException error) {
+      this.feature = feature;
+      this.error = error;
+    }
+  }
+
+  private final MapsEngine engine;
+  private final String tableId;
+  private final int batchSize;
+  private final DeadLetterSink deadLetters;
+
+  /**
+   * Creates an executor that inserts {@value #DEFAULT_BATCH_SIZE} features at a time.
+   * @param engine  The API client to insert with
+   * @param tableId  The ID of the table to insert into
+   * @param deadLetters  Receives features the API won't accept
+   */
+  public BatchInsertExecutor(MapsEngine engine, String tableId, DeadLetterSink deadLetters) {
+    this(engine, tableId, DEFAULT_BATCH_SIZE, deadLetters);
+  }
+
+  /**
+   * Creates an executor.
+   * @param engine  The API client to insert with
+   * @param tableId  The ID of the table to insert into
+   * @param batchSize  The largest number of features to insert in each request
+   * @param deadLetters  Receives features the API won't accept
+   */
+  public BatchInsertExecutor(MapsEngine engine, String tableId, int batchSize,
+      DeadLetterSink deadLetters) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.engine = engine;
+    this.tableId = tableId;
+    this.batchSize = batchSize;
+    this.deadLetters = deadLetters;
+  }
+
+  /**
+   * Inserts the features.
+   * @param features  The features to insert
+   * @return The number of features inserted, which is less than were given if any were rejected
+   * @throws PartialInsertException when a batch failed for a reason other than invalid features
+   */
+  public int insert(List<Feature> features) throws IOException {
+    int inserted = 0;
+    for (int start = 0; start < features.size(); start += batchSize) {
+      List<Feature> batch = features.subList(start, Math.min(features.size(), start + batchSize));
+      try {
+        inserted += insertOrBisect(batch);
+      } catch (PartialInsertException e) {
+        // add the batches we hadn't got to yet
+        List<Feature> remaining = new ArrayList<Feature>(e.getRemaining());
+        remaining.addAll(features.subList(start + batch.size(), features.size()));
+        throw new PartialInsertException(remaining, (IOException) e.getCause());
+      }
+    }
+    return inserted;
+  }
+
+  /**
+   * Inserts the batch, splitting it in half to find the features at fault if it's invalid.  If
+   * every feature is then rejected on its own with the batch's error, it's the request the API
+   * won't accept, not any one feature, so the batch is reported as not inserted instead.
+   */
+  private int insertOrBisect(List<Feature> batch) throws IOException {
+    GoogleJsonResponseException rejection = tryInsert(batch);
+    if (rejection == null) {
+      return batch.size();
+    }
+    List<Rejection> rejected = new ArrayList<Rejection>();
+    int inserted;
+    try {
+      inserted = bisect(batch, rejection, rejected);
+    } catch (PartialInsertException e) {
+      deadLetter(rejected);
+      throw e;
+    }
+    if (inserted == 0 && batch.size() > 1 && isRequestError(rejection, rejected)) {
+      throw new PartialInsertException(new ArrayList<Feature>(batch), rejection);
+    }
+    deadLetter(rejected);
+    return inserted;
+  }
+
+  /**
+   * Inserts the batch.
+   * @return The API's error if it rejected the batch as invalid, or null if it was inserted
+   * @throws PartialInsertException when the batch failed for any other reason
+   */
+  private GoogleJsonResponseException tryInsert(List<Feature> batch)
+      throws PartialInsertException {
+    try {
+      engine.tables().features()
+          .batchInsert(tableId, new FeaturesBatchInsertRequest().setFeatures(batch)).execute();
+      return null;
+    } catch (GoogleJsonResponseException e) {
+      if (!isInvalid(e)) {
+        throw new PartialInsertException(new ArrayList<Feature>(batch), e);
+      }
+      return e;
+    } catch (IOException e) {
+      throw new PartialInsertException(new ArrayList<Feature>(batch), e);
+    }
+  }
+
+  /**
+   * Sends each half of a rejected batch, then bisects any half that's rejected in turn, adding
+   * each feature rejected on its own to the list.
+   */
+  private int bisect(List<Feature> batch, GoogleJsonResponseException rejection,
+      List<Rejection> rejected) throws IOException {
+    if (batch.size() == 1) {
+      rejected.add(new Rejection(batch.get(0), rejection));
+      return 0;
+    }
+    List<Feature> first = batch.subList(0, batch.size() / 2);
+    List<Feature> second = batch.subList(first.size(), batch.size());
+
+    int inserted;
+    try {
+      inserted = insertHalf(first, rejected);
+    } catch (PartialInsertException partial) {
+      List<Feature> remaining = new ArrayList<Feature>(partial.getRemaining());
+      remaining.addAll(second);
+      throw new PartialInsertException(remaining, (IOException) partial.getCause());
+    }
+    return inserted + insertHalf(second, rejected);
+  }
+
+  private int insertHalf(List<Feature> half, List<Rejection> rejected) throws IOException {
+    GoogleJsonResponseException rejection = tryInsert(half);
+    return rejection == null ? half.size() : bisect(half, rejection, rejected);
+  }
+
+  /** Hands each rejected feature to the dead-letter sink. */
+  private void deadLetter(List<Rejection> rejected) {
+    for (Rejection rejection : rejected) {
+      deadLetters.reject(rejection.feature, rejection.error);
+    }
+  }
+
+  /** Returns true if every feature was rejected on its own with the batch's error. */
+  private static boolean isRequestError(GoogleJsonResponseException batchError,
+      List<Rejection> rejected) {
+    for (Rejection rejection : rejected) {
+      if (!isSameRequestError(batchError, rejection.error)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if a feature was rejected with its batch's own error, and that error isn't
+   * about the size of the request, which a single feature may still exceed.
+   */
+  private static boolean isSameRequestError(GoogleJsonResponseException batchError,
+      GoogleJsonResponseException featureError) {
+    if (batchError.getStatusCode() != featureError.getStatusCode()
+        || batchError.getStatusCode() == STATUS_CODE_REQUEST_ENTITY_TOO_LARGE) {
+      return false;
+    }
+    String batchMessage = batchError.getDetails() == null
+        ? batchError.getMessage() : batchError.getDetails().getMessage();
+    String featureMessage = featureError.getDetails() == null
+        ? featureError.getMessage() : featureError.getDetails().getMessage();
+    return batchMessage == null ? featureMessage == null : batchMessage.equals(featureMessage);
+  }
+
+  /**
+   * Returns true if the error is a rejection of the request's content, rather than a failure
+   * that the same request might get past later.
+   */
+  private static boolean isInvalid(GoogleJsonResponseException e) {
+    return e.getStatusCode() == STATUS_CODE_BAD_REQUEST
+        || e.getStatusCode() == STATUS_CODE_REQUEST_ENTITY_TOO_LARGE;
+  }
+}
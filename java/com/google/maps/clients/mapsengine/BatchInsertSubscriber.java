@@ -0,0 +1,135 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.FeaturesBatchInsertRequest;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A Reactive Streams {@link Subscriber} that inserts the features it receives into a table, with
+ * {@code batchInsert}.  It only asks for the next batch of features once the last has been
+ * inserted, so a fast publisher can't outrun the API.
+ *
+ * {@code BatchInsertSubscriber inserter = new BatchInsertSubscriber(engine, TABLE_ID);
+ * publisher.subscribe(inserter);
+ * inserter.await();
+ * }
+ */
+public class BatchInsertSubscriber implements Subscriber<TypedFeature> {
+
+  /** The number of features inserted in each request, unless otherwise specified. */
+  public static final int DEFAULT_BATCH_SIZE = 50;
+
+  private final MapsEngine engine;
+  private final String tableId;
+  private final int batchSize;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private Subscription subscription;
+  private List<Feature> batch;
+  private volatile long insertedCount;
+  private volatile Throwable failure;
+
+  /**
+   * Creates a subscriber that inserts {@value #DEFAULT_BATCH_SIZE} features at a time.
+   * @param engine  The API client to insert with
+   * @param tableId  The ID of the table to insert into
+   */
+  public BatchInsertSubscriber(MapsEngine engine, String tableId) {
+    this(engine, tableId, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Creates a subscriber.
+   * @param engine  The API client to insert with
+   * @param tableId  The ID of the table to insert into
+   * @param batchSize  The number of features to insert in each request
+   */
+  public BatchInsertSubscriber(MapsEngine engine, String tableId, int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.engine = engine;
+    this.tableId = tableId;
+    this.batchSize = batchSize;
+    this.batch = new ArrayList<Feature>(batchSize);
+  }
+
+  @Override
+  public void onSubscribe(Subscription subscription) {
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(batchSize);
+  }
+
+  @Override
+  public void onNext(TypedFeature feature) {
+    if (failure != null) {
+      return;
+    }
+    batch.add(feature.asFeature());
+    if (batch.size() >= batchSize && insert()) {
+      subscription.request(batchSize);
+    }
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    failure = t;
+    done.countDown();
+  }
+
+  @Override
+  public void onComplete() {
+    if (batch.isEmpty() || insert()) {
+      done.countDown();
+    }
+  }
+
+  /**
+   * Waits for the publisher to finish and the last features to be inserted.
+   * @throws IOException when the features could not be read or inserted
+   * @throws InterruptedException when interrupted while waiting
+   */
+  public void await() throws IOException, InterruptedException {
+    done.await();
+    Throwable t = failure;
+    if (t instanceof IOException) {
+      throw (IOException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t != null) {
+      throw new IOException(t.getMessage(), t);
+    }
+  }
+
+  /** Returns the number of features inserted so far. */
+  public long getInsertedCount() {
+    return insertedCount;
+  }
+
+  /** Inserts the current batch, cancelling the subscription if it fails. */
+  private boolean insert() {
+    try {
+      engine.tables().features()
+          .batchInsert(tableId, new FeaturesBatchInsertRequest().setFeatures(batch)).execute();
+      insertedCount += batch.size();
+      batch = new ArrayList<Feature>(batchSize);
+      return true;
+    } catch (IOException e) {
+      failure = e;
+      subscription.cancel();
+      done.countDown();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,369 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.util.NanoClock;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.FeaturesBatchDeleteRequest;
+import com.google.api.services.mapsengine.model.FeaturesBatchPatchRequest;
+import com.google.maps.clients.mapsengine.geojson.Geometry;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local cache of decoded features, keyed by table and feature ID, to keep repeated
+ * {@code features.get} calls for hot features inside the JVM.
+ *
+ * The cache is bounded by the total number of vertices held rather than the number of features,
+ * so a handful of detailed polygons can't crowd out thousands of points.  Eviction is least
+ * recently used, guarded by a TinyLFU admission filter: once the cache is full, a new feature
+ * only displaces the eldest ones it needs room for if it has been asked for more often recently
+ * than each of them.  Entries also expire a fixed time after they were loaded.
+ *
+ * The cache is split into 16 independently locked segments, each holding an equal share of the
+ * vertices, and a feature must fit in one segment.  A feature with more than
+ * {@code maxVertices / 16} vertices is therefore never cached, and is fetched again by every
+ * {@link #get}, so size the cache with the largest geometries in mind.
+ *
+ * {@code FeatureCache cache = new FeatureCache(1000000, 10, TimeUnit.MINUTES);
+ * FeatureCache.CachedFeature feature = cache.get(engine, TABLE_ID, featureId);
+ * }
+ *
+ * Any writes should be followed by a call to one of the {@code invalidate} methods so stale
+ * copies aren't served until they expire.  A fetch by {@link #get} that was in flight when its
+ * feature was invalidated isn't cached, since it may have read the feature before the write.
+ */
+public class FeatureCache {
+
+  static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+  private final Segment[] segments;
+  private final long expireAfterWriteNanos;
+  private final NanoClock clock;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Creates a feature cache.
+   * @param maxVertices  The total number of vertices to hold across all cached geometries.  No
+   *     feature with more than {@code maxVertices / 16} vertices is cached.
+   * @param expireAfterWrite  How long an entry is served for after being loaded
+   * @param unit  The unit of {@code expireAfterWrite}
+   */
+  public FeatureCache(long maxVertices, long expireAfterWrite, TimeUnit unit) {
+    this(maxVertices, expireAfterWrite, unit, DEFAULT_CONCURRENCY_LEVEL, NanoClock.SYSTEM);
+  }
+
+  FeatureCache(long maxVertices, long expireAfterWrite, TimeUnit unit, int concurrencyLevel,
+      NanoClock clock) {
+    if (maxVertices <= 0 || expireAfterWrite <= 0 || concurrencyLevel <= 0) {
+      throw new IllegalArgumentException("Size, expiry and concurrency level must be positive");
+    }
+    this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    this.clock = clock;
+
+    int segmentCount = 1;
+    while (segmentCount < concurrencyLevel) {
+      segmentCount <<= 1;
+    }
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(Math.max(1, maxVertices / segmentCount));
+    }
+  }
+
+  /**
+   * Returns the cached feature, or null if it is not cached or has expired.
+   * @param tableId  The ID of the table holding the feature
+   * @param featureId  The feature's ID (its {@code gx_id} or primary key)
+   * @return The cached feature or null
+   */
+  public CachedFeature getIfPresent(String tableId, String featureId) {
+    Key key = new Key(tableId, featureId);
+    CachedFeature cached = segmentFor(key).get(key, clock.nanoTime());
+    (cached == null ? missCount : hitCount).incrementAndGet();
+    return cached;
+  }
+
+  /**
+   * Returns the cached feature, fetching it with {@code features.get} if it's not cached.
+   * @param engine  The API client to use for fetching
+   * @param tableId  The ID of the table holding the feature
+   * @param featureId  The feature's ID (its {@code gx_id} or primary key)
+   * @return The feature
+   * @throws IOException when the feature could not be fetched
+   */
+  public CachedFeature get(MapsEngine engine, String tableId, String featureId)
+      throws IOException {
+    Key key = new Key(tableId, featureId);
+    Segment segment = segmentFor(key);
+    // read before fetching, so an invalidation during the fetch is noticed
+    long generation = segment.getGeneration();
+    CachedFeature cached = getIfPresent(tableId, featureId);
+    if (cached == null) {
+      cached = decode(engine.tables().features().get(tableId, featureId).execute());
+      segment.putIfNotInvalidated(key, cached, clock.nanoTime(), generation);
+    }
+    return cached;
+  }
+
+  /**
+   * Decodes and caches the feature provided, replacing any existing entry.  The feature may not
+   * be retained if the cache is full of more frequently used features.
+   * @param tableId  The ID of the table holding the feature
+   * @param featureId  The feature's ID (its {@code gx_id} or primary key)
+   * @param feature  The feature, as returned by the API
+   * @return The decoded feature
+   */
+  public CachedFeature put(String tableId, String featureId, Feature feature) {
+    CachedFeature cached = decode(feature);
+    Key key = new Key(tableId, featureId);
+    segmentFor(key).put(key, cached, clock.nanoTime());
+    return cached;
+  }
+
+  private CachedFeature decode(Feature feature) {
+    Geometry geometry = Geometry.fromGeoJson(feature.getGeometry());
+    return new CachedFeature(geometry, feature.getProperties(),
+        Math.max(1, geometry.getVertexCount()), clock.nanoTime() + expireAfterWriteNanos);
+  }
+
+  /**
+   * Removes the features provided from the cache.
+   * @param tableId  The ID of the table holding the features
+   * @param featureIds  The IDs of the features to remove
+   */
+  public void invalidate(String tableId, Collection<String> featureIds) {
+    for (String featureId : featureIds) {
+      Key key = new Key(tableId, featureId);
+      segmentFor(key).invalidate(key);
+    }
+  }
+
+  /**
+   * Removes the features patched by a {@code batchPatch} request, identified by their
+   * {@code gx_id} property.  Tables using a custom primary key should call
+   * {@link #invalidate(String, java.util.Collection)} with the keys instead.
+   * @param tableId  The ID of the table being patched
+   * @param request  The request body sent to the API
+   */
+  public void invalidate(String tableId, FeaturesBatchPatchRequest request) {
+    if (request.getFeatures() == null) {
+      return;
+    }
+    for (Feature feature : request.getFeatures()) {
+      Object gxId = feature.getProperties() == null ? null : feature.getProperties().get("gx_id");
+      if (gxId != null) {
+        Key key = new Key(tableId, gxId.toString());
+        segmentFor(key).invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Removes the features deleted by a {@code batchDelete} request.
+   * @param tableId  The ID of the table being deleted from
+   * @param request  The request body sent to the API
+   */
+  public void invalidate(String tableId, FeaturesBatchDeleteRequest request) {
+    if (request.getGxIds() != null) {
+      invalidate(tableId, request.getGxIds());
+    }
+    if (request.getPrimaryKeys() != null) {
+      invalidate(tableId, request.getPrimaryKeys());
+    }
+  }
+
+  /**
+   * Removes all of the features cached for a table.
+   * @param tableId  The ID of the table
+   */
+  public void invalidateTable(String tableId) {
+    for (Segment segment : segments) {
+      segment.removeTable(tableId);
+    }
+  }
+
+  /** Removes all cached features. */
+  public void invalidateAll() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /** Returns the total number of vertices currently cached. */
+  public long getVertexCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.getWeight();
+    }
+    return count;
+  }
+
+  /** Returns the number of lookups that found a cached feature. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of lookups that did not find a cached feature. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  private Segment segmentFor(Key key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return segments[hash & (segments.length - 1)];
+  }
+
+  /** A decoded feature, as cached. */
+  public static final class CachedFeature extends TypedFeature {
+    final int weight;
+    final long expiresAt;
+
+    CachedFeature(Geometry geometry, Map<String, Object> properties, int weight,
+        long expiresAt) {
+      super(geometry, properties);
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** A table and feature ID pair. */
+  static final class Key {
+    final String tableId;
+    final String featureId;
+
+    Key(String tableId, String featureId) {
+      if (tableId == null || featureId == null) {
+        throw new IllegalArgumentException("Table and feature IDs are required");
+      }
+      this.tableId = tableId;
+      this.featureId = featureId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return tableId.equals(other.tableId) && featureId.equals(other.featureId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * tableId.hashCode() + featureId.hashCode();
+    }
+  }
+
+  /** One independently locked portion of the cache, with its own frequency sketch. */
+  private static final class Segment {
+    private final long maxWeight;
+    private final LinkedHashMap<Key, CachedFeature> entries =
+        new LinkedHashMap<Key, CachedFeature>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long weight;
+    // bumped by every invalidation, so fetches that overlap one aren't cached
+    private long generation;
+
+    Segment(long maxWeight) {
+      this.maxWeight = maxWeight;
+      // assume a handful of vertices per feature when sizing the sketch
+      this.sketch = new FrequencySketch((int) Math.min(1 << 14, Math.max(16, maxWeight / 8)));
+    }
+
+    synchronized CachedFeature get(Key key, long now) {
+      sketch.increment(key);
+      CachedFeature cached = entries.get(key);
+      if (cached != null && cached.expiresAt - now <= 0) {
+        remove(key);
+        return null;
+      }
+      return cached;
+    }
+
+    synchronized void put(Key key, CachedFeature cached, long now) {
+      remove(key);
+      int candidateWeight = cached.weight;
+      if (candidateWeight > maxWeight) {
+        return;
+      }
+
+      // find the eldest entries to make room, but only displace each one for a feature that's
+      // been more popular lately
+      int candidateFrequency = sketch.frequency(key);
+      int victimCount = 0;
+      long freedWeight = 0;
+      Iterator<Map.Entry<Key, CachedFeature>> eldest = entries.entrySet().iterator();
+      while (weight - freedWeight + candidateWeight > maxWeight && eldest.hasNext()) {
+        Map.Entry<Key, CachedFeature> victim = eldest.next();
+        if (victim.getValue().expiresAt - now > 0
+            && candidateFrequency <= sketch.frequency(victim.getKey())) {
+          return;
+        }
+        freedWeight += victim.getValue().weight;
+        victimCount++;
+      }
+      eldest = entries.entrySet().iterator();
+      for (int i = 0; i < victimCount; i++) {
+        weight -= eldest.next().getValue().weight;
+        eldest.remove();
+      }
+
+      entries.put(key, cached);
+      weight += candidateWeight;
+    }
+
+    synchronized void putIfNotInvalidated(Key key, CachedFeature cached, long now,
+        long fetchGeneration) {
+      if (generation == fetchGeneration) {
+        put(key, cached, now);
+      }
+    }
+
+    synchronized void invalidate(Key key) {
+      generation++;
+      remove(key);
+    }
+
+    synchronized void remove(Key key) {
+      CachedFeature previous = entries.remove(key);
+      if (previous != null) {
+        weight -= previous.weight;
+      }
+    }
+
+    synchronized void removeTable(String tableId) {
+      generation++;
+      Iterator<Map.Entry<Key, CachedFeature>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Key, CachedFeature> entry = it.next();
+        if (entry.getKey().tableId.equals(tableId)) {
+          weight -= entry.getValue().weight;
+          it.remove();
+        }
+      }
+    }
+
+    synchronized void clear() {
+      generation++;
+      entries.clear();
+      weight = 0;
+    }
+
+    synchronized long getWeight() {
+      return weight;
+    }
+
+    synchronized long getGeneration() {
+      return generation;
+    }
+  }
+}
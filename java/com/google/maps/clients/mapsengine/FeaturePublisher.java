@@ -0,0 +1,184 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.FeaturesListResponse;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the features of a table, decoded, to a Reactive Streams {@link Subscriber}.  Pages
+ * are only fetched when the subscriber has asked for more features than are left in the current
+ * page, so no more than one page is held in memory however large the table is.
+ *
+ * {@code MapsEngine.Tables.Features.List request = engine.tables().features().list(TABLE_ID)
+ *     .setMaxResults(1000L);
+ * new FeaturePublisher(request).subscribe(new BatchInsertSubscriber(engine, COPY_TABLE_ID));
+ * }
+ *
+ * The list request is used to page through the table, so a publisher can only be subscribed to
+ * once.  Features are fetched and delivered on the thread that requests them, unless an
+ * {@link Executor} is provided.
+ */
+public class FeaturePublisher implements Publisher<TypedFeature> {
+
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private final MapsEngine.Tables.Features.List request;
+  private final Executor executor;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  /**
+   * Creates a publisher that fetches features on the subscriber's thread.
+   * @param request  The features.list request to page through
+   */
+  public FeaturePublisher(MapsEngine.Tables.Features.List request) {
+    this(request, DIRECT_EXECUTOR);
+  }
+
+  /**
+   * Creates a publisher that fetches and delivers features using the executor provided.
+   * @param request  The features.list request to page through
+   * @param executor  The executor to fetch and deliver features on
+   */
+  public FeaturePublisher(MapsEngine.Tables.Features.List request, Executor executor) {
+    this.request = request;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super TypedFeature> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber must not be null");
+    }
+    if (!subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      subscriber.onError(
+          new IllegalStateException("A FeaturePublisher can only be subscribed to once"));
+      return;
+    }
+    subscriber.onSubscribe(new PagingSubscription(subscriber));
+  }
+
+  /**
+   * Delivers features as they're requested.  Delivery is serialized by the work-in-progress
+   * counter, so only one thread drains at a time and a subscriber requesting more from inside
+   * {@code onNext} doesn't recurse.
+   */
+  private class PagingSubscription implements Subscription, Runnable {
+    private final Subscriber<? super TypedFeature> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger workInProgress = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean invalidRequest;
+
+    // only used by the draining thread
+    private Iterator<Feature> page = Collections.<Feature>emptyList().iterator();
+    private boolean fetched;
+    private String nextPageToken;
+    private boolean done;
+
+    PagingSubscription(Subscriber<? super TypedFeature> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = true;
+      } else {
+        long current;
+        long next;
+        do {
+          current = demand.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!demand.compareAndSet(current, next));
+      }
+      if (workInProgress.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        drain();
+        missed = workInProgress.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drain() {
+      while (!done && !cancelled) {
+        if (invalidRequest) {
+          fail(new IllegalArgumentException("Subscribers must request a positive number of items"));
+        } else if (page.hasNext()) {
+          if (demand.get() == 0) {
+            return;
+          }
+          TypedFeature feature;
+          try {
+            feature = TypedFeature.fromFeature(page.next());
+          } catch (IllegalArgumentException e) {
+            fail(e);
+            return;
+          }
+          if (demand.get() != Long.MAX_VALUE) {
+            demand.decrementAndGet();
+          }
+          subscriber.onNext(feature);
+        } else if (!fetched || nextPageToken != null) {
+          if (demand.get() == 0) {
+            return;
+          }
+          try {
+            FeaturesListResponse response = request.setPageToken(nextPageToken).execute();
+            fetched = true;
+            nextPageToken = response.getNextPageToken();
+            if (response.getFeatures() != null) {
+              page = response.getFeatures().iterator();
+            }
+          } catch (IOException e) {
+            fail(e);
+          }
+        } else {
+          done = true;
+          subscriber.onComplete();
+        }
+      }
+    }
+
+    private void fail(Throwable t) {
+      done = true;
+      subscriber.onError(t);
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.util.escape.CharEscapers;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.FeaturesListResponse;
+import com.google.maps.clients.AsyncRequestExecutor;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs features.list queries that have been split to keep their URLs short, in parallel, and
+ * merges their results as a stream.
+ */
+final class FeatureQueries {
+
+  /** The most queries paged through at once by a subscriber. */
+  static final int MAX_OPEN_QUERIES = 8;
+
+  // room left in each URL for the page token of later pages
+  private static final int PAGE_TOKEN_ALLOWANCE = 200;
+
+  private FeatureQueries() {}
+
+  /**
+   * Returns the length of a features.list URL with an empty where clause, leaving room for a
+   * page token.  The escaped length of a clause is added to this to find its URL's length.
+   */
+  static int emptyUrlLength(MapsEngine engine, String tableId) throws IOException {
+    return engine.tables().features().list(tableId).setWhere("").setPageToken("")
+        .buildHttpRequestUrl().build().length() + PAGE_TOKEN_ALLOWANCE;
+  }
+
+  /** Returns the length of the text once escaped for a URL's query. */
+  static int escapedLength(String text) {
+    return CharEscapers.escapeUriQuery(text).length();
+  }
+
+  /**
+   * Returns a publisher of the features matching any of the where clauses, in the order of the
+   * clauses that found them.  A feature matched by more than one clause is only delivered once,
+   * by its {@code gx_id}, so the IDs delivered are remembered, but features themselves are not:
+   * up to {@value #MAX_OPEN_QUERIES} queries are paged through at once, and a query's next page
+   * is only fetched once its last has been delivered.  Each subscriber runs the queries afresh.
+   */
+  static Publisher<TypedFeature> publish(final MapsEngine engine, final String tableId,
+      final AsyncRequestExecutor executor, final List<String> whereClauses) {
+    return new Publisher<TypedFeature>() {
+      @Override
+      public void subscribe(Subscriber<? super TypedFeature> subscriber) {
+        if (subscriber == null) {
+          throw new NullPointerException("Subscriber must not be null");
+        }
+        subscriber.onSubscribe(
+            new MergedSubscription(engine, tableId, executor, whereClauses, subscriber));
+      }
+    };
+  }
+
+  /**
+   * Lists every feature the publisher delivers, waiting for them all.
+   * @throws IOException when a query fails, after any retries
+   * @throws IllegalArgumentException when a feature's geometry is of an unknown type
+   */
+  static List<Feature> listAll(Publisher<TypedFeature> publisher) throws IOException {
+    final List<Feature> features = new ArrayList<Feature>();
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicReference<Subscription> subscription = new AtomicReference<Subscription>();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    publisher.subscribe(new Subscriber<TypedFeature>() {
+      @Override
+      public void onSubscribe(Subscription s) {
+        subscription.set(s);
+        s.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(TypedFeature feature) {
+        features.add(feature.asFeature());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        failure.set(t);
+        done.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+    });
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      subscription.get().cancel();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for features");
+    }
+
+    Throwable t = failure.get();
+    if (t instanceof IOException) {
+      throw (IOException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t != null) {
+      throw new IOException("Couldn't list features: " + t.getMessage(), t);
+    }
+    return features;
+  }
+
+  /**
+   * Delivers the features of each query in turn, as they're requested.  Queries call back on the
+   * executor's threads, so delivery is serialized by the work-in-progress counter: whichever
+   * thread finds it at zero drains, and the others leave their work to it.
+   */
+  private static class MergedSubscription implements Subscription {
+    private final MapsEngine engine;
+    private final String tableId;
+    private final AsyncRequestExecutor executor;
+    private final List<String> whereClauses;
+    private final Subscriber<? super TypedFeature> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger workInProgress = new AtomicInteger();
+    private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+    private volatile boolean cancelled;
+    private volatile boolean invalidRequest;
+
+    // only used by the draining thread
+    private final Deque<Query> open = new ArrayDeque<Query>();
+    private final Set<Object> ids = new HashSet<Object>();
+    private int nextClause;
+    private boolean done;
+
+    MergedSubscription(MapsEngine engine, String tableId, AsyncRequestExecutor executor,
+        List<String> whereClauses, Subscriber<? super TypedFeature> subscriber) {
+      this.engine = engine;
+      this.tableId = tableId;
+      this.executor = executor;
+      this.whereClauses = whereClauses;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = true;
+      } else {
+        long current;
+        long next;
+        do {
+          current = demand.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!demand.compareAndSet(current, next));
+      }
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /** Drains on this thread, unless another thread is draining already. */
+    void signal() {
+      if (workInProgress.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        drain();
+        missed = workInProgress.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drain() {
+      while (!done && !cancelled) {
+        if (invalidRequest) {
+          fail(new IllegalArgumentException(
+              "Subscribers must request a positive number of items"));
+          return;
+        } else if (failure.get() != null) {
+          fail(failure.get());
+          return;
+        } else if (open.isEmpty() && nextClause == whereClauses.size()) {
+          done = true;
+          subscriber.onComplete();
+          return;
+        } else if (demand.get() == 0) {
+          return;
+        }
+        // queries are opened on demand, so nothing is fetched before it's asked for
+        while (open.size() < MAX_OPEN_QUERIES && nextClause < whereClauses.size()) {
+          Query query = new Query(whereClauses.get(nextClause++));
+          open.add(query);
+          query.fetch(null);
+        }
+
+        Query query = open.peek();
+        Iterator<Feature> page = query.page;
+        if (page == null) {
+          // waiting for the page to arrive
+          return;
+        } else if (page.hasNext()) {
+          Feature feature = page.next();
+          Map<String, Object> properties = feature.getProperties();
+          Object gxId = properties == null ? null : properties.get("gx_id");
+          if (gxId != null && !ids.add(gxId)) {
+            continue;
+          }
+          TypedFeature typed;
+          try {
+            typed = TypedFeature.fromFeature(feature);
+          } catch (IllegalArgumentException e) {
+            fail(e);
+            return;
+          }
+          if (demand.get() != Long.MAX_VALUE) {
+            demand.decrementAndGet();
+          }
+          subscriber.onNext(typed);
+        } else if (query.nextPageToken != null) {
+          query.page = null;
+          query.fetch(query.nextPageToken);
+        } else {
+          open.poll();
+        }
+      }
+      if (cancelled) {
+        open.clear();
+      }
+    }
+
+    private void fail(Throwable t) {
+      done = true;
+      open.clear();
+      subscriber.onError(t);
+    }
+
+    /** Pages through the features matching one where clause, a page at a time. */
+    private class Query implements AsyncRequestExecutor.Callback<FeaturesListResponse> {
+      private final String where;
+      // the page waiting to be delivered, or null while it's fetched
+      volatile Iterator<Feature> page;
+      String nextPageToken;
+
+      Query(String where) {
+        this.where = where;
+      }
+
+      void fetch(String pageToken) {
+        try {
+          executor.submit(engine.tables().features().list(tableId).setWhere(where)
+              .setPageToken(pageToken), this);
+        } catch (IOException e) {
+          onFailure(e);
+        } catch (RuntimeException e) {
+          onFailure(new IOException("Couldn't send a query: " + e.getMessage(), e));
+        }
+      }
+
+      @Override
+      public void onSuccess(FeaturesListResponse response) {
+        List<Feature> features = response.getFeatures();
+        // written before the page, which publishes it to the draining thread
+        nextPageToken = response.getNextPageToken();
+        page = features == null
+            ? Collections.<Feature>emptyList().iterator() : features.iterator();
+        signal();
+      }
+
+      @Override
+      public void onFailure(IOException e) {
+        failure.compareAndSet(null, e);
+        signal();
+      }
+    }
+  }
+}
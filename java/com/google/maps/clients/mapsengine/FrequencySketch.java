@@ -0,0 +1,76 @@
+package com.google.maps.clients.mapsengine;
+
+/**
+ * A count-min sketch estimating how often keys have been seen recently, used as a TinyLFU
+ * admission filter.  Counters saturate at 15 and are all halved once the number of recorded
+ * events reaches ten times the table size, so old popularity fades.  Not thread-safe.
+ */
+class FrequencySketch {
+
+  private static final int MAX_COUNT = 15;
+  private static final int[] SEEDS = {0x97cb3127, 0x3c6ef372, 0xb7e15163, 0x7f4a7c15};
+
+  private final int[] table;
+  private final int mask;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   * Creates a sketch suitable for tracking roughly {@code expectedKeys} distinct keys.
+   * @param expectedKeys  The number of keys expected to be live at any time
+   */
+  FrequencySketch(int expectedKeys) {
+    int size = 16;
+    while (size < expectedKeys && size < (1 << 24)) {
+      size <<= 1;
+    }
+    table = new int[size];
+    mask = size - 1;
+    sampleSize = 10 * size;
+  }
+
+  /** Records an occurrence of the key. */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int seed : SEEDS) {
+      int index = indexOf(hash, seed);
+      if (table[index] < MAX_COUNT) {
+        table[index]++;
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /** Returns the estimated number of recent occurrences of the key. */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int frequency = MAX_COUNT;
+    for (int seed : SEEDS) {
+      frequency = Math.min(frequency, table[indexOf(hash, seed)]);
+    }
+    return frequency;
+  }
+
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] >>>= 1;
+    }
+    additions /= 2;
+  }
+
+  private int indexOf(int hash, int seed) {
+    int h = (hash ^ seed) * 0x9e3779b9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  private static int spread(int hash) {
+    hash ^= (hash >>> 17);
+    hash *= 0xed5ad4bb;
+    hash ^= (hash >>> 11);
+    return hash;
+  }
+}
@@ -0,0 +1,142 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.maps.clients.AsyncRequestExecutor;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lists the features of a table whose column has any of a set of values, however many values
+ * there are.  A where clause listing thousands of values would make a URL too long for the API,
+ * so the values are escaped and split into as few {@code column IN (...)} queries as fit, which
+ * are run in parallel and their pages merged into one stream.
+ *
+ * {@code AsyncRequestExecutor executor = new AsyncRequestExecutor(8);
+ * InListQuery query = new InListQuery(engine, TABLE_ID, "region", executor);
+ * query.publish(regionIds).subscribe(new BatchInsertSubscriber(engine, REGION_TABLE_ID));
+ * }
+ *
+ * Queries are sent on the executor, so rate limit back-off set by the client's initializer (see
+ * {@link com.google.maps.clients.BackOffWhenRateLimitedRequestInitializer}) is waited out
+ * without holding a thread, and the executor's threads bound how many queries are in transit.
+ * A feature matched by more than one query is only returned once, by its {@code gx_id}.
+ */
+public class InListQuery {
+
+  /** The longest URL sent, unless otherwise specified. */
+  public static final int DEFAULT_MAX_URL_LENGTH = 2048;
+
+  // ", " between values, once escaped
+  private static final int SEPARATOR_LENGTH = FeatureQueries.escapedLength(", ");
+
+  private final MapsEngine engine;
+  private final String tableId;
+  private final String column;
+  private final AsyncRequestExecutor executor;
+  private final int maxUrlLength;
+
+  /**
+   * Creates a query that keeps its URLs within {@value #DEFAULT_MAX_URL_LENGTH} characters.
+   * @param engine  The API client to query with
+   * @param tableId  The ID of the table to query
+   * @param column  The column to match values against
+   * @param executor  The executor to send queries on
+   */
+  public InListQuery(MapsEngine engine, String tableId, String column,
+      AsyncRequestExecutor executor) {
+    this(engine, tableId, column, executor, DEFAULT_MAX_URL_LENGTH);
+  }
+
+  /**
+   * Creates a query.
+   * @param engine  The API client to query with
+   * @param tableId  The ID of the table to query
+   * @param column  The column to match values against
+   * @param executor  The executor to send queries on
+   * @param maxUrlLength  The longest URL to send
+   */
+  public InListQuery(MapsEngine engine, String tableId, String column,
+      AsyncRequestExecutor executor, int maxUrlLength) {
+    this.engine = engine;
+    this.tableId = tableId;
+    this.column = column;
+    this.executor = executor;
+    this.maxUrlLength = maxUrlLength;
+  }
+
+  /**
+   * Returns the where clauses that between them match all of the values, each short enough to
+   * send.  Values are escaped as they are by {@link WhereTemplate}, and repeated values dropped.
+   * @param values  The values to match, each a String, Number, Boolean or Date
+   * @throws IllegalArgumentException when a value can't be bound, or is too long to fit in a URL
+   *     on its own
+   */
+  public List<String> getWhereClauses(Collection<?> values) throws IOException {
+    Set<String> literals = new LinkedHashSet<String>();
+    for (Object value : values) {
+      literals.add(WhereTemplate.literal(value));
+    }
+    String prefix = column + " IN (";
+    // the length of a query for no values, to which each value's escaped length is added
+    int emptyLength = FeatureQueries.emptyUrlLength(engine, tableId)
+        + FeatureQueries.escapedLength(prefix + ")");
+
+    List<String> clauses = new ArrayList<String>();
+    StringBuilder clause = new StringBuilder(prefix);
+    int length = emptyLength;
+    for (String literal : literals) {
+      int literalLength = FeatureQueries.escapedLength(literal);
+      if (emptyLength + literalLength > maxUrlLength) {
+        throw new IllegalArgumentException("Value too long to query for: " + literal);
+      }
+      boolean first = clause.length() == prefix.length();
+      if (!first && length + SEPARATOR_LENGTH + literalLength > maxUrlLength) {
+        clauses.add(clause.append(')').toString());
+        clause.setLength(prefix.length());
+        length = emptyLength;
+        first = true;
+      }
+      if (!first) {
+        clause.append(", ");
+        length += SEPARATOR_LENGTH;
+      }
+      clause.append(literal);
+      length += literalLength;
+    }
+    if (clause.length() > prefix.length()) {
+      clauses.add(clause.append(')').toString());
+    }
+    return clauses;
+  }
+
+  /**
+   * Returns a publisher of the features matching any of the values, in the order of the queries
+   * that found them.  Each subscriber runs the queries afresh, a few at a time, holding no more
+   * than a page of each; a query's next page is only fetched once its last has been delivered.
+   * @param values  The values to match, each a String, Number, Boolean or Date
+   * @throws IllegalArgumentException when a value can't be bound, or is too long to fit in a URL
+   *     on its own
+   */
+  public Publisher<TypedFeature> publish(Collection<?> values) throws IOException {
+    return FeatureQueries.publish(engine, tableId, executor, getWhereClauses(values));
+  }
+
+  /**
+   * Lists the features matching any of the values, waiting for every page of every query.
+   * Features are returned in the order of the queries that found them.  Every feature is held
+   * in memory, so {@link #publish} suits queries that match many.
+   * @param values  The values to match, each a String, Number, Boolean or Date
+   * @throws IOException when a query fails, after any retries
+   */
+  public List<Feature> list(Collection<?> values) throws IOException {
+    return FeatureQueries.listAll(publish(values));
+  }
+}
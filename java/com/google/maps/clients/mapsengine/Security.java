@@ -1,7 +1,5 @@
 package com.google.maps.clients.mapsengine;
 
-import java.util.regex.Matcher;
-
 /**
  * Provides some security tools for manipulating data in Maps Engine.
  *
@@ -30,10 +28,25 @@ public class Security {
       return null;
     }
 
-    String out = in
-        .replaceAll("\\\\", Matcher.quoteReplacement("\\\\"))
-        .replaceAll("'", Matcher.quoteReplacement("\\'"));
+    // room for the quotes, and a few escapes
+    return appendEscapedAndQuoted(new StringBuilder(in.length() + 8), in).toString();
+  }
 
-    return "'" + out + "'";
+  /**
+   * Appends the escaped and quoted string to the buffer, in a single pass.
+   * @param out  The buffer to append to
+   * @param in  A string to escape, not null
+   * @return The buffer
+   */
+  static StringBuilder appendEscapedAndQuoted(StringBuilder out, String in) {
+    out.append('\'');
+    for (int i = 0; i < in.length(); i++) {
+      char c = in.charAt(i);
+      if (c == '\\' || c == '\'') {
+        out.append('\\');
+      }
+      out.append(c);
+    }
+    return out.append('\'');
   }
 }
@@ -0,0 +1,529 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.maps.clients.AsyncRequestExecutor;
+import com.google.maps.clients.mapsengine.geojson.Geometry;
+import com.google.maps.clients.mapsengine.geojson.GeometryCollection;
+import com.google.maps.clients.mapsengine.geojson.LineString;
+import com.google.maps.clients.mapsengine.geojson.MultiLineString;
+import com.google.maps.clients.mapsengine.geojson.MultiPoint;
+import com.google.maps.clients.mapsengine.geojson.MultiPolygon;
+import com.google.maps.clients.mapsengine.geojson.Point;
+import com.google.maps.clients.mapsengine.geojson.Polygon;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Lists the features of a table that intersect, or are within, a geometry.  The geometry is
+ * written into the where clause as compact WKT, and when that would make a URL too long for the
+ * API, the geometry is made to fit:
+ * <ol>
+ *   <li>Its co-ordinates are rounded, from {@value #DEFAULT_DECIMALS} decimal places (about a
+ *   centimetre) down to {@value #MIN_DECIMALS} (about a metre), dropping any vertices that
+ *   round to the same place as the one before.  A line or ring too small to survive rounding
+ *   is kept more precise, so it doesn't collapse to a point.</li>
+ *   <li>For an intersects query, the geometry's parts (the polygons of a MultiPolygon, say) are
+ *   split between as few queries as fit, which are run in parallel and their results merged.
+ *   This is exact, since a feature intersects a geometry if it intersects any of its parts.</li>
+ *   <li>Any polygon or line still too long is simplified, dropping the vertices that least
+ *   change its shape until it fits.</li>
+ * </ol>
+ *
+ * {@code AsyncRequestExecutor executor = new AsyncRequestExecutor(8);
+ * SpatialQuery query = new SpatialQuery(engine, TABLE_ID, executor);
+ * List<Feature> features = query.list(SpatialQuery.Predicate.INTERSECTS, suburbs);
+ * }
+ *
+ * Altitudes are ignored.  Rounded and simplified geometries are only approximations of the
+ * original, so features within a few metres of its boundary may be matched differently.
+ */
+public class SpatialQuery {
+
+  /** The number of decimal places co-ordinates are written with, when they fit. */
+  public static final int DEFAULT_DECIMALS = 7;
+  /** The fewest decimal places co-ordinates are rounded to, before simplifying. */
+  public static final int MIN_DECIMALS = 5;
+
+  private static final String GEOMETRY_FROM_TEXT = "(geometry, ST_GEOMFROMTEXT('";
+  private static final String END_GEOMETRY_FROM_TEXT = "'))";
+  private static final String COLLECTION = "GEOMETRYCOLLECTION";
+  // enough doublings of the simplification tolerance to reduce any shape to a box
+  private static final int MAX_SIMPLIFICATIONS = 64;
+  private static final long[] POWERS_OF_TEN = {
+      1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L};
+
+  /** How features are matched against the geometry. */
+  public enum Predicate {
+    /** Features that share any point with the geometry. */
+    INTERSECTS("ST_INTERSECTS"),
+    /** Features that lie entirely within the geometry. */
+    WITHIN("ST_WITHIN");
+
+    private final String function;
+
+    Predicate(String function) {
+      this.function = function;
+    }
+  }
+
+  private final MapsEngine engine;
+  private final String tableId;
+  private final AsyncRequestExecutor executor;
+  private final int maxUrlLength;
+
+  /**
+   * Creates a query that keeps its URLs within {@value InListQuery#DEFAULT_MAX_URL_LENGTH}
+   * characters.
+   * @param engine  The API client to query with
+   * @param tableId  The ID of the table to query
+   * @param executor  The executor to send queries on
+   */
+  public SpatialQuery(MapsEngine engine, String tableId, AsyncRequestExecutor executor) {
+    this(engine, tableId, executor, InListQuery.DEFAULT_MAX_URL_LENGTH);
+  }
+
+  /**
+   * Creates a query.
+   * @param engine  The API client to query with
+   * @param tableId  The ID of the table to query
+   * @param executor  The executor to send queries on
+   * @param maxUrlLength  The longest URL to send
+   */
+  public SpatialQuery(MapsEngine engine, String tableId, AsyncRequestExecutor executor,
+      int maxUrlLength) {
+    this.engine = engine;
+    this.tableId = tableId;
+    this.executor = executor;
+    this.maxUrlLength = maxUrlLength;
+  }
+
+  /**
+   * Returns a where clause matching features against the geometry, with its co-ordinates
+   * written to {@value #DEFAULT_DECIMALS} decimal places, however long it is.
+   * {@code ST_INTERSECTS(geometry, ST_GEOMFROMTEXT('POLYGON((151.2 -33.9,...))'))}
+   * @param predicate  How to match features
+   * @param geometry  The geometry to match features against
+   */
+  public static String where(Predicate predicate, Geometry geometry) {
+    return where(predicate, geometry, DEFAULT_DECIMALS);
+  }
+
+  static String where(Predicate predicate, Geometry geometry, int decimals) {
+    StringBuilder out = new StringBuilder(estimateLength(geometry, decimals) + 48);
+    // WKT has no quotes or backslashes, so is written into the literal as it is
+    appendWkt(out.append(predicate.function).append(GEOMETRY_FROM_TEXT), geometry, decimals);
+    return out.append(END_GEOMETRY_FROM_TEXT).toString();
+  }
+
+  /** Returns the geometry as WKT, with its co-ordinates rounded to the decimal places given. */
+  static String toWkt(Geometry geometry, int decimals) {
+    return appendWkt(new StringBuilder(estimateLength(geometry, decimals)), geometry, decimals)
+        .toString();
+  }
+
+  /**
+   * Returns the where clauses that between them match features against the geometry, each
+   * short enough to send.
+   * @param predicate  How to match features
+   * @param geometry  The geometry to match features against
+   * @throws IllegalArgumentException when the geometry can't be made to fit in a URL
+   */
+  public List<String> getWhereClauses(Predicate predicate, Geometry geometry)
+      throws IOException {
+    int emptyLength = FeatureQueries.emptyUrlLength(engine, tableId);
+    for (int decimals = DEFAULT_DECIMALS; decimals >= MIN_DECIMALS; decimals--) {
+      String where = where(predicate, geometry, decimals);
+      if (emptyLength + FeatureQueries.escapedLength(where) <= maxUrlLength) {
+        return Collections.singletonList(where);
+      }
+    }
+
+    List<Geometry> parts = new ArrayList<Geometry>();
+    if (predicate == Predicate.INTERSECTS) {
+      addParts(parts, geometry);
+    } else {
+      parts.add(geometry);
+    }
+    // the length of a query for an empty collection, to which each part's length is added
+    int collectionLength = emptyLength + FeatureQueries.escapedLength(predicate.function
+        + GEOMETRY_FROM_TEXT + COLLECTION + "()" + END_GEOMETRY_FROM_TEXT);
+    int separatorLength = FeatureQueries.escapedLength(",");
+
+    List<String> clauses = new ArrayList<String>();
+    List<String> group = new ArrayList<String>();
+    int length = collectionLength;
+    for (Geometry part : parts) {
+      String wkt = fit(part, maxUrlLength - collectionLength);
+      int wktLength = FeatureQueries.escapedLength(wkt);
+      if (!group.isEmpty() && length + separatorLength + wktLength > maxUrlLength) {
+        clauses.add(whereGroup(predicate, group));
+        group.clear();
+        length = collectionLength;
+      }
+      length += (group.isEmpty() ? 0 : separatorLength) + wktLength;
+      group.add(wkt);
+    }
+    clauses.add(whereGroup(predicate, group));
+    return clauses;
+  }
+
+  /**
+   * Returns a publisher of the features matching the geometry, each delivered once.  Each
+   * subscriber runs the queries afresh, holding no more than a page of each.
+   * @param predicate  How to match features
+   * @param geometry  The geometry to match features against
+   * @throws IllegalArgumentException when the geometry can't be made to fit in a URL
+   */
+  public Publisher<TypedFeature> publish(Predicate predicate, Geometry geometry)
+      throws IOException {
+    return FeatureQueries.publish(engine, tableId, executor,
+        getWhereClauses(predicate, geometry));
+  }
+
+  /**
+   * Lists the features matching the geometry, waiting for every page of every query.
+   * @param predicate  How to match features
+   * @param geometry  The geometry to match features against
+   * @throws IOException when a query fails, after any retries
+   */
+  public List<Feature> list(Predicate predicate, Geometry geometry) throws IOException {
+    return FeatureQueries.listAll(publish(predicate, geometry));
+  }
+
+  /** Returns a where clause for the parts' WKT, as a collection if there's more than one. */
+  private static String whereGroup(Predicate predicate, List<String> wkts) {
+    StringBuilder out = new StringBuilder(predicate.function).append(GEOMETRY_FROM_TEXT);
+    if (wkts.size() == 1) {
+      out.append(wkts.get(0));
+    } else {
+      out.append(COLLECTION).append('(');
+      for (int i = 0; i < wkts.size(); i++) {
+        out.append(i == 0 ? "" : ",").append(wkts.get(i));
+      }
+      out.append(')');
+    }
+    return out.append(END_GEOMETRY_FROM_TEXT).toString();
+  }
+
+  /**
+   * Returns the geometry's WKT, rounded to {@value #MIN_DECIMALS} decimal places and simplified
+   * with a growing tolerance until it fits in the length given.
+   * @throws IllegalArgumentException when the geometry can't be simplified enough
+   */
+  private static String fit(Geometry geometry, int maxLength) {
+    String wkt = toWkt(geometry, MIN_DECIMALS);
+    double tolerance = 1.0 / POWERS_OF_TEN[MIN_DECIMALS];
+    for (int i = 0; FeatureQueries.escapedLength(wkt) > maxLength; i++) {
+      if (i == MAX_SIMPLIFICATIONS) {
+        throw new IllegalArgumentException("Geometry is too large to query for, with "
+            + geometry.getVertexCount() + " vertices");
+      }
+      wkt = toWkt(simplify(geometry, tolerance), MIN_DECIMALS);
+      tolerance *= 2;
+    }
+    return wkt;
+  }
+
+  /** Adds the parts a feature may intersect instead of the whole geometry. */
+  private static void addParts(List<Geometry> parts, Geometry geometry) {
+    if (geometry instanceof MultiPoint) {
+      parts.addAll(((MultiPoint) geometry).getPoints());
+    } else if (geometry instanceof MultiLineString) {
+      parts.addAll(((MultiLineString) geometry).getLines());
+    } else if (geometry instanceof MultiPolygon) {
+      parts.addAll(((MultiPolygon) geometry).getPolygons());
+    } else if (geometry instanceof GeometryCollection) {
+      for (Geometry child : ((GeometryCollection) geometry).getGeometries()) {
+        addParts(parts, child);
+      }
+    } else {
+      parts.add(geometry);
+    }
+  }
+
+  private static int estimateLength(Geometry geometry, int decimals) {
+    // two co-ordinates of up to 4 digits, a point and the decimals, and the punctuation
+    return geometry.getVertexCount() * (2 * decimals + 12) + 16;
+  }
+
+  private static StringBuilder appendWkt(StringBuilder out, Geometry geometry, int decimals) {
+    if (geometry instanceof Point) {
+      appendPoints(out.append("POINT("), Collections.singletonList((Point) geometry), decimals, 1)
+          .append(')');
+    } else if (geometry instanceof MultiPoint) {
+      appendPoints(out.append("MULTIPOINT("), ((MultiPoint) geometry).getPoints(), decimals, 1)
+          .append(')');
+    } else if (geometry instanceof LineString) {
+      appendPoints(out.append("LINESTRING("), ((LineString) geometry).getPoints(), decimals, 2)
+          .append(')');
+    } else if (geometry instanceof MultiLineString) {
+      out.append("MULTILINESTRING(");
+      List<LineString> lines = ((MultiLineString) geometry).getLines();
+      for (int i = 0; i < lines.size(); i++) {
+        out.append(i == 0 ? "(" : ",(");
+        appendPoints(out, lines.get(i).getPoints(), decimals, 2).append(')');
+      }
+      out.append(')');
+    } else if (geometry instanceof Polygon) {
+      appendRings(out.append("POLYGON"), ((Polygon) geometry).getPoints(), decimals);
+    } else if (geometry instanceof MultiPolygon) {
+      out.append("MULTIPOLYGON(");
+      List<Polygon> polygons = ((MultiPolygon) geometry).getPolygons();
+      for (int i = 0; i < polygons.size(); i++) {
+        appendRings(out.append(i == 0 ? "" : ","), polygons.get(i).getPoints(), decimals);
+      }
+      out.append(')');
+    } else if (geometry instanceof GeometryCollection) {
+      List<Geometry> geometries = ((GeometryCollection) geometry).getGeometries();
+      if (geometries.isEmpty()) {
+        return out.append(COLLECTION).append(" EMPTY");
+      }
+      out.append(COLLECTION).append('(');
+      for (int i = 0; i < geometries.size(); i++) {
+        appendWkt(out.append(i == 0 ? "" : ","), geometries.get(i), decimals);
+      }
+      out.append(')');
+    } else {
+      throw new IllegalArgumentException("Geometry type is not known: " + geometry.getClass());
+    }
+    return out;
+  }
+
+  private static void appendRings(StringBuilder out, List<List<Point>> rings, int decimals) {
+    out.append('(');
+    for (int i = 0; i < rings.size(); i++) {
+      out.append(i == 0 ? "(" : ",(");
+      appendPoints(out, rings.get(i), decimals, 4).append(')');
+    }
+    out.append(')');
+  }
+
+  /**
+   * Appends the points' longitudes and latitudes, rounded, leaving out any point that rounds to
+   * the same place as the one before.  A line or ring that would collapse, with fewer than the
+   * minimum points or, for a ring, no area, is written to more decimal places until it doesn't.
+   * One too small even at {@value #DEFAULT_DECIMALS} places is written as the smallest line or
+   * box around it at the decimal places asked for.
+   */
+  private static StringBuilder appendPoints(StringBuilder out, List<Point> points, int decimals,
+      int minPoints) {
+    for (int places = decimals; places < POWERS_OF_TEN.length; places++) {
+      long[] rounded = round(points, places);
+      if (!isCollapsed(rounded, minPoints)) {
+        return appendCoordinates(out, rounded, places);
+      }
+    }
+    return appendCoordinates(out, boundingShape(points, decimals, minPoints), decimals);
+  }
+
+  /** Returns the points' rounded co-ordinates, without repeating any place twice in a row. */
+  private static long[] round(List<Point> points, int decimals) {
+    long scale = POWERS_OF_TEN[decimals];
+    long[] rounded = new long[points.size() * 2];
+    int length = 0;
+    for (Point point : points) {
+      long x = Math.round(point.longitude * scale);
+      long y = Math.round(point.latitude * scale);
+      if (length == 0 || x != rounded[length - 2] || y != rounded[length - 1]) {
+        rounded[length++] = x;
+        rounded[length++] = y;
+      }
+    }
+    return Arrays.copyOf(rounded, length);
+  }
+
+  /** Returns true if the rounded points are too few, or for a ring, all in a line. */
+  private static boolean isCollapsed(long[] rounded, int minPoints) {
+    if (rounded.length < minPoints * 2) {
+      return true;
+    } else if (minPoints < 4) {
+      return false;
+    }
+    // in doubles, since the products of co-ordinates in units of 10^-7 degrees overflow a long
+    double dx = rounded[2] - rounded[0];
+    double dy = rounded[3] - rounded[1];
+    for (int i = 4; i < rounded.length; i += 2) {
+      if (dx * (rounded[i + 1] - rounded[1]) != dy * (rounded[i] - rounded[0])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the rounded co-ordinates of a box around the points, or for a line its diagonal, at
+   * least one unit of the last decimal place across.
+   */
+  private static long[] boundingShape(List<Point> points, int decimals, int minPoints) {
+    long scale = POWERS_OF_TEN[decimals];
+    double south = 90;
+    double west = 180;
+    double north = -90;
+    double east = -180;
+    for (Point point : points) {
+      south = Math.min(south, point.latitude);
+      west = Math.min(west, point.longitude);
+      north = Math.max(north, point.latitude);
+      east = Math.max(east, point.longitude);
+    }
+    long x0 = (long) Math.floor(west * scale);
+    long y0 = (long) Math.floor(south * scale);
+    long x1 = Math.max((long) Math.ceil(east * scale), x0 + 1);
+    long y1 = Math.max((long) Math.ceil(north * scale), y0 + 1);
+    return minPoints < 4 ? new long[] {x0, y0, x1, y1}
+        : new long[] {x0, y0, x1, y0, x1, y1, x0, y1, x0, y0};
+  }
+
+  /** Appends rounded longitude and latitude pairs. */
+  private static StringBuilder appendCoordinates(StringBuilder out, long[] rounded,
+      int decimals) {
+    for (int i = 0; i < rounded.length; i += 2) {
+      appendRounded(out.append(i == 0 ? "" : ","), rounded[i], decimals).append(' ');
+      appendRounded(out, rounded[i + 1], decimals);
+    }
+    return out;
+  }
+
+  /** Appends a rounded co-ordinate without trailing zeros, e.g. 1512000 to 5 places as 15.12. */
+  private static StringBuilder appendRounded(StringBuilder out, long rounded, int decimals) {
+    if (rounded < 0) {
+      out.append('-');
+      rounded = -rounded;
+    }
+    long scale = POWERS_OF_TEN[decimals];
+    out.append(rounded / scale);
+    long fraction = rounded % scale;
+    if (fraction != 0) {
+      int digits = decimals;
+      while (fraction % 10 == 0) {
+        fraction /= 10;
+        digits--;
+      }
+      out.append('.');
+      for (long place = POWERS_OF_TEN[digits - 1]; place > fraction; place /= 10) {
+        out.append('0');
+      }
+      out.append(fraction);
+    }
+    return out;
+  }
+
+  /**
+   * Returns the geometry with the vertices dropped that move its lines by less than the
+   * tolerance, in degrees.  A ring that collapses is dropped if it's a hole, or replaced by its
+   * bounding box if it's a polygon's outer ring.
+   */
+  private static Geometry simplify(Geometry geometry, double tolerance) {
+    if (geometry instanceof LineString) {
+      return new LineString(simplify(((LineString) geometry).getPoints(), tolerance));
+    } else if (geometry instanceof MultiLineString) {
+      List<LineString> lines = new ArrayList<LineString>();
+      for (LineString line : ((MultiLineString) geometry).getLines()) {
+        lines.add((LineString) simplify(line, tolerance));
+      }
+      return new MultiLineString(lines);
+    } else if (geometry instanceof Polygon) {
+      List<List<Point>> rings = new ArrayList<List<Point>>();
+      for (List<Point> ring : ((Polygon) geometry).getPoints()) {
+        List<Point> simplified = simplify(ring, tolerance);
+        if (simplified.size() >= 4) {
+          rings.add(simplified);
+        } else if (rings.isEmpty()) {
+          rings.add(boundingBox(ring));
+        }
+      }
+      return Polygon.createMultiRingPolygon(rings);
+    } else if (geometry instanceof MultiPolygon) {
+      List<Polygon> polygons = new ArrayList<Polygon>();
+      for (Polygon polygon : ((MultiPolygon) geometry).getPolygons()) {
+        polygons.add((Polygon) simplify(polygon, tolerance));
+      }
+      return new MultiPolygon(polygons);
+    } else if (geometry instanceof GeometryCollection) {
+      List<Geometry> geometries = new ArrayList<Geometry>();
+      for (Geometry child : ((GeometryCollection) geometry).getGeometries()) {
+        geometries.add(simplify(child, tolerance));
+      }
+      return new GeometryCollection(geometries);
+    }
+    // points can't be simplified
+    return geometry;
+  }
+
+  /** Simplifies a line or ring with the Douglas-Peucker algorithm, keeping its end points. */
+  private static List<Point> simplify(List<Point> points, double tolerance) {
+    if (points.size() < 3) {
+      return points;
+    }
+    boolean[] keep = new boolean[points.size()];
+    keep[0] = true;
+    keep[points.size() - 1] = true;
+    Deque<int[]> sections = new ArrayDeque<int[]>();
+    sections.push(new int[] {0, points.size() - 1});
+    while (!sections.isEmpty()) {
+      int[] section = sections.pop();
+      Point start = points.get(section[0]);
+      Point end = points.get(section[1]);
+      int farthest = -1;
+      double farthestDistance = tolerance;
+      for (int i = section[0] + 1; i < section[1]; i++) {
+        double distance = distance(points.get(i), start, end);
+        if (distance > farthestDistance) {
+          farthest = i;
+          farthestDistance = distance;
+        }
+      }
+      if (farthest >= 0) {
+        keep[farthest] = true;
+        sections.push(new int[] {section[0], farthest});
+        sections.push(new int[] {farthest, section[1]});
+      }
+    }
+    List<Point> simplified = new ArrayList<Point>();
+    for (int i = 0; i < keep.length; i++) {
+      if (keep[i]) {
+        simplified.add(points.get(i));
+      }
+    }
+    return simplified;
+  }
+
+  /** Returns the distance from the point to the segment, in degrees. */
+  private static double distance(Point point, Point start, Point end) {
+    double dx = end.longitude - start.longitude;
+    double dy = end.latitude - start.latitude;
+    double t = 0;
+    if (dx != 0 || dy != 0) {
+      t = ((point.longitude - start.longitude) * dx + (point.latitude - start.latitude) * dy)
+          / (dx * dx + dy * dy);
+      t = Math.max(0, Math.min(1, t));
+    }
+    return Math.hypot(point.longitude - (start.longitude + t * dx),
+        point.latitude - (start.latitude + t * dy));
+  }
+
+  /** Returns a counter-clockwise ring around the points. */
+  private static List<Point> boundingBox(List<Point> points) {
+    double south = 90;
+    double west = 180;
+    double north = -90;
+    double east = -180;
+    for (Point point : points) {
+      south = Math.min(south, point.latitude);
+      west = Math.min(west, point.longitude);
+      north = Math.max(north, point.latitude);
+      east = Math.max(east, point.longitude);
+    }
+    return Arrays.asList(new Point(south, west), new Point(south, east), new Point(north, east),
+        new Point(north, west), new Point(south, west));
+  }
+}
@@ -0,0 +1,48 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.maps.clients.mapsengine.geojson.Geometry;
+
+import java.util.Map;
+
+/**
+ * A feature with its geometry decoded into one of the {@link Geometry} classes.
+ */
+public class TypedFeature {
+
+  private final Geometry geometry;
+  private final Map<String, Object> properties;
+
+  /**
+   * Creates a typed feature.
+   * @param geometry  The feature's geometry
+   * @param properties  The feature's properties
+   */
+  public TypedFeature(Geometry geometry, Map<String, Object> properties) {
+    this.geometry = geometry;
+    this.properties = properties;
+  }
+
+  /**
+   * Decodes a feature returned by the API.
+   * @param feature  The feature to decode
+   * @return The decoded feature
+   * @throws IllegalArgumentException when the geometry is of an unknown type
+   */
+  public static TypedFeature fromFeature(Feature feature) {
+    return new TypedFeature(Geometry.fromGeoJson(feature.getGeometry()), feature.getProperties());
+  }
+
+  public Geometry getGeometry() {
+    return geometry;
+  }
+
+  public Map<String, Object> getProperties() {
+    return properties;
+  }
+
+  /** Encodes this feature for sending to the API. */
+  public Feature asFeature() {
+    return geometry.asFeature(properties);
+  }
+}
@@ -0,0 +1,179 @@
+package com.google.maps.clients.mapsengine;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A where clause with {@code ?} placeholders for values, parsed once and then bound to values as
+ * often as needed.  Strings are escaped and quoted, in a single pass straight into the clause;
+ * numbers and booleans are written as they are, and dates as quoted ISO 8601 UTC times.  A
+ * collection or array is bound as a comma separated list, for {@code IN (?)}.
+ *
+ * {@code WhereTemplate byRegion = new WhereTemplate("name = ? AND region IN (?)");
+ * FeaturesListResponse response = engine.tables().features().list(TABLE_ID)
+ *     .setWhere(byRegion.bind(userInput, regionIds))
+ *     .execute();
+ * }
+ *
+ * Templates are immutable, so one can be shared between threads.
+ */
+public class WhereTemplate {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  // a guess at the length of a bound value, to size the buffer
+  private static final int VALUE_LENGTH_GUESS = 16;
+
+  private final String template;
+  // the text around each placeholder, one more than there are placeholders
+  private final String[] fragments;
+
+  /**
+   * Parses a template.  Question marks inside quoted literals aren't placeholders.
+   * @param template  The where clause, with a {@code ?} in place of each value
+   * @throws IllegalArgumentException when a quoted literal isn't closed
+   */
+  public WhereTemplate(String template) {
+    List<String> parts = new ArrayList<String>();
+    int start = 0;
+    boolean quoted = false;
+    for (int i = 0; i < template.length(); i++) {
+      char c = template.charAt(i);
+      if (quoted && c == '\\') {
+        i++;
+      } else if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && c == '?') {
+        parts.add(template.substring(start, i));
+        start = i + 1;
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("Unclosed quote in where clause: " + template);
+    }
+    parts.add(template.substring(start));
+    this.template = template;
+    this.fragments = parts.toArray(new String[parts.size()]);
+  }
+
+  /** Returns the number of placeholders in the template. */
+  public int getPlaceholderCount() {
+    return fragments.length - 1;
+  }
+
+  /**
+   * Returns the where clause with the values in place of the placeholders, in order.
+   * @param values  One value for each placeholder: a String, Number, Boolean, Date, or a
+   *     non-empty Collection or array of them
+   * @throws IllegalArgumentException when the number of values doesn't match, or a value is null,
+   *     of an unsupported type, or a number that's not finite
+   */
+  public String bind(Object... values) {
+    if (values.length != getPlaceholderCount()) {
+      throw new IllegalArgumentException("Expected " + getPlaceholderCount() + " values for \""
+          + template + "\", got " + values.length);
+    }
+    StringBuilder out = new StringBuilder(template.length() + estimateLength(values));
+    out.append(fragments[0]);
+    for (int i = 0; i < values.length; i++) {
+      appendValue(out, values[i], true);
+      out.append(fragments[i + 1]);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Returns a single value as it's written into a clause.
+   * @param value  A String, Number, Boolean or Date
+   */
+  static String literal(Object value) {
+    StringBuilder out = new StringBuilder(VALUE_LENGTH_GUESS);
+    appendValue(out, value, false);
+    return out.toString();
+  }
+
+  private static int estimateLength(Object[] values) {
+    int length = 0;
+    for (Object value : values) {
+      if (value instanceof String) {
+        length += ((String) value).length() + 2;
+      } else if (value instanceof Collection) {
+        length += ((Collection<?>) value).size() * (VALUE_LENGTH_GUESS + 2);
+      } else if (value instanceof Object[]) {
+        length += ((Object[]) value).length * (VALUE_LENGTH_GUESS + 2);
+      } else {
+        length += VALUE_LENGTH_GUESS;
+      }
+    }
+    return length;
+  }
+
+  private static void appendValue(StringBuilder out, Object value, boolean listAllowed) {
+    if (value instanceof String) {
+      Security.appendEscapedAndQuoted(out, (String) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        throw new IllegalArgumentException("Can't bind a number that isn't finite: " + value);
+      }
+      String written = value.toString();
+      // very large and small numbers are written with an exponent, e.g. 1.0E10, so spell them out
+      out.append(written.indexOf('E') < 0
+          ? written : new BigDecimal(written).stripTrailingZeros().toPlainString());
+    } else if (value instanceof BigDecimal) {
+      out.append(((BigDecimal) value).toPlainString());
+    } else if (value instanceof Number || value instanceof Boolean) {
+      out.append(value);
+    } else if (value instanceof Date) {
+      appendDate(out, (Date) value);
+    } else if (listAllowed && value instanceof Object[]) {
+      appendList(out, Arrays.asList((Object[]) value));
+    } else if (listAllowed && value instanceof Collection) {
+      appendList(out, (Collection<?>) value);
+    } else if (value == null) {
+      throw new IllegalArgumentException("Can't bind null, use IS NULL in the template instead");
+    } else {
+      throw new IllegalArgumentException("Can't bind a " + value.getClass().getName());
+    }
+  }
+
+  private static void appendList(StringBuilder out, Collection<?> values) {
+    if (values.isEmpty()) {
+      throw new IllegalArgumentException("Can't bind an empty list");
+    }
+    boolean first = true;
+    for (Object value : values) {
+      if (!first) {
+        out.append(", ");
+      }
+      appendValue(out, value, false);
+      first = false;
+    }
+  }
+
+  /** Appends the date as a quoted UTC time, e.g. {@code '2014-06-30T23:59:59Z'}. */
+  private static void appendDate(StringBuilder out, Date date) {
+    Calendar calendar = Calendar.getInstance(UTC);
+    calendar.setTime(date);
+    out.append('\'').append(calendar.get(Calendar.YEAR)).append('-');
+    appendTwoDigits(out, calendar.get(Calendar.MONTH) + 1).append('-');
+    appendTwoDigits(out, calendar.get(Calendar.DAY_OF_MONTH)).append('T');
+    appendTwoDigits(out, calendar.get(Calendar.HOUR_OF_DAY)).append(':');
+    appendTwoDigits(out, calendar.get(Calendar.MINUTE)).append(':');
+    appendTwoDigits(out, calendar.get(Calendar.SECOND)).append("Z'");
+  }
+
+  private static StringBuilder appendTwoDigits(StringBuilder out, int value) {
+    return out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
@@ -10,6 +10,8 @@ import com.google.api.services.mapsengine.model.GeoJsonMultiPolygon;
 import com.google.api.services.mapsengine.model.GeoJsonPoint;
 import com.google.api.services.mapsengine.model.GeoJsonPolygon;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -28,6 +30,57 @@ public abstract class Geometry {
    */
   public abstract Feature asFeature(Map<String, Object> properties);
 
+  /**
+   * Returns the number of co-ordinate points that make up this geometry, including the repeated
+   * closing point of each polygon ring.  By default they're counted in the geometry returned by
+   * {@link #asFeature}; the geometries in this package count them without encoding.
+   * @return the total vertex count
+   */
+  public int getVertexCount() {
+    return countVertices(asFeature(Collections.<String, Object>emptyMap()).getGeometry());
+  }
+
+  private static int countVertices(GeoJsonGeometry geoJsonGeometry) {
+    if (geoJsonGeometry instanceof GeoJsonPoint) {
+      return countPositions(((GeoJsonPoint) geoJsonGeometry).getCoordinates());
+    } else if (geoJsonGeometry instanceof GeoJsonMultiPoint) {
+      return countPositions(((GeoJsonMultiPoint) geoJsonGeometry).getCoordinates());
+    } else if (geoJsonGeometry instanceof GeoJsonLineString) {
+      return countPositions(((GeoJsonLineString) geoJsonGeometry).getCoordinates());
+    } else if (geoJsonGeometry instanceof GeoJsonMultiLineString) {
+      return countPositions(((GeoJsonMultiLineString) geoJsonGeometry).getCoordinates());
+    } else if (geoJsonGeometry instanceof GeoJsonPolygon) {
+      return countPositions(((GeoJsonPolygon) geoJsonGeometry).getCoordinates());
+    } else if (geoJsonGeometry instanceof GeoJsonMultiPolygon) {
+      return countPositions(((GeoJsonMultiPolygon) geoJsonGeometry).getCoordinates());
+    } else if (geoJsonGeometry instanceof GeoJsonGeometryCollection) {
+      int count = 0;
+      List<GeoJsonGeometry> geometries =
+          ((GeoJsonGeometryCollection) geoJsonGeometry).getGeometries();
+      if (geometries != null) {
+        for (GeoJsonGeometry geometry : geometries) {
+          count += countVertices(geometry);
+        }
+      }
+      return count;
+    }
+    return 0;
+  }
+
+  /** Counts the positions, each a list of numbers, in co-ordinates nested to any depth. */
+  private static int countPositions(List<?> coordinates) {
+    if (coordinates == null || coordinates.isEmpty()) {
+      return 0;
+    } else if (!(coordinates.get(0) instanceof List)) {
+      return 1;
+    }
+    int count = 0;
+    for (Object nested : coordinates) {
+      count += countPositions((List<?>) nested);
+    }
+    return count;
+  }
+
   /**
    * Factory method for creating geometries from known GeoJsonGeometries.
    * @param geoJsonGeometry  The API-generated GeoJSON geometry
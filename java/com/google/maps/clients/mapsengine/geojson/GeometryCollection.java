@@ -77,4 +77,18 @@ public class GeometryCollection extends Geometry {
   public List<Geometry> getGeometries() {
     return geometries;
   }
+
+  /**
+   * Returns the number of co-ordinate points that make up all of the geometries in
+   * this collection.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    int count = 0;
+    for (Geometry geometry : geometries) {
+      count += geometry.getVertexCount();
+    }
+    return count;
+  }
 }
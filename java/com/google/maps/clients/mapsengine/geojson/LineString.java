@@ -85,6 +85,15 @@ public class LineString extends Geometry {
     return points;
   }
 
+  /**
+   * Returns the number of co-ordinate points that make up this geometry.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    return points.size();
+  }
+
   List<List<Double>> toCoordinates() {
     List<List<Double>> coords = new ArrayList<List<Double>>(points.size());
     for (Point p : points) {
@@ -76,4 +76,17 @@ public class MultiLineString extends Geometry {
   public List<LineString> getLines() {
     return lineStrings;
   }
+
+  /**
+   * Returns the number of co-ordinate points that make up this geometry.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    int count = 0;
+    for (LineString line : lineStrings) {
+      count += line.getVertexCount();
+    }
+    return count;
+  }
 }
@@ -49,6 +49,15 @@ public class MultiPoint extends Geometry {
     return points;
   }
 
+  /**
+   * Returns the number of co-ordinate points that make up this geometry.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    return points.size();
+  }
+
   /**
    * Returns a Feature that can be used by the Maps Engine API.
    *
@@ -78,4 +78,17 @@ public class MultiPolygon extends Geometry {
   public List<Polygon> getPolygons() {
     return polygons;
   }
+
+  /**
+   * Returns the number of co-ordinate points that make up this geometry.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    int count = 0;
+    for (Polygon polygon : polygons) {
+      count += polygon.getVertexCount();
+    }
+    return count;
+  }
 }
@@ -146,6 +146,15 @@ public class Point extends Geometry {
     return feature;
   }
 
+  /**
+   * Returns the number of co-ordinate points that make up this geometry.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    return 1;
+  }
+
   public List<Double> toCoordinates() {
     List<Double> coords = new ArrayList<Double>();
     coords.add(longitude);
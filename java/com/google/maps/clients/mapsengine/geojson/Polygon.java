@@ -134,4 +134,18 @@ public class Polygon extends Geometry {
   public List<List<Point>> getPoints() {
     return points;
   }
+
+  /**
+   * Returns the number of co-ordinate points that make up this polygon, including the
+   * repeated closing point of each ring.
+   * @return the total vertex count
+   */
+  @Override
+  public int getVertexCount() {
+    int count = 0;
+    for (List<Point> ring : points) {
+      count += ring.size();
+    }
+    return count;
+  }
 }
@@ -0,0 +1,140 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the Maps Engine API, for load testing retry and rate limit
+ * strategies without spending real quota.  Each request takes a random time to answer, drawn
+ * from a log-normal distribution, counts against a per-second quota, and may fail with a
+ * back-end error.  Errors have the same bodies as the real API's.
+ *
+ * {@code MockMapsEngineServer server = new MockMapsEngineServer(100, 50, 400, 0.01);
+ * MapsEngine engine = new MapsEngine.Builder(server, jsonFactory, initializer).build();
+ * }
+ *
+ * Table and feature reads answer with empty resources, and any other request with an empty
+ * success.
+ */
+public class MockMapsEngineServer extends MockHttpTransport {
+
+  static final String RATE_LIMIT_EXCEEDED = "{\"error\": {\"errors\": [{"
+      + "\"domain\": \"usageLimits\", \"reason\": \"rateLimitExceeded\", "
+      + "\"message\": \"Rate Limit Exceeded\"}], "
+      + "\"code\": 403, \"message\": \"Rate Limit Exceeded\"}}";
+  static final String BACKEND_ERROR = "{\"error\": {\"errors\": [{\"domain\": \"global\", "
+      + "\"reason\": \"backendError\", \"message\": \"Backend Error\"}], "
+      + "\"code\": 503, \"message\": \"Backend Error\"}}";
+  private static final String FEATURES = "{\"type\": \"FeatureCollection\", \"features\": []}";
+  private static final String TABLE = "{\"id\": \"12345-67890\", \"name\": \"Load test\"}";
+
+  // the z-score of the 99th percentile of a normal distribution
+  private static final double Z_99 = 2.326;
+
+  private final int quotaPerSecond;
+  private final double medianMillis;
+  private final double sigma;
+  private final double serverErrorRate;
+  private final Random random = new Random();
+
+  private final AtomicLong quotaSecond = new AtomicLong();
+  private final AtomicInteger quotaUsed = new AtomicInteger();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong rateLimited = new AtomicLong();
+  private final AtomicLong serverErrors = new AtomicLong();
+
+  /**
+   * Creates a server.
+   * @param quotaPerSecond  The requests answered each second before the rest are rate limited
+   * @param medianMillis  The median time taken to answer a request
+   * @param p99Millis  The 99th percentile time taken to answer a request
+   * @param serverErrorRate  The fraction of requests, from 0 to 1, that fail with a 503
+   */
+  public MockMapsEngineServer(int quotaPerSecond, long medianMillis, long p99Millis,
+      double serverErrorRate) {
+    if (quotaPerSecond <= 0 || medianMillis < 0 || p99Millis < medianMillis) {
+      throw new IllegalArgumentException(
+          "Quota must be positive, and the 99th percentile no faster than the median");
+    }
+    this.quotaPerSecond = quotaPerSecond;
+    this.medianMillis = medianMillis;
+    this.sigma = medianMillis == 0 ? 0 : Math.log((double) p99Millis / medianMillis) / Z_99;
+    this.serverErrorRate = serverErrorRate;
+  }
+
+  @Override
+  public LowLevelHttpRequest buildRequest(final String method, final String url) {
+    return new MockLowLevelHttpRequest(url) {
+      @Override
+      public LowLevelHttpResponse execute() throws IOException {
+        requests.incrementAndGet();
+        sleep(latencyMillis());
+
+        MockLowLevelHttpResponse response =
+            new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE);
+        if (!tryAcquireQuota()) {
+          rateLimited.incrementAndGet();
+          return response.setStatusCode(403).setContent(RATE_LIMIT_EXCEEDED);
+        } else if (random.nextDouble() < serverErrorRate) {
+          serverErrors.incrementAndGet();
+          return response.setStatusCode(503).setContent(BACKEND_ERROR);
+        } else if (HttpMethods.GET.equals(method) && url.contains("/features")) {
+          return response.setContent(FEATURES);
+        } else if (HttpMethods.GET.equals(method) && url.contains("/tables/")) {
+          return response.setContent(TABLE);
+        }
+        return response.setZeroContent();
+      }
+    };
+  }
+
+  /** Returns the number of requests received, including those rejected. */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /** Returns the number of requests rejected for exceeding the quota. */
+  public long getRateLimitedCount() {
+    return rateLimited.get();
+  }
+
+  /** Returns the number of requests failed with a back-end error. */
+  public long getServerErrorCount() {
+    return serverErrors.get();
+  }
+
+  /** Counts a request against the quota for the current second, if there is any left. */
+  private boolean tryAcquireQuota() {
+    long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    long current = quotaSecond.get();
+    if (second != current && quotaSecond.compareAndSet(current, second)) {
+      quotaUsed.set(0);
+    }
+    return quotaUsed.incrementAndGet() <= quotaPerSecond;
+  }
+
+  private long latencyMillis() {
+    return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+  }
+
+  private static void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted answering a request");
+    }
+  }
+}
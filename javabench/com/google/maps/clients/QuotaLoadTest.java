@@ -0,0 +1,159 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives concurrent clients against a {@link MockMapsEngineServer} to compare retry and rate
+ * limit strategies offline, reporting the throughput each achieves, the calls it wastes on
+ * rejected or failed attempts, and the latency its callers see.
+ *
+ * {@code gradle loadTest -PloadTest.args="pause 64 30 200 0.01"}
+ *
+ * Arguments, all optional: the strategy ({@code none}, {@code backoff}, {@code pause} or
+ * {@code all}), the number of concurrent clients, the test length in seconds, the server's
+ * quota per second, and the fraction of requests that fail with a back-end error.
+ */
+public class QuotaLoadTest {
+
+  private static final String URL =
+      "https://www.googleapis.com/mapsengine/v1/tables/12345-67890/features";
+
+  private final String strategy;
+  private final int clients;
+  private final long durationMillis;
+  private final int quotaPerSecond;
+  private final double serverErrorRate;
+
+  QuotaLoadTest(String strategy, int clients, long durationMillis, int quotaPerSecond,
+      double serverErrorRate) {
+    this.strategy = strategy;
+    this.clients = clients;
+    this.durationMillis = durationMillis;
+    this.quotaPerSecond = quotaPerSecond;
+    this.serverErrorRate = serverErrorRate;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String strategy = args.length > 0 ? args[0] : "all";
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    long seconds = args.length > 2 ? Long.parseLong(args[2]) : 20;
+    int quota = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.01;
+
+    List<String> strategies = "all".equals(strategy)
+        ? Arrays.asList("none", "backoff", "pause") : Arrays.asList(strategy);
+    System.out.printf("%d clients for %ds, %d requests/s quota, %.1f%% server errors%n",
+        clients, seconds, quota, errorRate * 100);
+    System.out.printf("%-8s %10s %10s %10s %8s %8s %8s %8s%n", "strategy", "succeeded",
+        "failed", "wasted", "req/s", "p50 ms", "p99 ms", "max ms");
+    for (String name : strategies) {
+      new QuotaLoadTest(name, clients, TimeUnit.SECONDS.toMillis(seconds), quota, errorRate)
+          .run();
+    }
+  }
+
+  /** Returns the initializer for the named strategy. */
+  static HttpRequestInitializer initializerFor(String strategy) {
+    if ("none".equals(strategy)) {
+      return null;
+    } else if ("backoff".equals(strategy)) {
+      return new BackOffWhenRateLimitedRequestInitializer();
+    } else if ("pause".equals(strategy)) {
+      return new BackOffWhenRateLimitedRequestInitializer(new RateLimitPause());
+    }
+    throw new IllegalArgumentException("Unknown strategy: " + strategy);
+  }
+
+  void run() throws InterruptedException {
+    MockMapsEngineServer server = new MockMapsEngineServer(quotaPerSecond, 50, 400,
+        serverErrorRate);
+    final HttpRequestFactory factory = server.createRequestFactory(initializerFor(strategy));
+    final long deadline = System.currentTimeMillis() + durationMillis;
+    final CountDownLatch done = new CountDownLatch(clients);
+    final List<Client> results = new ArrayList<Client>(clients);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < clients; i++) {
+      final Client client = new Client();
+      results.add(client);
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            client.run(factory, deadline);
+          } finally {
+            done.countDown();
+          }
+        }
+      }, "load-test-client-" + i).start();
+    }
+    done.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long succeeded = 0;
+    long failed = 0;
+    List<Long> latencies = new ArrayList<Long>();
+    for (Client client : results) {
+      succeeded += client.succeeded;
+      failed += client.failed;
+      latencies.addAll(client.latencyMillis);
+    }
+    long[] sorted = new long[latencies.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = latencies.get(i);
+    }
+    Arrays.sort(sorted);
+
+    // every call to the server that didn't produce a success was wasted
+    long wasted = server.getRequestCount() - succeeded;
+    System.out.printf("%-8s %10d %10d %10d %8.1f %8d %8d %8d%n", strategy, succeeded, failed,
+        wasted, succeeded / seconds, percentile(sorted, 50), percentile(sorted, 99),
+        sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+
+  /** Sends requests one after another until the deadline, timing each including any retries. */
+  private static class Client {
+    final List<Long> latencyMillis = new ArrayList<Long>();
+    long succeeded;
+    long failed;
+
+    void run(HttpRequestFactory factory, long deadline) {
+      while (System.currentTimeMillis() < deadline) {
+        long start = System.nanoTime();
+        try {
+          HttpRequest request = factory.buildGetRequest(new GenericUrl(URL));
+          request.setThrowExceptionOnExecuteError(false);
+          HttpResponse response = request.execute();
+          if (response.isSuccessStatusCode()) {
+            succeeded++;
+          } else {
+            failed++;
+          }
+          response.disconnect();
+        } catch (IOException e) {
+          failed++;
+        }
+        latencyMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Checking failed responses for quota errors, which reads the body of every error response.
+ * {@link #executeOnly()} measures building the response alone, to subtract from the others.
+ */
+@State(Scope.Thread)
+public class RateLimitedBackOffRequiredBenchmark {
+
+  /** The response bodies checked. */
+  public enum Body {
+    EMPTY(500, null, ""),
+    SERVER_ERROR(500, Json.MEDIA_TYPE, error(500, "backendError")),
+    UNAVAILABLE(503, Json.MEDIA_TYPE, error(503, "backendError")),
+    RATE_LIMITED(403, Json.MEDIA_TYPE, error(403, "rateLimitExceeded")),
+    MULTIPLE_ERRORS(400, Json.MEDIA_TYPE, multipleErrors(50)),
+    HTML_ERROR_PAGE(502, "text/html", htmlPage(64 * 1024));
+
+    final int statusCode;
+    final String contentType;
+    final String content;
+
+    Body(int statusCode, String contentType, String content) {
+      this.statusCode = statusCode;
+      this.contentType = contentType;
+      this.content = content;
+    }
+  }
+
+  @Param
+  public Body body;
+
+  private final RateLimitedBackOffRequired backOffRequired = new RateLimitedBackOffRequired();
+  private HttpRequest request;
+
+  @Setup
+  public void buildRequest() throws IOException {
+    MockLowLevelHttpResponse response = new ReplayingResponse(body.content)
+        .setStatusCode(body.statusCode)
+        .setContentType(body.contentType);
+    MockHttpTransport transport = new MockHttpTransport.Builder()
+        .setLowLevelHttpRequest(new MockLowLevelHttpRequest().setResponse(response))
+        .build();
+    request = transport.createRequestFactory()
+        .buildGetRequest(new GenericUrl("https://www.googleapis.com/mapsengine/v1/tables"));
+    request.setThrowExceptionOnExecuteError(false);
+  }
+
+  @Benchmark
+  public HttpResponse executeOnly() throws IOException {
+    HttpResponse response = request.execute();
+    response.ignore();
+    return response;
+  }
+
+  @Benchmark
+  public boolean isRequired() throws IOException {
+    HttpResponse response = request.execute();
+    boolean required = backOffRequired.isRequired(response);
+    response.ignore();
+    return required;
+  }
+
+  private static String error(int code, String reason) {
+    return "{\"error\": {\"errors\": [{\"domain\": \"usageLimits\", \"reason\": \"" + reason
+        + "\", \"message\": \"" + reason + "\"}], \"code\": " + code + ", \"message\": \""
+        + reason + "\"}}";
+  }
+
+  private static String multipleErrors(int count) {
+    StringBuilder json = new StringBuilder("{\"error\": {\"errors\": [");
+    for (int i = 0; i < count; i++) {
+      json.append(i == 0 ? "" : ", ").append("{\"domain\": \"global\", \"reason\": \"invalid\", ")
+          .append("\"message\": \"Invalid value for feature ").append(i).append("\"}");
+    }
+    return json.append("], \"code\": 400, \"message\": \"Invalid value\"}}").toString();
+  }
+
+  private static String htmlPage(int size) {
+    StringBuilder html =
+        new StringBuilder("<html><head><title>502 Bad Gateway</title></head><body>");
+    while (html.length() < size) {
+      html.append("<p>The server encountered a temporary error.</p>\n");
+    }
+    return html.append("</body></html>").toString();
+  }
+
+  /** A response that can be read again by each request, with a new stream of the same body. */
+  private static class ReplayingResponse extends MockLowLevelHttpResponse {
+    private final byte[] content;
+
+    ReplayingResponse(String content) throws IOException {
+      this.content = content.getBytes("UTF-8");
+    }
+
+    @Override
+    public InputStream getContent() {
+      return new ByteArrayInputStream(content);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.google.maps.clients.mapsengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Escaping user input for where clauses, which is done for every query built. */
+@State(Scope.Benchmark)
+public class SecurityBenchmark {
+
+  /** The inputs escaped. */
+  public enum Input {
+    // nothing to escape, the common case
+    SHORT_ASCII("Sydney Opera House", 1),
+    SHORT_QUOTED("O'Reilly's \\ Co", 1),
+    // macrons, a dash and a curly apostrophe
+    SHORT_UNICODE("\u014ctautahi \u2013 Te Wai Pounamu\u2019s 'garden city'", 1),
+    LONG_ASCII("Sydney Opera House ", 1000),
+    LONG_QUOTED("O'Reilly's \\ Co ", 1000),
+    // kanji and macrons
+    LONG_UNICODE("\u6771\u4eac\u90fd 'T\u014dky\u014d-to' ", 1000);
+
+    final String value;
+
+    Input(String part, int repeats) {
+      StringBuilder value = new StringBuilder(part.length() * repeats);
+      for (int i = 0; i < repeats; i++) {
+        value.append(part);
+      }
+      this.value = value.toString();
+    }
+  }
+
+  @Param
+  public Input input;
+
+  private String value;
+
+  @Setup
+  public void readInput() {
+    value = input.value;
+  }
+
+  @Benchmark
+  public String escapeAndQuoteString() {
+    return Security.escapeAndQuoteString(value);
+  }
+}
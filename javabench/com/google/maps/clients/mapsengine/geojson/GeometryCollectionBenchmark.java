@@ -0,0 +1,40 @@
+package com.google.maps.clients.mapsengine.geojson;
+
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.GeoJsonGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converting deeply nested {@link GeometryCollection}s, which recurse through
+ * {@link Geometry#fromGeoJson} and {@link Geometry#asFeature}.
+ */
+@State(Scope.Benchmark)
+public class GeometryCollectionBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int depth;
+
+  private GeometryCollection collection;
+  private GeoJsonGeometry geoJson;
+
+  @Setup
+  public void createShapes() {
+    collection = Shapes.nestedCollection(depth);
+    geoJson = Shapes.asGeoJson(collection);
+  }
+
+  @Benchmark
+  public Geometry fromGeoJson() {
+    return Geometry.fromGeoJson(geoJson);
+  }
+
+  @Benchmark
+  public Feature asFeature() {
+    return collection.asFeature(Shapes.PROPERTIES);
+  }
+}
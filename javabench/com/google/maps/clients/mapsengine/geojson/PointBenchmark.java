@@ -0,0 +1,31 @@
+package com.google.maps.clients.mapsengine.geojson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/** Converting single points, which every other geometry does once per vertex. */
+@State(Scope.Benchmark)
+public class PointBenchmark {
+
+  private final Point point = new Point(-33.86, 151.21);
+  private final Point pointWithAltitude = new Point(-33.86, 151.21, 58);
+  private final List<Double> coordinates = pointWithAltitude.toCoordinates();
+
+  @Benchmark
+  public List<Double> toCoordinates() {
+    return point.toCoordinates();
+  }
+
+  @Benchmark
+  public List<Double> toCoordinatesWithAltitude() {
+    return pointWithAltitude.toCoordinates();
+  }
+
+  @Benchmark
+  public Point fromCoordinates() {
+    return new Point(coordinates);
+  }
+}
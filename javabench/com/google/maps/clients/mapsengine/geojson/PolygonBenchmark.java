@@ -0,0 +1,68 @@
+package com.google.maps.clients.mapsengine.geojson;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.GeoJsonGeometry;
+import com.google.api.services.mapsengine.model.GeoJsonPolygon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Converting polygons between the API's GeoJSON classes and {@link Polygon}s, and serializing
+ * them, from 10 to a million vertices.
+ */
+@State(Scope.Benchmark)
+public class PolygonBenchmark {
+
+  @Param({"10", "1000", "100000", "1000000"})
+  public int vertices;
+
+  private final JsonFactory jsonFactory = new GsonFactory();
+  private Polygon polygon;
+  private MultiPolygon multiPolygon;
+  private List<List<List<Double>>> rawPoints;
+  private GeoJsonGeometry geoJson;
+  private Feature feature;
+
+  @Setup
+  public void createShapes() {
+    polygon = Shapes.polygon(vertices);
+    multiPolygon = Shapes.multiPolygon(vertices);
+    geoJson = Shapes.asGeoJson(polygon);
+    rawPoints = ((GeoJsonPolygon) geoJson).getCoordinates();
+    feature = polygon.asFeature(Shapes.PROPERTIES);
+  }
+
+  @Benchmark
+  public Polygon fromRawPoints() {
+    return Polygon.fromRawPoints(rawPoints);
+  }
+
+  @Benchmark
+  public Geometry fromGeoJson() {
+    return Geometry.fromGeoJson(geoJson);
+  }
+
+  @Benchmark
+  public Feature polygonAsFeature() {
+    return polygon.asFeature(Shapes.PROPERTIES);
+  }
+
+  @Benchmark
+  public Feature multiPolygonAsFeature() {
+    return multiPolygon.asFeature(Shapes.PROPERTIES);
+  }
+
+  @Benchmark
+  public String serialize() throws IOException {
+    return jsonFactory.toString(feature);
+  }
+}
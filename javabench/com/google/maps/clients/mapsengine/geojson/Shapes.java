@@ -0,0 +1,67 @@
+package com.google.maps.clients.mapsengine.geojson;
+
+import com.google.api.services.mapsengine.model.GeoJsonGeometry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic shapes for the benchmarks: regular polygons, which are as cheap to generate as any,
+ * and nested geometry collections.
+ */
+final class Shapes {
+
+  /** Properties for features, which are required but don't affect the geometry. */
+  static final Map<String, Object> PROPERTIES = Collections.<String, Object>singletonMap("id", 1);
+
+  private Shapes() {}
+
+  /**
+   * Returns a closed ring of points around a circle, in counter-clockwise order.
+   * @param vertices  The number of points, including the repeated closing point
+   */
+  static List<Point> ring(int vertices) {
+    List<Point> points = new ArrayList<Point>(vertices);
+    for (int i = 0; i < vertices - 1; i++) {
+      double angle = 2 * Math.PI * i / (vertices - 1);
+      points.add(new Point(-33.86 + Math.sin(angle), 151.21 + Math.cos(angle)));
+    }
+    points.add(points.get(0));
+    return points;
+  }
+
+  /** Returns a simple polygon with the given number of vertices. */
+  static Polygon polygon(int vertices) {
+    return Polygon.createSimplePolygon(ring(vertices));
+  }
+
+  /** Returns a multi-polygon of ten polygons, sharing the given number of vertices. */
+  static MultiPolygon multiPolygon(int vertices) {
+    List<Polygon> polygons = new ArrayList<Polygon>(10);
+    for (int i = 0; i < 10; i++) {
+      polygons.add(polygon(Math.max(4, vertices / 10)));
+    }
+    return new MultiPolygon(polygons);
+  }
+
+  /**
+   * Returns a geometry collection nested to the given depth, each level holding a point, a
+   * polygon and the next level.
+   */
+  static GeometryCollection nestedCollection(int depth) {
+    List<Geometry> geometries = new ArrayList<Geometry>(3);
+    geometries.add(new Point(-33.86, 151.21));
+    geometries.add(polygon(10));
+    if (depth > 1) {
+      geometries.add(nestedCollection(depth - 1));
+    }
+    return new GeometryCollection(geometries);
+  }
+
+  /** Returns the API's representation of a geometry, as if it had been parsed from a response. */
+  static GeoJsonGeometry asGeoJson(Geometry geometry) {
+    return geometry.asFeature(PROPERTIES).getGeometry();
+  }
+}
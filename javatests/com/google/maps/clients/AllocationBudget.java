@@ -0,0 +1,93 @@
+package com.google.maps.clients;
+
+import org.junit.Assert;
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Asserts that an operation allocates no more than a budget, so that allocation regressions in
+ * hot paths fail the build.  Allocations are counted by the JVM for the calling thread, averaged
+ * over many runs after a warm-up, and tests are skipped on JVMs that don't count them.
+ *
+ * Budgets allow about half as much again as the operation allocates today, since escape analysis
+ * differs between JVMs.  Lower a budget when an operation is made to allocate less.
+ *
+ * {@code AllocationBudget.assertAtMost("Point.toCoordinates", 120, new Operation() {
+ *   public void run() { point.toCoordinates(); }
+ * });
+ * }
+ */
+public final class AllocationBudget {
+
+  /** An operation to measure. */
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  // enough runs for the JIT to compile the operation, and for the average to settle
+  private static final int WARM_UP_RUNS = 20000;
+  private static final int MEASURED_RUNS = 10000;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  // null when the JVM doesn't count allocations per thread
+  private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+  private AllocationBudget() {}
+
+  /**
+   * Fails if the operation allocates more than the budget, on average.
+   * @param name  What's being measured, for the failure message
+   * @param budgetBytes  The most the operation may allocate, in bytes
+   * @param operation  The operation to measure
+   */
+  public static void assertAtMost(String name, long budgetBytes, Operation operation)
+      throws Exception {
+    long bytes = bytesPerRun(operation);
+    Assert.assertTrue(name + " allocated " + bytes + " bytes, over its budget of " + budgetBytes,
+        bytes <= budgetBytes);
+  }
+
+  /**
+   * Returns the bytes the operation allocates, on average, or skips the test if the JVM can't
+   * count them.
+   * @param operation  The operation to measure
+   */
+  public static long bytesPerRun(Operation operation) throws Exception {
+    for (int i = 0; i < WARM_UP_RUNS; i++) {
+      operation.run();
+    }
+    long before = allocatedBytes();
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      operation.run();
+    }
+    return (allocatedBytes() - before) / MEASURED_RUNS;
+  }
+
+  /** Returns the bytes allocated by this thread. */
+  private static long allocatedBytes() throws Exception {
+    Assume.assumeTrue(ALLOCATED_BYTES != null);
+    long bytes = (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+    Assume.assumeTrue(bytes >= 0);
+    return bytes;
+  }
+
+  /** Finds the HotSpot extension that counts allocations, if the JVM has it. */
+  private static Method allocatedBytesMethod() {
+    try {
+      // loaded alongside the standard interface, even when a test runs in its own class loader
+      Class<?> hotSpotThreads = Class.forName("com.sun.management.ThreadMXBean", false,
+          ThreadMXBean.class.getClassLoader());
+      if (hotSpotThreads.isInstance(THREADS)) {
+        return hotSpotThreads.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    } catch (ClassNotFoundException e) {
+      // not a HotSpot JVM
+    } catch (NoSuchMethodException e) {
+      // a HotSpot JVM from before allocations were counted
+    }
+    return null;
+  }
+}
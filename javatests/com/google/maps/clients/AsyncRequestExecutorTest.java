@@ -0,0 +1,248 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Table;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link com.google.maps.clients.AsyncRequestExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class AsyncRequestExecutorTest {
+
+  private static final String RATE_LIMITED =
+      ScriptedServer.error(403, "rateLimitExceeded", "Rate Limit Exceeded");
+  private static final String NOT_FOUND = ScriptedServer.error(404, "notFound", "Table not found");
+
+  /**
+   * Serves tables.get.  The table "missing" doesn't exist, and the table "limited" is rate
+   * limited the first time it's requested.
+   */
+  private static class TableServer extends ScriptedServer {
+    final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    volatile boolean rateLimited = true;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      String tableId = request.getUrl().substring(request.getUrl().lastIndexOf('/') + 1);
+      requests.add(tableId);
+      if ("missing".equals(tableId)) {
+        return json(404, NOT_FOUND);
+      } else if ("limited".equals(tableId) && rateLimited) {
+        rateLimited = false;
+        return json(403, RATE_LIMITED);
+      }
+      return json(200, "{\"id\": \"" + tableId + "\"}");
+    }
+  }
+
+  private static MapsEngine newEngine(TableServer server) {
+    return TestEngines.newEngine(server,
+        new HttpRequestInitializerPipeline(new BackOffWhenRateLimitedRequestInitializer()));
+  }
+
+  @Test
+  public void testBackOffDoesNotHoldAThread() throws Exception {
+    TableServer server = new TableServer();
+    MapsEngine engine = newEngine(server);
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(1);
+
+    Future<Table> limited = executor.submit(engine.tables().get("limited"));
+    while (server.requests.isEmpty()) {
+      Thread.sleep(5);
+    }
+
+    // the only thread is free while the first request backs off
+    Future<Table> other = executor.submit(engine.tables().get("other"));
+    Assert.assertEquals("other", other.get().getId());
+    Assert.assertFalse(limited.isDone());
+
+    Assert.assertEquals("limited", limited.get().getId());
+    Assert.assertEquals("[limited, other, limited]", server.requests.toString());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSharedPauseDoesNotHoldAThread() throws Exception {
+    TableServer server = new TableServer();
+    RateLimitPause pause = new RateLimitPause(400, 400);
+    MapsEngine engine = TestEngines.newEngine(server,
+        new HttpRequestInitializerPipeline(new BackOffWhenRateLimitedRequestInitializer(pause)));
+    ScheduledExecutorService threads = Executors.newScheduledThreadPool(1);
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(threads);
+
+    pause.onRateLimited();
+    Future<Table> paused = executor.submit(engine.tables().get("paused"));
+
+    // the only thread is free while the request waits for the pause to pass
+    Future<Boolean> other = threads.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return true;
+      }
+    });
+    Assert.assertTrue(other.get(100, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(paused.isDone());
+    Assert.assertTrue(server.requests.isEmpty());
+
+    Assert.assertEquals("paused", paused.get().getId());
+    Assert.assertEquals(0, pause.getRemainingMillis());
+    Assert.assertEquals("[paused]", server.requests.toString());
+    executor.shutdown();
+  }
+
+  /** Installs a handler that never retries, as a credential does when its token is valid. */
+  private static class CredentialLikeInitializer implements HttpRequestInitializer {
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+            boolean supportsRetry) {
+          return false;
+        }
+      });
+    }
+  }
+
+  @Test
+  public void testBackOffIsFoundThroughTheRecommendedPipeline() throws Exception {
+    TableServer server = new TableServer();
+    final List<String> retryReasons = Collections.synchronizedList(new ArrayList<String>());
+    RequestListener listener = new RequestListener() {
+      @Override
+      public void onResponse(String method, int statusCode, long latencyNanos, long bytesSent,
+          long bytesReceived) {
+      }
+
+      @Override
+      public void onRetry(String method, String reason, long backOffNanos) {
+        retryReasons.add(reason);
+      }
+    };
+    // every wrapper that chains to the back-off handler installed before it
+    MapsEngine engine = TestEngines.newEngine(server,
+        new HttpRequestInitializerPipeline(new RingBufferSpanSink(64),
+            new CredentialLikeInitializer(),
+            new BackOffWhenRateLimitedRequestInitializer(),
+            new ConditionalRequestInitializer("GET", "tables/*", new RetryBudget()),
+            new CircuitBreaker(),
+            new RequestMetrics(listener)));
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(1);
+
+    Future<Table> limited = executor.submit(engine.tables().get("limited"));
+    while (server.requests.isEmpty()) {
+      Thread.sleep(5);
+    }
+    Future<Table> other = executor.submit(engine.tables().get("other"));
+    Assert.assertEquals("other", other.get().getId());
+    Assert.assertFalse(limited.isDone());
+    Assert.assertEquals("limited", limited.get().getId());
+    executor.shutdown();
+    Assert.assertEquals("[rateLimitExceeded]", retryReasons.toString());
+
+    HttpRequest missing = engine.tables().get("missing").buildHttpRequest();
+    missing.setThrowExceptionOnExecuteError(false);
+    missing.execute();
+    Assert.assertEquals(NOT_FOUND,
+        BackOffWhenRateLimitedRequestInitializer.getResponseBody(missing));
+  }
+
+  @Test
+  public void testFailuresAreReported() throws Exception {
+    TableServer server = new TableServer();
+    MapsEngine engine = newEngine(server);
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(1);
+    final List<IOException> failures = new ArrayList<IOException>();
+
+    Future<Table> missing = executor.submit(engine.tables().get("missing"),
+        new AsyncRequestExecutor.Callback<Table>() {
+          @Override
+          public void onSuccess(Table response) {
+            Assert.fail("Expected the 404 to be reported");
+          }
+
+          @Override
+          public void onFailure(IOException e) {
+            failures.add(e);
+          }
+        });
+
+    try {
+      missing.get();
+      Assert.fail("Expected the 404 to be thrown");
+    } catch (ExecutionException e) {
+      GoogleJsonResponseException cause = (GoogleJsonResponseException) e.getCause();
+      Assert.assertEquals(404, cause.getStatusCode());
+    }
+    executor.shutdown();
+    Assert.assertEquals(1, failures.size());
+    Assert.assertEquals(1, server.requests.size());
+  }
+
+  @Test
+  public void testErrorsCompleteTheCall() throws Exception {
+    TableServer server = new TableServer();
+    final Error error = new NoClassDefFoundError("com/example/MissingParser");
+    MapsEngine engine = TestEngines.newEngine(server, new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) {
+        request.setInterceptor(new HttpExecuteInterceptor() {
+          @Override
+          public void intercept(HttpRequest request) {
+            throw error;
+          }
+        });
+      }
+    });
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(1);
+    final List<IOException> failures = Collections.synchronizedList(new ArrayList<IOException>());
+
+    Future<Table> table = executor.submit(engine.tables().get("1234"),
+        new AsyncRequestExecutor.Callback<Table>() {
+          @Override
+          public void onSuccess(Table response) {
+            Assert.fail("Expected the error to be reported");
+          }
+
+          @Override
+          public void onFailure(IOException e) {
+            failures.add(e);
+          }
+        });
+
+    // the waiting thread is woken rather than left blocked
+    try {
+      table.get(5, TimeUnit.SECONDS);
+      Assert.fail("Expected the error to be thrown");
+    } catch (ExecutionException e) {
+      Assert.assertSame(error, e.getCause().getCause());
+    }
+    executor.shutdown();
+    Assert.assertEquals(1, failures.size());
+    Assert.assertEquals(0, server.getRequestCount());
+  }
+}
@@ -0,0 +1,188 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.mapsengine.MapsEngine;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Tests for {@link com.google.maps.clients.BackOffWhenRateLimitedRequestInitializer}.
+ */
+@RunWith(JUnit4.class)
+public class BackOffWhenRateLimitedRequestInitializerTest {
+
+  private static final String NOT_FOUND = ScriptedServer.error(404, "notFound", "Table not found");
+
+  /** A server whose responses, like a real connection's, can only be read once. */
+  private static class NotFoundServer extends ScriptedServer {
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      return json(404, "").setContent(new FilterInputStream(
+          new ByteArrayInputStream(NOT_FOUND.getBytes())) {
+        @Override
+        public boolean markSupported() {
+          return false;
+        }
+      });
+    }
+  }
+
+  private static GoogleJsonResponseException getTable(HttpTransport transport,
+      BackOffWhenRateLimitedRequestInitializer initializer) throws IOException {
+    MapsEngine engine = TestEngines.newEngine(transport, initializer);
+    try {
+      engine.tables().get("1234").execute();
+    } catch (GoogleJsonResponseException e) {
+      return e;
+    }
+    Assert.fail("Expected the 404 to be thrown");
+    return null;
+  }
+
+  @Test
+  public void testErrorDetailsAreAvailableFromWrappedTransport() throws Exception {
+    BackOffWhenRateLimitedRequestInitializer initializer =
+        new BackOffWhenRateLimitedRequestInitializer();
+    GoogleJsonResponseException e = getTable(
+        BackOffWhenRateLimitedRequestInitializer.wrap(new NotFoundServer()), initializer);
+
+    Assert.assertEquals("Table not found", e.getDetails().getMessage());
+    Assert.assertEquals(NOT_FOUND, initializer.getLastResponseBody());
+  }
+
+  @Test
+  public void testErrorBodyIsKeptWhenStreamCannotBeRewound() throws Exception {
+    BackOffWhenRateLimitedRequestInitializer initializer =
+        new BackOffWhenRateLimitedRequestInitializer();
+    GoogleJsonResponseException e = getTable(new NotFoundServer(), initializer);
+
+    Assert.assertNull(e.getDetails());
+    Assert.assertEquals(NOT_FOUND, initializer.getLastResponseBody());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testSubclassesCanStillReadTheLastBackOffCheck() throws Exception {
+    BackOffWhenRateLimitedRequestInitializer initializer =
+        new BackOffWhenRateLimitedRequestInitializer();
+    getTable(new NotFoundServer(), initializer);
+
+    Assert.assertEquals(NOT_FOUND, initializer.backOffRequired.getResponseBody());
+  }
+
+  /** Answers every request with a 404 naming the requested URL. */
+  private static class UrlNotFoundServer extends ScriptedServer {
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      return json(404, notFound(request.getUrl()));
+    }
+
+    static String notFound(String url) {
+      return "{\"error\": {\"errors\": [{\"reason\": \"notFound\"}], \"message\": \""
+          + url + "\"}}";
+    }
+  }
+
+  @Test
+  public void testResponseBodiesAreKeptPerThread() throws Exception {
+    final BackOffWhenRateLimitedRequestInitializer initializer =
+        new BackOffWhenRateLimitedRequestInitializer();
+    final MapsEngine engine = TestEngines.newEngine(new UrlNotFoundServer(), initializer);
+    final CyclicBarrier barrier = new CyclicBarrier(8);
+    final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      final String tableId = "table" + i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 20; j++) {
+              barrier.await();
+              HttpRequest request = engine.tables().get(tableId).buildHttpRequest();
+              request.setThrowExceptionOnExecuteError(false).execute();
+              String expected = UrlNotFoundServer.notFound(request.getUrl().build());
+              if (!expected.equals(initializer.getLastResponseBody())
+                  || !expected.equals(
+                      BackOffWhenRateLimitedRequestInitializer.getResponseBody(request))) {
+                mismatches.add(tableId);
+              }
+            }
+          } catch (Exception e) {
+            mismatches.add(e.toString());
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(Collections.<String>emptyList(), mismatches);
+    Assert.assertNull(initializer.getLastResponseBody());
+  }
+
+  @Test
+  public void testBackOffCheckAllocationBudget() throws Exception {
+    final byte[] body = ("{\"error\": {\"errors\": [{\"domain\": \"usageLimits\", "
+        + "\"reason\": \"rateLimitExceeded\", \"message\": \"Rate Limit Exceeded\"}], "
+        + "\"code\": 403, \"message\": \"Rate Limit Exceeded\"}}").getBytes("UTF-8");
+    MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse() {
+      @Override
+      public InputStream getContent() {
+        return new ByteArrayInputStream(body);
+      }
+    };
+    lowLevelResponse.setStatusCode(403).setContentType(Json.MEDIA_TYPE);
+    final HttpRequest request = new MockHttpTransport.Builder()
+        .setLowLevelHttpRequest(new MockLowLevelHttpRequest().setResponse(lowLevelResponse))
+        .build().createRequestFactory()
+        .buildGetRequest(new GenericUrl("https://www.googleapis.com/mapsengine/v1/tables"));
+    request.setThrowExceptionOnExecuteError(false);
+    final RateLimitedBackOffRequired backOffRequired = new RateLimitedBackOffRequired();
+
+    // only the check is budgeted, not building the response.  It's measured here rather than in
+    // RateLimitedBackOffRequiredTest, whose runner instruments every HttpResponse call.
+    long executing = AllocationBudget.bytesPerRun(new AllocationBudget.Operation() {
+      @Override
+      public void run() throws Exception {
+        request.execute().ignore();
+      }
+    });
+    long checking = AllocationBudget.bytesPerRun(new AllocationBudget.Operation() {
+      @Override
+      public void run() throws Exception {
+        HttpResponse response = request.execute();
+        backOffRequired.isRequired(response);
+        response.ignore();
+      }
+    });
+    long bytes = checking - executing;
+    Assert.assertTrue("isRequired allocated " + bytes + " bytes, over its budget of 21000",
+        bytes <= 21000);
+  }
+}
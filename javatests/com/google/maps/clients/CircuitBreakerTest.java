@@ -0,0 +1,157 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.NanoClock;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link com.google.maps.clients.CircuitBreaker}.
+ */
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+
+  private static final String HOST = "www.googleapis.com";
+  private static final GenericUrl URL =
+      new GenericUrl("https://" + HOST + "/mapsengine/v1/tables/1234");
+
+  /** Answers with a fixed status, or fails to connect. */
+  private static class FlakyServer extends ScriptedServer {
+    int statusCode = 200;
+    boolean down;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      if (down) {
+        throw new IOException("Connection refused");
+      }
+      return new MockLowLevelHttpResponse().setStatusCode(statusCode);
+    }
+  }
+
+  private static class FakeClock implements NanoClock {
+    long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+  }
+
+  private static int send(HttpRequestFactory factory) throws IOException {
+    return factory.buildGetRequest(URL).setThrowExceptionOnExecuteError(false).execute()
+        .getStatusCode();
+  }
+
+  @Test
+  public void testCircuitOpensAndIsProbed() throws Exception {
+    FlakyServer server = new FlakyServer();
+    FakeClock clock = new FakeClock();
+    CircuitBreaker breaker = new CircuitBreaker(3, 1000, clock);
+    HttpRequestFactory factory = server.createRequestFactory(breaker);
+
+    server.statusCode = 503;
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(503, send(factory));
+    }
+    Assert.assertTrue(breaker.isOpen(HOST));
+    try {
+      send(factory);
+      Assert.fail("Expected the open circuit to fail fast");
+    } catch (CircuitBreaker.OpenCircuitException e) {
+      // expected
+    }
+    Assert.assertEquals(3, server.getRequestCount());
+
+    // a failed probe opens the circuit for another period
+    clock.nanos += TimeUnit.SECONDS.toNanos(1);
+    Assert.assertEquals(503, send(factory));
+    Assert.assertTrue(breaker.isOpen(HOST));
+    clock.nanos += TimeUnit.MILLISECONDS.toNanos(999);
+    try {
+      send(factory);
+      Assert.fail("Expected the open circuit to fail fast");
+    } catch (CircuitBreaker.OpenCircuitException e) {
+      // expected
+    }
+
+    // a successful probe closes it
+    server.statusCode = 200;
+    clock.nanos += TimeUnit.MILLISECONDS.toNanos(1);
+    Assert.assertEquals(200, send(factory));
+    Assert.assertFalse(breaker.isOpen(HOST));
+    Assert.assertEquals(200, send(factory));
+    Assert.assertEquals(6, server.getRequestCount());
+  }
+
+  @Test
+  public void testConnectionFailuresCountAndSuccessesReset() throws Exception {
+    FlakyServer server = new FlakyServer();
+    CircuitBreaker breaker = new CircuitBreaker(2, 1000, new FakeClock());
+    HttpRequestFactory factory = server.createRequestFactory(breaker);
+
+    server.down = true;
+    try {
+      send(factory);
+      Assert.fail("Expected the connection failure");
+    } catch (IOException e) {
+      Assert.assertFalse(e instanceof CircuitBreaker.OpenCircuitException);
+    }
+    server.down = false;
+    Assert.assertEquals(200, send(factory));
+
+    // the failure count was reset, so a single failure doesn't open the circuit
+    server.down = true;
+    try {
+      send(factory);
+      Assert.fail("Expected the connection failure");
+    } catch (IOException e) {
+      Assert.assertFalse(e instanceof CircuitBreaker.OpenCircuitException);
+    }
+    Assert.assertFalse(breaker.isOpen(HOST));
+  }
+
+  @Test
+  public void testRetriesCountAsFailures() throws Exception {
+    FlakyServer server = new FlakyServer();
+    CircuitBreaker breaker = new CircuitBreaker(3, 1000, new FakeClock());
+    HttpRequestFactory factory = server.createRequestFactory(new HttpRequestInitializerPipeline(
+        new HttpRequestInitializer() {
+          @Override
+          public void initialize(HttpRequest request) {
+            request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+              @Override
+              public boolean handleResponse(HttpRequest request, HttpResponse response,
+                  boolean supportsRetry) {
+                return supportsRetry;
+              }
+            });
+          }
+        }, breaker));
+
+    // the circuit opens part way through the retries, and stops the rest
+    server.statusCode = 503;
+    try {
+      send(factory);
+      Assert.fail("Expected the open circuit to fail fast");
+    } catch (CircuitBreaker.OpenCircuitException e) {
+      // expected
+    }
+    Assert.assertEquals(3, server.getRequestCount());
+  }
+}
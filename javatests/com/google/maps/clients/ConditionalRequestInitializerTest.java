@@ -0,0 +1,74 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.testing.http.MockHttpTransport;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link com.google.maps.clients.ConditionalRequestInitializer}.
+ */
+@RunWith(JUnit4.class)
+public class ConditionalRequestInitializerTest {
+
+  private static final String API = "https://www.googleapis.com/mapsengine/v1/";
+
+  /** Records the route of each request it intercepts, replacing any interceptor installed. */
+  private static class RecordingInitializer implements HttpRequestInitializer {
+    final List<String> routes = new ArrayList<String>();
+
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setInterceptor(new HttpExecuteInterceptor() {
+        @Override
+        public void intercept(HttpRequest request) {
+          routes.add(ConditionalRequestInitializer.routeOf(request));
+        }
+      });
+    }
+  }
+
+  @Test
+  public void testOnlyMatchingRoutesAreInitialized() throws Exception {
+    RecordingInitializer everything = new RecordingInitializer();
+    RecordingInitializer uploads = new RecordingInitializer();
+    HttpRequestFactory factory = new MockHttpTransport().createRequestFactory(
+        new HttpRequestInitializerPipeline(everything,
+            new ConditionalRequestInitializer("POST", "tables/*/features/batchInsert", uploads)));
+
+    factory.buildGetRequest(new GenericUrl(API + "tables/123/features")).execute();
+    factory.buildPostRequest(new GenericUrl(API + "tables/456/features/batchInsert"),
+        ByteArrayContent.fromString("application/json", "{}")).execute();
+    factory.buildGetRequest(new GenericUrl(API + "tables/789")).execute();
+
+    // the earlier initializer's interceptor still runs when the conditional one doesn't apply
+    Assert.assertEquals(3, everything.routes.size());
+    Assert.assertEquals("[POST tables/{id}/features/batchInsert]", uploads.routes.toString());
+  }
+
+  @Test
+  public void testSmallRequestsAreSkipped() throws Exception {
+    RecordingInitializer large = new RecordingInitializer();
+    HttpRequestFactory factory = new MockHttpTransport().createRequestFactory(
+        new ConditionalRequestInitializer(null, null, 10, large));
+
+    factory.buildPostRequest(new GenericUrl(API + "tables"),
+        ByteArrayContent.fromString("application/json", "{}")).execute();
+    factory.buildPostRequest(new GenericUrl(API + "tables"),
+        ByteArrayContent.fromString("application/json", "{\"name\": \"Large\"}")).execute();
+    factory.buildGetRequest(new GenericUrl(API + "tables")).execute();
+
+    Assert.assertEquals(1, large.routes.size());
+  }
+}
@@ -0,0 +1,42 @@
+package com.google.maps.clients;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link com.google.maps.clients.ErrorReasonClassifier}.
+ */
+@RunWith(JUnit4.class)
+public class ErrorReasonClassifierTest {
+
+  private static final JsonFactory JSON_FACTORY = new GsonFactory();
+
+  private static String singleReason(String json) throws IOException {
+    return ErrorReasonClassifier.singleReason(JSON_FACTORY.createJsonParser(json));
+  }
+
+  @Test
+  public void testReasonIsFoundAmongOtherFields() throws Exception {
+    Assert.assertEquals("rateLimitExceeded", singleReason("{\"kind\": \"error\", \"error\": {"
+        + "\"code\": 403, \"details\": {\"nested\": [1, 2]}, \"errors\": [{\"domain\":"
+        + " \"usageLimits\", \"reason\": \"rateLimitExceeded\", \"message\": \"Rate Limit\"}],"
+        + " \"message\": \"Rate Limit Exceeded\"}}"));
+  }
+
+  @Test
+  public void testNoReasonUnlessExactlyOneError() throws Exception {
+    Assert.assertNull(singleReason("{\"error\": {\"errors\": [{\"reason\": \"rateLimitExceeded\"},"
+        + " {\"reason\": \"invalid\"}]}}"));
+    Assert.assertNull(singleReason("{\"error\": {\"errors\": []}}"));
+    Assert.assertNull(singleReason("{\"error\": {\"errors\": [{\"domain\": \"global\"}]}}"));
+    Assert.assertNull(singleReason("{\"error\": \"Not Found\"}"));
+    Assert.assertNull(singleReason("[]"));
+  }
+}
@@ -0,0 +1,109 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.AbstractHttpContent;
+import com.google.api.client.http.GZipEncoding;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tests for {@link com.google.maps.clients.GZipContentRequestInitializer}.
+ */
+@RunWith(JUnit4.class)
+public class GZipContentRequestInitializerTest {
+
+  private static final GenericUrl URL =
+      new GenericUrl("https://www.googleapis.com/mapsengine/v1/tables/1234/features/batchInsert");
+
+  /** Remembers the last request sent. */
+  private static class RecordingTransport extends MockHttpTransport {
+    MockLowLevelHttpRequest lastRequest;
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      lastRequest = new MockLowLevelHttpRequest(url);
+      return lastRequest;
+    }
+  }
+
+  /** Content that counts how many times it's been written. */
+  private static class CountingContent extends AbstractHttpContent {
+    private final byte[] content;
+    int writes;
+
+    CountingContent(String content) {
+      super("application/json");
+      this.content = content.getBytes();
+    }
+
+    @Override
+    public long getLength() {
+      return content.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      writes++;
+      out.write(content);
+    }
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(s);
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testLargeBodiesAreCompressedOnce() throws Exception {
+    RecordingTransport transport = new RecordingTransport();
+    String json = "{\"features\": [" + repeat("{\"type\": \"Feature\"},", 1000) + "]}";
+    CountingContent content = new CountingContent(json);
+
+    HttpRequest request = transport.createRequestFactory(new GZipContentRequestInitializer())
+        .buildPostRequest(URL, content);
+    request.setEncoding(new GZipEncoding());
+    request.execute();
+
+    Assert.assertEquals("gzip", transport.lastRequest.getContentEncoding());
+    Assert.assertEquals(json, transport.lastRequest.getContentAsString());
+    Assert.assertTrue(transport.lastRequest.getContentLength() < json.length() / 10);
+    Assert.assertEquals(1, content.writes);
+    Assert.assertEquals("gzip", request.getHeaders().getAcceptEncoding());
+
+    // pooled deflaters are reset between uses
+    content = new CountingContent("{\"second\": true}");
+    request = transport.createRequestFactory(new GZipContentRequestInitializer(0))
+        .buildPostRequest(URL, content);
+    request.execute();
+    Assert.assertEquals("{\"second\": true}", transport.lastRequest.getContentAsString());
+  }
+
+  @Test
+  public void testSmallBodiesAreSentAsIs() throws Exception {
+    RecordingTransport transport = new RecordingTransport();
+    CountingContent content = new CountingContent("{\"features\": []}");
+
+    HttpRequest request = transport.createRequestFactory(new GZipContentRequestInitializer())
+        .buildPostRequest(URL, content);
+    request.setEncoding(new GZipEncoding());
+    request.getHeaders().setAcceptEncoding(null);
+    request.execute();
+
+    Assert.assertNull(transport.lastRequest.getContentEncoding());
+    Assert.assertEquals("{\"features\": []}", transport.lastRequest.getContentAsString());
+    Assert.assertEquals("gzip", request.getHeaders().getAcceptEncoding());
+  }
+}
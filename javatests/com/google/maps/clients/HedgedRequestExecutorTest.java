@@ -0,0 +1,153 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.mapsengine.MapsEngine;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link com.google.maps.clients.HedgedRequestExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class HedgedRequestExecutorTest {
+
+  private static final String TABLE_ID = "12345678901234567890-12345678901234567890";
+
+  /** Answers quickly, except for the number of requests it's told to stall. */
+  private static class StallingServer extends ScriptedServer {
+    final AtomicInteger stallNext = new AtomicInteger();
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      if (stallNext.getAndDecrement() > 0) {
+        try {
+          Thread.sleep(500);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+      return json(200, "{\"id\": \"" + TABLE_ID + "\"}");
+    }
+  }
+
+  private final ExecutorService threads = Executors.newCachedThreadPool();
+  private final StallingServer server = new StallingServer();
+  private final MapsEngine engine = TestEngines.newEngine(server);
+
+  @After
+  public void tearDown() {
+    threads.shutdownNow();
+  }
+
+  private void warmUp(HedgedRequestExecutor hedger) throws IOException {
+    for (int i = 0; i < HedgedRequestExecutor.MIN_SAMPLES; i++) {
+      hedger.execute(engine.tables().get(TABLE_ID));
+    }
+    Assert.assertTrue(hedger.getHedgeDelayMillis() >= 0);
+  }
+
+  @Test
+  public void testSlowRequestIsHedged() throws Exception {
+    HedgedRequestExecutor hedger = new HedgedRequestExecutor(threads, 99, null, null);
+    Assert.assertEquals(-1, hedger.getHedgeDelayMillis());
+    warmUp(hedger);
+    long hedges = hedger.getHedgeCount();
+
+    server.stallNext.set(1);
+    long start = System.nanoTime();
+    Assert.assertEquals(TABLE_ID, hedger.execute(engine.tables().get(TABLE_ID)).getId());
+
+    Assert.assertTrue(System.nanoTime() - start < 400 * 1000 * 1000L);
+    Assert.assertEquals(hedges + 1, hedger.getHedgeCount());
+  }
+
+  @Test
+  public void testLosingAttemptIsDisconnected() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final MockLowLevelHttpResponse stalled =
+        ScriptedServer.json(200, "{\"id\": \"" + TABLE_ID + "\"}");
+    ScriptedServer server = new ScriptedServer() {
+      @Override
+      protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+        if (getRequestCount() == HedgedRequestExecutor.MIN_SAMPLES + 1) {
+          // like a blocking socket read, this ignores interrupts
+          boolean interrupted = false;
+          while (release.getCount() > 0) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              interrupted = true;
+            }
+          }
+          if (interrupted) {
+            Thread.currentThread().interrupt();
+          }
+          return stalled;
+        }
+        return json(200, "{\"id\": \"" + TABLE_ID + "\"}");
+      }
+    };
+    MapsEngine engine = TestEngines.newEngine(server);
+    HedgedRequestExecutor hedger = new HedgedRequestExecutor(threads, 0, null, null);
+    for (int i = 0; i < HedgedRequestExecutor.MIN_SAMPLES; i++) {
+      hedger.execute(engine.tables().get(TABLE_ID));
+    }
+
+    Assert.assertEquals(TABLE_ID, hedger.execute(engine.tables().get(TABLE_ID)).getId());
+    Assert.assertEquals(1, hedger.getHedgeCount());
+
+    release.countDown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!stalled.isDisconnected() && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertTrue(stalled.isDisconnected());
+  }
+
+  @Test
+  public void testSamplingContinuesPastIntegerRange() throws Exception {
+    HedgedRequestExecutor hedger = new HedgedRequestExecutor(threads, 99, null, null);
+    warmUp(hedger);
+    hedger.sampled.set(Integer.MAX_VALUE - HedgedRequestExecutor.MIN_SAMPLES);
+
+    // recording carries on, and keeps the hedge delay up to date, once past 2^31 samples
+    server.stallNext.set(0);
+    for (int i = 0; i < 2 * HedgedRequestExecutor.MIN_SAMPLES; i++) {
+      Assert.assertEquals(TABLE_ID, hedger.execute(engine.tables().get(TABLE_ID)).getId());
+    }
+    Assert.assertTrue(hedger.sampled.get() > Integer.MAX_VALUE);
+    Assert.assertTrue(hedger.getHedgeDelayMillis() >= 0);
+  }
+
+  @Test
+  public void testHedgesSpendRetryBudget() throws Exception {
+    HedgedRequestExecutor hedger =
+        new HedgedRequestExecutor(threads, 99, new RetryBudget(0, 0), null);
+    warmUp(hedger);
+
+    server.stallNext.set(1);
+    int requests = server.getRequestCount();
+    long start = System.nanoTime();
+    Assert.assertEquals(TABLE_ID, hedger.execute(engine.tables().get(TABLE_ID)).getId());
+
+    // no budget, so the slow response had to be waited for
+    Assert.assertTrue(System.nanoTime() - start >= 500 * 1000 * 1000L);
+    Assert.assertEquals(requests + 1, server.getRequestCount());
+    Assert.assertEquals(0, hedger.getHedgeCount());
+  }
+}
@@ -1,9 +1,26 @@
 package com.google.maps.clients;
 
+import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.Sleeper;
 
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -13,7 +30,10 @@ import org.powermock.api.easymock.PowerMock;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Tests for {@link com.google.maps.clients.HttpRequestInitializerPipeline}.
@@ -31,6 +51,12 @@ public class HttpRequestInitializerPipelineTest {
     HttpRequestInitializer secondInitializer =
         mockController.createMock(HttpRequestInitializer.class);
     HttpRequest httpRequest = PowerMock.createMock(HttpRequest.class);
+    // the pipeline composes anything the initializers install with what was already there
+    expect(httpRequest.getInterceptor()).andStubReturn(null);
+    expect(httpRequest.getResponseInterceptor()).andStubReturn(null);
+    expect(httpRequest.getUnsuccessfulResponseHandler()).andStubReturn(null);
+    expect(httpRequest.getIOExceptionHandler()).andStubReturn(null);
+    PowerMock.replay(httpRequest);
 
     // ordering matters here.  we want first then second, one execution each.
     firstInitializer.initialize(httpRequest);
@@ -59,6 +85,12 @@ public class HttpRequestInitializerPipelineTest {
     HttpRequestInitializer secondInitializer =
         mockController.createMock(HttpRequestInitializer.class);
     HttpRequest httpRequest = PowerMock.createMock(HttpRequest.class);
+    // the pipeline composes anything the initializers install with what was already there
+    expect(httpRequest.getInterceptor()).andStubReturn(null);
+    expect(httpRequest.getResponseInterceptor()).andStubReturn(null);
+    expect(httpRequest.getUnsuccessfulResponseHandler()).andStubReturn(null);
+    expect(httpRequest.getIOExceptionHandler()).andStubReturn(null);
+    PowerMock.replay(httpRequest);
 
     // ordering matters here.  we want first then second, one execution each.
     firstInitializer.initialize(httpRequest);
@@ -76,4 +108,183 @@ public class HttpRequestInitializerPipelineTest {
     // verify
     mockController.verify();
   }
+
+  @Test
+  public void testPipelineComposesHandlers() throws Exception {
+    final int[] statusCodes = {401, 503, 200};
+    final int[] attempts = {0};
+    final List<String> calls = new ArrayList<String>();
+    MockHttpTransport transport = new ScriptedServer() {
+      @Override
+      protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+        return new MockLowLevelHttpResponse().setStatusCode(statusCodes[attempts[0]++]);
+      }
+    };
+
+    HttpResponse response = transport.createRequestFactory(new HttpRequestInitializerPipeline(
+        new RetryingInitializer("refresh", 401, calls),
+        new RetryingInitializer("backOff", 503, calls)))
+        .buildGetRequest(new GenericUrl("http://example.com/"))
+        .execute();
+
+    // both interceptors ran on each attempt, and each handler retried its own status code
+    assertEquals(200, response.getStatusCode());
+    assertEquals(Arrays.asList("refresh", "backOff", "refresh 401", "refresh", "backOff",
+        "refresh 503", "backOff 503", "refresh", "backOff"), calls);
+  }
+
+  /** Replaces the request's interceptor and handler, like a credential does. */
+  private static class RetryingInitializer implements HttpRequestInitializer,
+      HttpExecuteInterceptor, HttpUnsuccessfulResponseHandler {
+    private final String name;
+    private final int statusCode;
+    private final List<String> calls;
+
+    RetryingInitializer(String name, int statusCode, List<String> calls) {
+      this.name = name;
+      this.statusCode = statusCode;
+      this.calls = calls;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setInterceptor(this);
+      request.setUnsuccessfulResponseHandler(this);
+    }
+
+    @Override
+    public void intercept(HttpRequest request) {
+      calls.add(name);
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+        boolean supportsRetry) {
+      calls.add(name + " " + response.getStatusCode());
+      return response.getStatusCode() == statusCode;
+    }
+  }
+
+  @Test
+  public void testPipelineTracesEachStage() throws Exception {
+    final List<String> traceparents = new ArrayList<String>();
+    MockHttpTransport transport = new ScriptedServer() {
+      @Override
+      protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+        traceparents.add(request.getFirstHeaderValue("traceparent"));
+        // fail the first attempt, so it's retried
+        return new MockLowLevelHttpResponse().setStatusCode(traceparents.size() == 1 ? 503 : 200);
+      }
+    };
+    HttpRequestInitializer interceptorInstaller = new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) {
+        request.setInterceptor(new HttpExecuteInterceptor() {
+          @Override
+          public void intercept(HttpRequest request) {}
+        });
+      }
+    };
+    HttpRequestInitializer retrier = new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) {
+        request.setUnsuccessfulResponseHandler(
+            new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff())
+                .setSleeper(new Sleeper() {
+                  @Override
+                  public void sleep(long millis) {}
+                }));
+      }
+    };
+    RingBufferSpanSink spans = new RingBufferSpanSink(100);
+
+    HttpResponse response = transport.createRequestFactory(
+        new HttpRequestInitializerPipeline(spans, interceptorInstaller, retrier))
+        .buildGetRequest(new GenericUrl("http://example.com/"))
+        .execute();
+    assertEquals(200, response.getStatusCode());
+
+    // two initializers, two attempts each intercepted, one failure handled after backing off
+    List<String> names = new ArrayList<String>();
+    for (Span span : spans.getSpans()) {
+      names.add(span.getName().replaceAll(" .*\\$.*", " anonymous"));
+    }
+    assertEquals(Arrays.asList("initialize anonymous", "initialize anonymous",
+        "intercept anonymous", "backOff", "handleResponse anonymous", "intercept anonymous",
+        "execute GET"), names);
+
+    Span root = spans.getSpans().get(6);
+    assertNull(root.getParentSpanId());
+    assertFalse(root.isError());
+    for (Span span : spans.getSpans()) {
+      assertEquals(root.getTraceId(), span.getTraceId());
+      assertTrue(span == root || root.getSpanId().equals(span.getParentSpanId()));
+    }
+    String traceparent = "00-" + root.getTraceId() + "-" + root.getSpanId() + "-01";
+    assertEquals(Arrays.asList(traceparent, traceparent), traceparents);
+  }
+
+  @Test
+  public void testPipelineContinuesIncomingTrace() throws Exception {
+    RingBufferSpanSink spans = new RingBufferSpanSink(10);
+    HttpRequest request = new MockHttpTransport().createRequestFactory()
+        .buildGetRequest(new GenericUrl("http://example.com/"));
+    request.getHeaders().set("traceparent",
+        "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+    new HttpRequestInitializerPipeline(spans).initialize(request);
+    request.execute();
+
+    assertEquals(1, spans.getSpans().size());
+    Span root = spans.getSpans().get(0);
+    assertEquals("0af7651916cd43dd8448eb211c80319c", root.getTraceId());
+    assertEquals("b7ad6b7169203331", root.getParentSpanId());
+  }
+
+  @Test
+  public void testPipelineTracesFailedRequests() throws Exception {
+    MockHttpTransport transport = new ScriptedServer() {
+      @Override
+      protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+          throws IOException {
+        throw new IOException("Connection reset");
+      }
+    };
+    final boolean[] open = {true};
+    HttpRequestInitializer breaker = new HttpRequestInitializer() {
+      @Override
+      public void initialize(HttpRequest request) {
+        request.setInterceptor(new HttpExecuteInterceptor() {
+          @Override
+          public void intercept(HttpRequest request) throws IOException {
+            if (!open[0]) {
+              throw new IOException("Circuit is open");
+            }
+          }
+        });
+      }
+    };
+
+    // the transport fails, then an interceptor does
+    for (String failure : Arrays.asList("Connection reset", "Circuit is open")) {
+      RingBufferSpanSink spans = new RingBufferSpanSink(10);
+      try {
+        transport.createRequestFactory(new HttpRequestInitializerPipeline(spans, breaker))
+            .buildGetRequest(new GenericUrl("http://example.com/"))
+            .execute();
+        fail("Expected the request to fail");
+      } catch (IOException e) {
+        assertEquals(failure, e.getMessage());
+      }
+      open[0] = false;
+
+      List<Span> traced = spans.getSpans();
+      Span root = traced.get(traced.size() - 1);
+      assertEquals("execute GET", root.getName());
+      assertTrue(root.isError());
+      assertNull(root.getParentSpanId());
+      for (Span span : traced.subList(0, traced.size() - 1)) {
+        assertEquals(root.getSpanId(), span.getParentSpanId());
+      }
+    }
+  }
 }
@@ -0,0 +1,175 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link com.google.maps.clients.HttpResponseCache}.
+ */
+@RunWith(JUnit4.class)
+public class HttpResponseCacheTest {
+
+  private static final String TABLE_URL = "https://www.googleapis.com/mapsengine/v1/tables/1234";
+  private static final String TABLE_JSON = "{\"id\": \"1234\", \"name\": \"Cached table\"}";
+
+  /** A server that hands out a fixed ETag for each URL and honours If-None-Match. */
+  private static class EtagServer extends ScriptedServer {
+    final List<Integer> statusCodes = new ArrayList<Integer>();
+    final List<String> ifNoneMatchHeaders = new ArrayList<String>();
+
+    // run while the next GET is being answered, as though by another thread
+    Runnable duringNextGet;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      if ("GET".equals(method) && duringNextGet != null) {
+        Runnable during = duringNextGet;
+        duringNextGet = null;
+        during.run();
+      }
+      String etag = "\"etag-" + request.getUrl().hashCode() + "\"";
+      String ifNoneMatch = request.getFirstHeaderValue("If-None-Match");
+      ifNoneMatchHeaders.add(ifNoneMatch);
+
+      MockLowLevelHttpResponse response = etag.equals(ifNoneMatch)
+          ? new MockLowLevelHttpResponse().setStatusCode(304)
+          : json(200, TABLE_JSON).addHeader("ETag", etag);
+      statusCodes.add(response.getStatusCode());
+      return response;
+    }
+  }
+
+  @Test
+  public void testNotModifiedResponseIsServedFromCache() throws Exception {
+    EtagServer server = new EtagServer();
+    HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+    HttpRequestFactory requestFactory = cache.wrap(server).createRequestFactory(cache);
+
+    HttpResponse first = requestFactory.buildGetRequest(new GenericUrl(TABLE_URL)).execute();
+    Assert.assertEquals(TABLE_JSON, first.parseAsString());
+
+    HttpResponse second = requestFactory.buildGetRequest(new GenericUrl(TABLE_URL)).execute();
+    Assert.assertEquals(200, second.getStatusCode());
+    Assert.assertEquals(TABLE_JSON, second.parseAsString());
+
+    // the second request was conditional, and the server didn't need to send the body
+    Assert.assertNull(server.ifNoneMatchHeaders.get(0));
+    Assert.assertNotNull(server.ifNoneMatchHeaders.get(1));
+    Assert.assertEquals(Integer.valueOf(304), server.statusCodes.get(1));
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedResponsesAreEvicted() throws Exception {
+    EtagServer server = new EtagServer();
+    // room for two bodies, in a single segment
+    HttpResponseCache cache = new HttpResponseCache(2 * TABLE_JSON.length(), 1);
+    HttpRequestFactory requestFactory = cache.wrap(server).createRequestFactory(cache);
+
+    requestFactory.buildGetRequest(new GenericUrl(TABLE_URL + "?a")).execute().ignore();
+    requestFactory.buildGetRequest(new GenericUrl(TABLE_URL + "?b")).execute().ignore();
+    // touch a, so b becomes the eldest
+    requestFactory.buildGetRequest(new GenericUrl(TABLE_URL + "?a")).execute().ignore();
+    requestFactory.buildGetRequest(new GenericUrl(TABLE_URL + "?c")).execute().ignore();
+
+    Assert.assertNotNull(cache.get(TABLE_URL + "?a"));
+    Assert.assertNull(cache.get(TABLE_URL + "?b"));
+    Assert.assertNotNull(cache.get(TABLE_URL + "?c"));
+    Assert.assertEquals(2 * TABLE_JSON.length(), cache.getSize());
+  }
+
+  @Test
+  public void testEvictedEntryIsRefetched() throws Exception {
+    EtagServer server = new EtagServer();
+    HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+    HttpRequestFactory requestFactory = cache.wrap(server).createRequestFactory(cache);
+
+    requestFactory.buildGetRequest(new GenericUrl(TABLE_URL)).execute().ignore();
+
+    // evict between the request being prepared and the response arriving
+    HttpRequestFactory evictingFactory = cache.wrap(server).createRequestFactory(
+        new HttpRequestInitializerPipeline(cache, new InvalidatingInitializer(cache)));
+    HttpResponse response =
+        evictingFactory.buildGetRequest(new GenericUrl(TABLE_URL)).execute();
+
+    Assert.assertEquals(TABLE_JSON, response.parseAsString());
+    Assert.assertEquals(3, server.statusCodes.size());
+    Assert.assertEquals(Integer.valueOf(304), server.statusCodes.get(1));
+    Assert.assertEquals(Integer.valueOf(200), server.statusCodes.get(2));
+  }
+
+  @Test
+  public void testResponseFetchedDuringWriteIsNotCached() throws Exception {
+    EtagServer server = new EtagServer();
+    HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+    final HttpRequestFactory requestFactory = cache.wrap(server).createRequestFactory(cache);
+
+    // the table is written while its old body is on the way back
+    server.duringNextGet = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          requestFactory.buildDeleteRequest(new GenericUrl(TABLE_URL)).execute().ignore();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    HttpResponse response = requestFactory.buildGetRequest(new GenericUrl(TABLE_URL)).execute();
+
+    Assert.assertEquals(TABLE_JSON, response.parseAsString());
+    Assert.assertNull(cache.get(TABLE_URL));
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testWritesInvalidateCachedResponse() throws Exception {
+    EtagServer server = new EtagServer();
+    HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+    HttpRequestFactory requestFactory = cache.wrap(server).createRequestFactory(cache);
+
+    requestFactory.buildGetRequest(new GenericUrl(TABLE_URL)).execute().ignore();
+    Assert.assertNotNull(cache.get(TABLE_URL));
+
+    requestFactory.buildDeleteRequest(new GenericUrl(TABLE_URL)).execute().ignore();
+    Assert.assertNull(cache.get(TABLE_URL));
+  }
+
+  /** Clears the cache once the conditional header has been added. */
+  private static class InvalidatingInitializer implements HttpRequestInitializer {
+    private final HttpResponseCache cache;
+
+    InvalidatingInitializer(HttpResponseCache cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+      final HttpExecuteInterceptor previous = request.getInterceptor();
+      request.setInterceptor(new HttpExecuteInterceptor() {
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+          previous.intercept(request);
+          cache.invalidateAll();
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.google.maps.clients;
+
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link com.google.maps.clients.RateLimitPause}.
+ */
+@RunWith(JUnit4.class)
+public class RateLimitPauseTest {
+
+  /** A clock that only moves when slept on. */
+  private static class FakeTime implements NanoClock, Sleeper {
+    long nanos = 1000;
+    long sleptMillis;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    @Override
+    public void sleep(long millis) {
+      sleptMillis += millis;
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+
+  @Test
+  public void testRejectionPausesEveryRequest() throws Exception {
+    FakeTime time = new FakeTime();
+    RateLimitPause pause = new RateLimitPause(1000, 60000, time, time);
+
+    pause.await();
+    Assert.assertEquals(0, time.sleptMillis);
+
+    pause.onRateLimited();
+    long remaining = pause.getRemainingMillis();
+    Assert.assertTrue(remaining >= 500 && remaining <= 1500);
+
+    // rejections of requests sent before the pause opened don't lengthen it
+    pause.onRateLimited();
+    Assert.assertEquals(remaining, pause.getRemainingMillis());
+
+    pause.await();
+    Assert.assertTrue(time.sleptMillis >= remaining && time.sleptMillis <= remaining + 1);
+    Assert.assertEquals(0, pause.getRemainingMillis());
+    pause.await();
+    Assert.assertTrue(time.sleptMillis <= remaining + 1);
+  }
+
+  @Test
+  public void testWindowGrowsWithRejectionsAndShrinksWithSuccesses() throws Exception {
+    FakeTime time = new FakeTime();
+    RateLimitPause pause = new RateLimitPause(1000, 2000, time, time);
+
+    for (int i = 0; i < 5; i++) {
+      pause.onRateLimited();
+      pause.await();
+    }
+    // grown to the 2s max, with up to 50% jitter
+    pause.onRateLimited();
+    Assert.assertTrue(pause.getRemainingMillis() >= 1000);
+    pause.await();
+
+    for (int i = 0; i < 3; i++) {
+      pause.onSuccess();
+    }
+    pause.onRateLimited();
+    // back to the initial 1s window
+    Assert.assertTrue(pause.getRemainingMillis() <= 1500);
+  }
+
+  @Test
+  public void testDeferringThreadsAreToldHowLongToWait() throws Exception {
+    FakeTime time = new FakeTime();
+    RateLimitPause pause = new RateLimitPause(1000, 60000, time, time);
+    pause.onRateLimited();
+    long remaining = pause.getRemainingMillis();
+
+    RateLimitPause.setDeferring(true);
+    try {
+      pause.await();
+      Assert.fail("Expected the pause to be deferred");
+    } catch (RateLimitPause.PausedException e) {
+      Assert.assertTrue(e.getRemainingMillis() >= remaining
+          && e.getRemainingMillis() <= remaining + 1);
+    } finally {
+      RateLimitPause.setDeferring(false);
+    }
+    Assert.assertEquals(0, time.sleptMillis);
+
+    pause.await();
+    Assert.assertTrue(time.sleptMillis >= remaining);
+  }
+}
@@ -5,6 +5,7 @@ import static org.easymock.EasyMock.replay;
 
 import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler.BackOffRequired;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.json.jackson.JacksonFactory;
 
 import org.junit.Assert;
@@ -17,6 +18,10 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Tests for {@link com.google.maps.clients.RateLimitedBackOffRequired}.
@@ -150,4 +155,124 @@ public class RateLimitedBackOffRequiredTest {
 
     Assert.assertTrue(backOff.isRequired(mockResponse));
   }
+
+  @Test
+  public void testBodyIsRewoundWhenPossible() throws Exception {
+    Charset responseCharset = Charset.forName("UTF-8");
+    String apiResponse = "{\"error\": {\"errors\": [{\"domain\": \"global\","
+        + " \"reason\": \"notFound\", \"message\": \"Not Found\"}],"
+        + " \"code\": 404, \"message\": \"Not Found\"}}";
+    InputStream apiErrorStream = new ByteArrayInputStream(apiResponse.getBytes());
+
+    // mock magic
+    HttpResponse mockResponse = PowerMock.createNiceMock(HttpResponse.class);
+    expect(mockResponse.getContentCharset()).andReturn(responseCharset).anyTimes();
+    expect(mockResponse.getContent()).andReturn(apiErrorStream);
+    replay(mockResponse);
+
+    // code under test
+    RateLimitedBackOffRequired backOff = new RateLimitedBackOffRequired();
+
+    Assert.assertFalse(backOff.isRequired(mockResponse));
+    Assert.assertEquals(apiResponse, backOff.getResponseBody());
+    Assert.assertEquals(apiResponse.length(), apiErrorStream.available());
+  }
+
+  @Test
+  public void testReplayableBodyIsInspectedInPlace() throws Exception {
+    Charset responseCharset = Charset.forName("UTF-8");
+    String apiResponse = "{\"error\": {\"errors\": [{\"domain\": \"global\","
+        + " \"reason\": \"notFound\", \"message\": \"Not Found\"}],"
+        + " \"code\": 404, \"message\": \"Not Found\"}}";
+    ReplayableInputStream apiErrorStream =
+        new ReplayableInputStream(new ByteArrayInputStream(apiResponse.getBytes()));
+
+    // mock magic
+    HttpResponse mockResponse = PowerMock.createNiceMock(HttpResponse.class);
+    expect(mockResponse.getContentCharset()).andReturn(responseCharset).anyTimes();
+    expect(mockResponse.getContent()).andReturn(apiErrorStream);
+    replay(mockResponse);
+
+    // code under test
+    RateLimitedBackOffRequired backOff = new RateLimitedBackOffRequired();
+
+    Assert.assertFalse(backOff.isRequired(mockResponse));
+    Assert.assertEquals(apiResponse, backOff.getResponseBody());
+    // the stream was rewound, and reading it again doesn't change the body that was kept
+    byte[] replayed = new byte[apiResponse.length() + 1];
+    Assert.assertEquals(apiResponse.length(), apiErrorStream.read(replayed));
+    Assert.assertEquals(-1, apiErrorStream.read());
+    Assert.assertEquals(apiResponse, new String(replayed, 0, apiResponse.length(), "UTF-8"));
+    Assert.assertEquals(apiResponse, backOff.getResponseBody());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testSubclassesCanStillReadTheResponseBodyField() throws Exception {
+    Charset responseCharset = Charset.forName("UTF-8");
+    String apiResponse = "{\"error\": {\"errors\": [{\"domain\": \"global\","
+        + " \"reason\": \"notFound\", \"message\": \"Not Found\"}],"
+        + " \"code\": 404, \"message\": \"Not Found\"}}";
+
+    // mock magic
+    HttpResponse mockResponse = PowerMock.createNiceMock(HttpResponse.class);
+    expect(mockResponse.getContentCharset()).andReturn(responseCharset).anyTimes();
+    expect(mockResponse.getContent())
+        .andReturn(new ByteArrayInputStream(apiResponse.getBytes()));
+    replay(mockResponse);
+
+    // code under test
+    final List<String> seen = new ArrayList<String>();
+    RateLimitedBackOffRequired backOff = new RateLimitedBackOffRequired() {
+      @Override
+      public boolean isRequired(HttpResponse httpResponse) {
+        boolean required = super.isRequired(httpResponse);
+        seen.add(QUOTA_EXCEEDED_REASONS.get(0));
+        seen.add(responseBody);
+        return required;
+      }
+    };
+
+    Assert.assertFalse(backOff.isRequired(mockResponse));
+    Assert.assertEquals(Arrays.asList("rateLimitExceeded", apiResponse), seen);
+  }
+
+  @Test
+  public void testReadingStopsOnceReasonIsKnown() throws Exception {
+    Charset responseCharset = Charset.forName("UTF-8");
+    StringBuilder apiResponse = new StringBuilder("{\"error\": {\"errors\": [{\"domain\":"
+        + " \"usageLimits\", \"reason\": \"concurrentLimitExceeded\"}], \"message\": \"");
+    for (int i = 0; i < RateLimitedBackOffRequired.MAX_BODY_BYTES; i++) {
+      apiResponse.append('x');
+    }
+    apiResponse.append("\"}}");
+    InputStream apiErrorStream = new ByteArrayInputStream(apiResponse.toString().getBytes());
+
+    // mock magic
+    HttpResponse mockResponse = PowerMock.createNiceMock(HttpResponse.class);
+    expect(mockResponse.getContentCharset()).andReturn(responseCharset).anyTimes();
+    expect(mockResponse.getStatusCode()).andReturn(403).anyTimes();
+    expect(mockResponse.getContent()).andReturn(apiErrorStream);
+    replay(mockResponse);
+
+    // code under test
+    RateLimitedBackOffRequired backOff = new RateLimitedBackOffRequired(new GsonFactory(),
+        Collections.singleton("concurrentLimitExceeded"), Collections.<Integer>emptySet());
+
+    // the body is larger than the limit, but the reason comes first
+    Assert.assertTrue(backOff.isRequired(mockResponse));
+    Assert.assertTrue(backOff.getResponseBody().length() < apiResponse.length());
+  }
+
+  @Test
+  public void testConstructionAllocationBudget() throws Exception {
+    // one is created for every request, most of which never read an error body
+    AllocationBudget.assertAtMost("new RateLimitedBackOffRequired", 780,
+        new AllocationBudget.Operation() {
+          @Override
+          public void run() {
+            new RateLimitedBackOffRequired().getReason();
+          }
+        });
+  }
 }
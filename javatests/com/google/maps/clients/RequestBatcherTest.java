@@ -0,0 +1,201 @@
+package com.google.maps.clients;
+
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Table;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link com.google.maps.clients.RequestBatcher}.
+ */
+@RunWith(JUnit4.class)
+public class RequestBatcherTest {
+
+  private static final String BOUNDARY = "batch_boundary";
+  private static final Pattern TABLE_REQUEST = Pattern.compile("GET \\S*/tables/(\\w+)");
+  private static final String RATE_LIMITED =
+      ScriptedServer.error(403, "rateLimitExceeded", "Rate Limit Exceeded");
+  private static final String NOT_FOUND = ScriptedServer.error(404, "notFound", "Table not found");
+
+  /**
+   * A batch endpoint serving tables.get.  The table "missing" doesn't exist, and the table
+   * "limited" is rate limited the first time it's requested.
+   */
+  private static class BatchServer extends ScriptedServer {
+    final List<List<String>> batches = new ArrayList<List<String>>();
+    boolean rateLimited = true;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      List<String> tableIds = new ArrayList<String>();
+      Matcher matcher = TABLE_REQUEST.matcher(request.getContentAsString());
+      while (matcher.find()) {
+        tableIds.add(matcher.group(1));
+      }
+      batches.add(tableIds);
+
+      StringBuilder body = new StringBuilder();
+      for (String tableId : tableIds) {
+        body.append("--").append(BOUNDARY).append("\r\n")
+            .append("Content-Type: application/http\r\n\r\n");
+        if ("missing".equals(tableId)) {
+          appendPart(body, "404 Not Found", NOT_FOUND);
+        } else if ("limited".equals(tableId) && rateLimited) {
+          rateLimited = false;
+          appendPart(body, "403 Forbidden", RATE_LIMITED);
+        } else {
+          appendPart(body, "200 OK", "{\"id\": \"" + tableId + "\"}");
+        }
+      }
+      body.append("--").append(BOUNDARY).append("--\r\n");
+
+      return new MockLowLevelHttpResponse()
+          .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+          .setContent(body.toString());
+    }
+
+    private static void appendPart(StringBuilder body, String status, String json) {
+      body.append("HTTP/1.1 ").append(status).append("\r\n")
+          .append("Content-Type: application/json; charset=UTF-8\r\n")
+          .append("Content-Length: ").append(json.length()).append("\r\n\r\n")
+          .append(json).append("\r\n");
+    }
+  }
+
+  /** Records the outcome of each request. */
+  private static class RecordingCallback extends JsonBatchCallback<Table> {
+    final List<String> tables = new ArrayList<String>();
+    final Map<Integer, String> errors = new HashMap<Integer, String>();
+
+    @Override
+    public void onSuccess(Table table, HttpHeaders responseHeaders) {
+      tables.add(table.getId());
+    }
+
+    @Override
+    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+      errors.put(error.getCode(), error.getMessage());
+    }
+  }
+
+  /** Records requested sleeps without sleeping. */
+  private static class RecordingSleeper implements Sleeper {
+    final List<Long> sleeps = new ArrayList<Long>();
+
+    @Override
+    public void sleep(long millis) {
+      sleeps.add(millis);
+    }
+  }
+
+  /** Installs a handler that never retries, as a credential does when its token is valid. */
+  private static class CredentialLikeInitializer implements HttpRequestInitializer {
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+            boolean supportsRetry) {
+          return false;
+        }
+      });
+    }
+  }
+
+  private static MapsEngine newEngine(BatchServer server) {
+    return TestEngines.newEngine(server,
+        new HttpRequestInitializerPipeline(new BackOffWhenRateLimitedRequestInitializer()));
+  }
+
+  @Test
+  public void testRequestsAreSentInBatches() throws Exception {
+    BatchServer server = new BatchServer();
+    MapsEngine engine = newEngine(server);
+    RequestBatcher batcher = new RequestBatcher(engine, 2, new RecordingSleeper());
+    RecordingCallback callback = new RecordingCallback();
+
+    batcher.queue(engine.tables().get("a"), callback);
+    Assert.assertEquals(1, batcher.size());
+    Assert.assertTrue(server.batches.isEmpty());
+
+    // filling the batch sends it
+    batcher.queue(engine.tables().get("b"), callback);
+    Assert.assertEquals(0, batcher.size());
+    Assert.assertEquals(1, server.batches.size());
+
+    batcher.queue(engine.tables().get("c"), callback);
+    batcher.flush();
+    batcher.flush();
+
+    Assert.assertEquals(2, server.batches.size());
+    Assert.assertEquals("[a, b]", server.batches.get(0).toString());
+    Assert.assertEquals("[c]", server.batches.get(1).toString());
+    Assert.assertEquals("[a, b, c]", callback.tables.toString());
+  }
+
+  @Test
+  public void testRateLimitedRequestsAreRetriedOnTheirOwn() throws Exception {
+    BatchServer server = new BatchServer();
+    MapsEngine engine = newEngine(server);
+    RecordingSleeper sleeper = new RecordingSleeper();
+    RequestBatcher batcher = new RequestBatcher(engine, 100, sleeper);
+    RecordingCallback callback = new RecordingCallback();
+
+    batcher.queue(engine.tables().get("a"), callback);
+    batcher.queue(engine.tables().get("limited"), callback);
+    batcher.queue(engine.tables().get("missing"), callback);
+    batcher.flush();
+
+    // only the rate limited request is resent, after a single back-off
+    Assert.assertEquals(2, server.batches.size());
+    Assert.assertEquals("[limited]", server.batches.get(1).toString());
+    Assert.assertEquals(1, sleeper.sleeps.size());
+    Assert.assertTrue(sleeper.sleeps.get(0) > 0);
+
+    Assert.assertEquals("[a, limited]", callback.tables.toString());
+    // the error body is still available after being checked for rate limiting
+    Assert.assertEquals("Table not found", callback.errors.get(404));
+  }
+
+  @Test
+  public void testBackOffIsDeferredBehindACredentialHandler() throws Exception {
+    BatchServer server = new BatchServer();
+    MapsEngine engine = TestEngines.newEngine(server, new CredentialLikeInitializer(),
+        new BackOffWhenRateLimitedRequestInitializer(), new RetryBudget());
+    RecordingSleeper sleeper = new RecordingSleeper();
+    RequestBatcher batcher = new RequestBatcher(engine, 100, sleeper);
+    RecordingCallback callback = new RecordingCallback();
+
+    batcher.queue(engine.tables().get("limited"), callback);
+    batcher.queue(engine.tables().get("a"), callback);
+    batcher.flush();
+
+    // the back-off handler composed behind the credential's still defers to the batch
+    Assert.assertEquals(2, server.batches.size());
+    Assert.assertEquals(1, sleeper.sleeps.size());
+    Assert.assertEquals("[a, limited]", callback.tables.toString());
+  }
+}
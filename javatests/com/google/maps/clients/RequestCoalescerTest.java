@@ -0,0 +1,116 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Table;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link com.google.maps.clients.RequestCoalescer}.
+ */
+@RunWith(JUnit4.class)
+public class RequestCoalescerTest {
+
+  private static final String TABLE_JSON = "{\"id\": \"1234\", \"name\": \"Coalesced table\"}";
+
+  /** A server that holds every request until released. */
+  private static class SlowServer extends ScriptedServer {
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile int statusCode = 200;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e.getMessage());
+      }
+      return json(statusCode, statusCode == 200 ? TABLE_JSON : "{}");
+    }
+  }
+
+  private static List<Future<Table>> executeConcurrently(final RequestCoalescer coalescer,
+      final MapsEngine engine, ExecutorService executor, int count) throws Exception {
+    List<Future<Table>> results = new ArrayList<Future<Table>>();
+    for (int i = 0; i < count; i++) {
+      results.add(executor.submit(new Callable<Table>() {
+        @Override
+        public Table call() throws Exception {
+          return coalescer.execute(engine.tables().get("1234"));
+        }
+      }));
+    }
+    return results;
+  }
+
+  private static void waitFor(SlowServer server, RequestCoalescer coalescer, int followers)
+      throws InterruptedException {
+    while (server.getRequestCount() < 1 || coalescer.getWaitingCount() < followers) {
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void testConcurrentIdenticalRequestsShareOneCall() throws Exception {
+    SlowServer server = new SlowServer();
+    MapsEngine engine = TestEngines.newEngine(server);
+    RequestCoalescer coalescer = new RequestCoalescer();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    List<Future<Table>> results = executeConcurrently(coalescer, engine, executor, 8);
+    waitFor(server, coalescer, 7);
+    server.release.countDown();
+
+    Table first = results.get(0).get();
+    Assert.assertEquals("Coalesced table", first.getName());
+    for (Future<Table> result : results) {
+      Assert.assertSame(first, result.get());
+    }
+    Assert.assertEquals(1, server.getRequestCount());
+
+    // once complete, the next request goes to the server again
+    coalescer.execute(engine.tables().get("1234"));
+    Assert.assertEquals(2, server.getRequestCount());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testFailureIsSharedWithWaitingThreads() throws Exception {
+    SlowServer server = new SlowServer();
+    server.statusCode = 404;
+    MapsEngine engine = TestEngines.newEngine(server);
+    RequestCoalescer coalescer = new RequestCoalescer();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    List<Future<Table>> results = executeConcurrently(coalescer, engine, executor, 3);
+    waitFor(server, coalescer, 2);
+    server.release.countDown();
+
+    for (Future<Table> result : results) {
+      try {
+        result.get();
+        Assert.fail("Expected the 404 to be thrown");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+    Assert.assertEquals(1, server.getRequestCount());
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,195 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link com.google.maps.clients.RequestMetrics}.
+ */
+@RunWith(JUnit4.class)
+public class RequestMetricsTest {
+
+  private static final String API = "https://www.googleapis.com/mapsengine/v1/";
+
+  /** A clock that the server moves on by 3ms a request. */
+  private static class FakeClock implements NanoClock {
+    long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+  }
+
+  /** Fails the first request with a back-end error, then answers with a 10 byte body. */
+  private static class SlowServer extends ScriptedServer {
+    final FakeClock clock;
+
+    SlowServer(FakeClock clock) {
+      this.clock = clock;
+    }
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      clock.nanos += TimeUnit.MILLISECONDS.toNanos(3);
+      if (getRequestCount() == 1) {
+        return new MockLowLevelHttpResponse().setStatusCode(503);
+      }
+      return new MockLowLevelHttpResponse().setContent("0123456789")
+          .addHeader("Content-Length", "10");
+    }
+  }
+
+  /** Retries once, after a 100ms back-off. */
+  private static class RetryOnce implements HttpRequestInitializer {
+    final FakeClock clock;
+
+    RetryOnce(FakeClock clock) {
+      this.clock = clock;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+            boolean supportsRetry) {
+          clock.nanos += TimeUnit.MILLISECONDS.toNanos(100);
+          return supportsRetry;
+        }
+      });
+    }
+  }
+
+  /** Retries a 401 once, as a credential refreshing its token would. */
+  private static class RefreshOnce implements HttpRequestInitializer {
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+            boolean supportsRetry) {
+          return response.getStatusCode() == 401 && supportsRetry;
+        }
+      });
+    }
+  }
+
+  /** Backs off without sleeping. */
+  private static class NoSleep implements HttpRequestInitializer {
+    @Override
+    public void initialize(HttpRequest request) {
+      HttpRequestInitializerPipeline.findBackOffHandler(request.getUnsuccessfulResponseHandler(),
+          null).setSleeper(new Sleeper() {
+            @Override
+            public void sleep(long millis) {
+            }
+          });
+    }
+  }
+
+  /** Records the methods it's told about. */
+  private static class RecordingListener implements RequestListener {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onResponse(String method, int statusCode, long latencyNanos, long bytesSent,
+        long bytesReceived) {
+      events.add(method + " " + statusCode);
+    }
+
+    @Override
+    public void onRetry(String method, String reason, long backOffNanos) {
+      events.add(method + " retry " + reason);
+    }
+  }
+
+  @Test
+  public void testRequestsAreMeasured() throws Exception {
+    FakeClock clock = new FakeClock();
+    SlowServer server = new SlowServer(clock);
+    RecordingListener listener = new RecordingListener();
+    RequestMetrics metrics = new RequestMetrics(clock, listener);
+    HttpRequestFactory factory = server.createRequestFactory(
+        new HttpRequestInitializerPipeline(new RetryOnce(clock), metrics));
+
+    factory.buildPostRequest(new GenericUrl(API + "tables/1234/features/batchInsert"),
+        ByteArrayContent.fromString("application/json", "{\"features\": []}")).execute();
+
+    String method = "POST tables/{id}/features/batchInsert";
+    Assert.assertEquals(Collections.singleton(method), metrics.getMethods());
+    Assert.assertEquals(
+        "[" + method + " 503, " + method + " retry 503, " + method + " 200]",
+        listener.events.toString());
+    Assert.assertEquals(2, metrics.getResponseCount(method));
+    // 3ms is in the bucket up to 4096us
+    Assert.assertEquals(4096, metrics.getLatencyPercentileMicros(method, 50));
+    Assert.assertEquals(32, metrics.getBytesSent(method));
+    Assert.assertEquals(10, metrics.getBytesReceived(method));
+    Assert.assertEquals(1, metrics.getRetryCount("503"));
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), metrics.getBackOffNanos());
+  }
+
+  @Test
+  public void testRetriesByOtherHandlersAreCountedByStatusCode() throws Exception {
+    ScriptedServer server = new ScriptedServer() {
+      @Override
+      protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+        switch (getRequestCount()) {
+          case 1:
+            return json(403, error(403, "rateLimitExceeded", "Rate Limit Exceeded"));
+          case 2:
+            return json(401, error(401, "authError", "Invalid Credentials"));
+          default:
+            return json(200, "{}");
+        }
+      }
+    };
+    RequestMetrics metrics = new RequestMetrics();
+    HttpRequestFactory factory = server.createRequestFactory(new HttpRequestInitializerPipeline(
+        new RefreshOnce(), new BackOffWhenRateLimitedRequestInitializer(), new NoSleep(),
+        metrics));
+
+    factory.buildGetRequest(new GenericUrl(API + "tables/1234")).execute();
+
+    // the back-off check's reason is left over from the 403, but the 401 wasn't retried for it
+    Assert.assertEquals(1, metrics.getRetryCount("rateLimitExceeded"));
+    Assert.assertEquals(1, metrics.getRetryCount("401"));
+  }
+
+  @Test
+  public void testMethodNamesHideIds() throws Exception {
+    RequestMetrics metrics = new RequestMetrics();
+    HttpRequestFactory factory = new MockHttpTransport().createRequestFactory();
+
+    Assert.assertEquals("GET tables/{id}/features/{id}", metrics.getMethodName(
+        factory.buildGetRequest(new GenericUrl(API + "tables/1234-5678/features/abc"))));
+    Assert.assertEquals("GET tables", metrics.getMethodName(
+        factory.buildGetRequest(new GenericUrl(API + "tables?projectId=1234"))));
+    Assert.assertEquals("POST layers/{id}/publish", metrics.getMethodName(
+        factory.buildPostRequest(new GenericUrl(API + "layers/1234/publish"), null)));
+    Assert.assertEquals(0, metrics.getResponseCount("GET tables"));
+    Assert.assertEquals(-1, metrics.getLatencyPercentileMicros("GET tables", 50));
+  }
+}
@@ -0,0 +1,96 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link com.google.maps.clients.RetryBudget}.
+ */
+@RunWith(JUnit4.class)
+public class RetryBudgetTest {
+
+  private static final GenericUrl URL =
+      new GenericUrl("https://www.googleapis.com/mapsengine/v1/tables/1234");
+
+  /** Answers every request with the same status. */
+  private static class StatusServer extends ScriptedServer {
+    int statusCode = 200;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      return new MockLowLevelHttpResponse().setStatusCode(statusCode);
+    }
+  }
+
+  /** Retries everything straight away. */
+  private static class AlwaysRetry implements HttpRequestInitializer {
+    @Override
+    public void initialize(HttpRequest request) {
+      request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+            boolean supportsRetry) {
+          return supportsRetry;
+        }
+      });
+    }
+  }
+
+  private static int send(HttpRequestFactory factory, StatusServer server) throws IOException {
+    int before = server.getRequestCount();
+    factory.buildGetRequest(URL).setThrowExceptionOnExecuteError(false).execute();
+    return server.getRequestCount() - before;
+  }
+
+  @Test
+  public void testRetriesAreLimitedToRatioOfSuccesses() throws Exception {
+    StatusServer server = new StatusServer();
+    RetryBudget budget = new RetryBudget(0.5, 2);
+    HttpRequestFactory factory = server.createRequestFactory(
+        new HttpRequestInitializerPipeline(new AlwaysRetry(), budget));
+
+    // the minimum retries can be spent straight away
+    server.statusCode = 503;
+    Assert.assertEquals(3, send(factory, server));
+    Assert.assertEquals(1, send(factory, server));
+
+    // four successes earn two more
+    server.statusCode = 200;
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(1, send(factory, server));
+    }
+    Assert.assertEquals(2.0, budget.getAvailableRetries(), 1e-9);
+    server.statusCode = 503;
+    Assert.assertEquals(3, send(factory, server));
+    Assert.assertEquals(1, send(factory, server));
+  }
+
+  @Test
+  public void testClientErrorsAreLeftToTheHandler() throws Exception {
+    StatusServer server = new StatusServer();
+    RetryBudget budget = new RetryBudget(0.1, 0);
+    HttpRequestFactory factory = server.createRequestFactory(
+        new HttpRequestInitializerPipeline(new AlwaysRetry(), budget));
+
+    // out of budget for server errors, but a 401 is still retried (up to the retry limit)
+    server.statusCode = 503;
+    Assert.assertEquals(1, send(factory, server));
+    server.statusCode = 401;
+    Assert.assertEquals(11, send(factory, server));
+    Assert.assertEquals(0.0, budget.getAvailableRetries(), 1e-9);
+  }
+}
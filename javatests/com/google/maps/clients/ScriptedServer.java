@@ -0,0 +1,68 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A mock server for tests, answering each request with the response a subclass scripts for it,
+ * and counting the requests it has answered.
+ *
+ * {@code ScriptedServer server = new ScriptedServer() {
+ *   protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+ *     return json(200, "{\"id\": \"1234\"}");
+ *   }
+ * };
+ * }
+ */
+public abstract class ScriptedServer extends MockHttpTransport {
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  @Override
+  public LowLevelHttpRequest buildRequest(final String method, String url) {
+    return new MockLowLevelHttpRequest(url) {
+      @Override
+      public LowLevelHttpResponse execute() throws IOException {
+        requestCount.incrementAndGet();
+        return respond(method, this);
+      }
+    };
+  }
+
+  /**
+   * Returns the response to a request.
+   * @param method  The request's HTTP method
+   * @param request  The request, with its URL, headers and content
+   */
+  protected abstract LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+      throws IOException;
+
+  /** Returns the number of requests answered so far. */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  /** Returns a response with a JSON body. */
+  public static MockLowLevelHttpResponse json(int statusCode, String json) {
+    return new MockLowLevelHttpResponse().setStatusCode(statusCode)
+        .setContentType(Json.MEDIA_TYPE).setContent(json);
+  }
+
+  /**
+   * Returns the JSON body of an API error.
+   * @param code  The HTTP status code
+   * @param reason  The reason for the error, e.g. "rateLimitExceeded"
+   * @param message  The error's message
+   */
+  public static String error(int code, String reason, String message) {
+    return "{\"error\": {\"errors\": [{\"reason\": \"" + reason + "\", \"message\": \"" + message
+        + "\"}], \"code\": " + code + ", \"message\": \"" + message + "\"}}";
+  }
+}
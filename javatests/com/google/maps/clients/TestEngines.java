@@ -0,0 +1,36 @@
+package com.google.maps.clients;
+
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.mapsengine.MapsEngine;
+
+/**
+ * Builds API clients for tests that talk to a mock transport, such as a {@link ScriptedServer}.
+ */
+public final class TestEngines {
+
+  public static final String APPLICATION_NAME = "Google-MapsEngineWrapperTest/1.0";
+
+  private TestEngines() {}
+
+  /**
+   * Returns a client that sends its requests to the transport.
+   * @param transport  The transport to send requests to
+   * @param initializers  Initializers for each request: none, one used as it is, or several run
+   *     by an {@link HttpRequestInitializerPipeline}
+   */
+  public static MapsEngine newEngine(HttpTransport transport,
+      HttpRequestInitializer... initializers) {
+    HttpRequestInitializer initializer;
+    if (initializers.length == 0) {
+      initializer = null;
+    } else if (initializers.length == 1) {
+      initializer = initializers[0];
+    } else {
+      initializer = new HttpRequestInitializerPipeline(initializers);
+    }
+    return new MapsEngine.Builder(transport, new GsonFactory(), initializer)
+        .setApplicationName(APPLICATION_NAME).build();
+  }
+}
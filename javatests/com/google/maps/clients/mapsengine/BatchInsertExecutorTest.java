@@ -0,0 +1,152 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.maps.clients.ScriptedServer;
+import com.google.maps.clients.TestEngines;
+import com.google.maps.clients.mapsengine.geojson.Point;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link com.google.maps.clients.mapsengine.BatchInsertExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class BatchInsertExecutorTest {
+
+  private static final String TABLE_ID = "12345678901234567890-12345678901234567890";
+
+  /**
+   * Rejects any batch containing a feature with a "bad" ID, or every batch if told to, and fails
+   * the request numbered {@code failRequest} with a back-end error.  Records the size of each
+   * batch sent.
+   */
+  private static class InsertServer extends ScriptedServer {
+    final List<Integer> batches = new ArrayList<Integer>();
+    int failRequest = -1;
+    boolean rejectAll;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      String body = request.getContentAsString();
+      batches.add(body.split("\"Feature\"", -1).length - 1);
+      if (batches.size() == failRequest) {
+        return json(503, error(503, "backendError", "Backend Error"));
+      } else if (rejectAll) {
+        return json(400, error(400, "invalid", "Column 'colour' does not exist"));
+      } else if (body.contains("\"bad")) {
+        return json(400, error(400, "invalid", "Invalid geometry"));
+      }
+      return json(204, "");
+    }
+  }
+
+  private static List<Feature> features(String... ids) {
+    List<Feature> features = new ArrayList<Feature>();
+    for (String id : ids) {
+      features.add(
+          new Point(0, 0).asFeature(Collections.<String, Object>singletonMap("gx_id", id)));
+    }
+    return features;
+  }
+
+  private static String id(Feature feature) {
+    return (String) feature.getProperties().get("gx_id");
+  }
+
+  @Test
+  public void testInvalidFeatureIsIsolated() throws Exception {
+    InsertServer server = new InsertServer();
+    final List<String> rejected = new ArrayList<String>();
+    BatchInsertExecutor inserter = new BatchInsertExecutor(TestEngines.newEngine(server),
+        TABLE_ID, 4, new BatchInsertExecutor.DeadLetterSink() {
+          @Override
+          public void reject(Feature feature, GoogleJsonResponseException error) {
+            Assert.assertEquals(400, error.getStatusCode());
+            rejected.add(id(feature));
+          }
+        });
+
+    int inserted = inserter.insert(features("0", "1", "2", "3", "4", "bad5", "6", "7", "8", "9"));
+
+    Assert.assertEquals(9, inserted);
+    Assert.assertEquals(Collections.singletonList("bad5"), rejected);
+    // the second batch is halved, then its bad half is halved again
+    Assert.assertEquals("[4, 4, 2, 1, 1, 2, 2]", server.batches.toString());
+  }
+
+  @Test
+  public void testInvalidFeaturesInBothHalvesAreIsolated() throws Exception {
+    InsertServer server = new InsertServer();
+    final List<String> rejected = new ArrayList<String>();
+    BatchInsertExecutor inserter = new BatchInsertExecutor(TestEngines.newEngine(server),
+        TABLE_ID, 4, new BatchInsertExecutor.DeadLetterSink() {
+          @Override
+          public void reject(Feature feature, GoogleJsonResponseException error) {
+            rejected.add(id(feature));
+          }
+        });
+
+    // both halves fail with the batch's own error, but only one feature in each is at fault
+    int inserted = inserter.insert(features("bad0", "1", "2", "bad3"));
+
+    Assert.assertEquals(2, inserted);
+    Assert.assertEquals("[bad0, bad3]", rejected.toString());
+    Assert.assertEquals("[4, 2, 1, 1, 2, 1, 1]", server.batches.toString());
+  }
+
+  @Test
+  public void testRejectedRequestIsNotBisected() throws Exception {
+    InsertServer server = new InsertServer();
+    server.rejectAll = true;
+    BatchInsertExecutor inserter = new BatchInsertExecutor(TestEngines.newEngine(server),
+        TABLE_ID, 4, new BatchInsertExecutor.DeadLetterSink() {
+          @Override
+          public void reject(Feature feature, GoogleJsonResponseException error) {
+            Assert.fail("Expected no feature to be rejected on its own");
+          }
+        });
+
+    try {
+      inserter.insert(features("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"));
+      Assert.fail("Expected the rejected request to be thrown");
+    } catch (BatchInsertExecutor.PartialInsertException e) {
+      Assert.assertEquals(400, ((GoogleJsonResponseException) e.getCause()).getStatusCode());
+      Assert.assertEquals(10, e.getRemaining().size());
+    }
+    // every feature of the first batch fails on its own just as it did, so no more are sent
+    Assert.assertEquals("[4, 2, 1, 1, 2, 1, 1]", server.batches.toString());
+  }
+
+  @Test
+  public void testUninsertedFeaturesAreReported() throws Exception {
+    InsertServer server = new InsertServer();
+    server.failRequest = 2;
+    BatchInsertExecutor inserter =
+        new BatchInsertExecutor(TestEngines.newEngine(server), TABLE_ID, 3, null);
+
+    try {
+      inserter.insert(features("0", "1", "2", "3", "4", "5", "6", "7"));
+      Assert.fail("Expected the back-end error to be thrown");
+    } catch (BatchInsertExecutor.PartialInsertException e) {
+      Assert.assertEquals(503, ((GoogleJsonResponseException) e.getCause()).getStatusCode());
+      List<String> remaining = new ArrayList<String>();
+      for (Feature feature : e.getRemaining()) {
+        remaining.add(id(feature));
+      }
+      Assert.assertEquals("[3, 4, 5, 6, 7]", remaining.toString());
+    }
+    Assert.assertEquals("[3, 3]", server.batches.toString());
+  }
+}
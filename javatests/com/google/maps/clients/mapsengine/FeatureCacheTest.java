@@ -0,0 +1,211 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.util.NanoClock;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.api.services.mapsengine.model.FeaturesBatchDeleteRequest;
+import com.google.maps.clients.ScriptedServer;
+import com.google.maps.clients.TestEngines;
+import com.google.maps.clients.mapsengine.geojson.LineString;
+import com.google.maps.clients.mapsengine.geojson.Point;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link com.google.maps.clients.mapsengine.FeatureCache}.
+ */
+@RunWith(JUnit4.class)
+public class FeatureCacheTest {
+
+  private static final String TABLE_ID = "12345678901234567890-12345678901234567890";
+
+  /** A clock that only moves when told to. */
+  private static class FakeClock implements NanoClock {
+    long nanos;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+  }
+
+  private static Feature pointFeature(String gxId) {
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("gx_id", gxId);
+    return new Point(-33.8, 151.2).asFeature(properties);
+  }
+
+  private static Feature lineFeature(String gxId, int vertices) {
+    Point[] points = new Point[vertices];
+    for (int i = 0; i < vertices; i++) {
+      points[i] = new Point(i, i);
+    }
+    Map<String, Object> properties = new HashMap<String, Object>();
+    properties.put("gx_id", gxId);
+    return new LineString(Arrays.asList(points)).asFeature(properties);
+  }
+
+  @Test
+  public void testCachedFeatureIsDecoded() throws Exception {
+    FeatureCache cache = new FeatureCache(100, 1, TimeUnit.MINUTES);
+    cache.put(TABLE_ID, "1", pointFeature("1"));
+
+    FeatureCache.CachedFeature cached = cache.getIfPresent(TABLE_ID, "1");
+    Assert.assertTrue(cached.getGeometry() instanceof Point);
+    Assert.assertEquals(-33.8, ((Point) cached.getGeometry()).latitude, 1e-9);
+    Assert.assertEquals("1", cached.getProperties().get("gx_id"));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "2"));
+    Assert.assertNull(cache.getIfPresent("another table", "1"));
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testCacheIsBoundedByVertexCount() throws Exception {
+    FeatureCache cache = new FeatureCache(10, 1, TimeUnit.MINUTES, 1, new FakeClock());
+    cache.put(TABLE_ID, "line", lineFeature("line", 8));
+    cache.put(TABLE_ID, "point", pointFeature("point"));
+    Assert.assertEquals(9, cache.getVertexCount());
+
+    // too big to ever fit
+    cache.put(TABLE_ID, "huge", lineFeature("huge", 11));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "huge"));
+    Assert.assertEquals(9, cache.getVertexCount());
+  }
+
+  @Test
+  public void testFrequentlyUsedFeaturesAreNotDisplacedByOneOffs() throws Exception {
+    FeatureCache cache = new FeatureCache(10, 1, TimeUnit.MINUTES, 1, new FakeClock());
+    cache.put(TABLE_ID, "hot", lineFeature("hot", 8));
+    for (int i = 0; i < 5; i++) {
+      cache.getIfPresent(TABLE_ID, "hot");
+    }
+
+    // a one-off lookup doesn't earn enough to push out the popular feature
+    cache.getIfPresent(TABLE_ID, "cold");
+    cache.put(TABLE_ID, "cold", lineFeature("cold", 8));
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "hot"));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "cold"));
+
+    // but one requested more often than the resident feature does
+    for (int i = 0; i < 10; i++) {
+      cache.getIfPresent(TABLE_ID, "cold");
+    }
+    cache.put(TABLE_ID, "cold", lineFeature("cold", 8));
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "cold"));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "hot"));
+  }
+
+  @Test
+  public void testEveryDisplacedFeatureIsLessPopular() throws Exception {
+    FeatureCache cache = new FeatureCache(10, 1, TimeUnit.MINUTES, 1, new FakeClock());
+    cache.getIfPresent(TABLE_ID, "cold");
+    for (int i = 0; i < 3; i++) {
+      cache.getIfPresent(TABLE_ID, "heavy");
+    }
+    for (int i = 0; i < 5; i++) {
+      cache.getIfPresent(TABLE_ID, "hot");
+    }
+    cache.put(TABLE_ID, "cold", lineFeature("cold", 3));
+    cache.put(TABLE_ID, "hot", lineFeature("hot", 6));
+
+    // more popular than the eldest feature, but it would also need room the hot feature holds
+    cache.put(TABLE_ID, "heavy", lineFeature("heavy", 9));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "heavy"));
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "cold"));
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "hot"));
+    Assert.assertEquals(9, cache.getVertexCount());
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    FakeClock clock = new FakeClock();
+    FeatureCache cache = new FeatureCache(100, 10, TimeUnit.SECONDS, 1, clock);
+    cache.put(TABLE_ID, "1", pointFeature("1"));
+
+    clock.nanos += TimeUnit.SECONDS.toNanos(9);
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "1"));
+
+    clock.nanos += TimeUnit.SECONDS.toNanos(1);
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "1"));
+    Assert.assertEquals(0, cache.getVertexCount());
+  }
+
+  @Test
+  public void testBatchDeleteInvalidatesFeatures() throws Exception {
+    FeatureCache cache = new FeatureCache(100, 1, TimeUnit.MINUTES);
+    cache.put(TABLE_ID, "1", pointFeature("1"));
+    cache.put(TABLE_ID, "2", pointFeature("2"));
+    cache.put(TABLE_ID, "3", pointFeature("3"));
+
+    FeaturesBatchDeleteRequest request = new FeaturesBatchDeleteRequest();
+    request.setGxIds(Arrays.asList("1", "3"));
+    cache.invalidate(TABLE_ID, request);
+
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "1"));
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "2"));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "3"));
+
+    cache.invalidateTable(TABLE_ID);
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "2"));
+  }
+
+  /** Serves a point feature for any ID, running a task while each fetch is in flight. */
+  private static class FeatureServer extends ScriptedServer {
+    Runnable duringFetch;
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      if (duringFetch != null) {
+        duringFetch.run();
+      }
+      return json(200, "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\","
+          + " \"coordinates\": [151.2, -33.8]}, \"properties\": {\"gx_id\": \"1\"}}");
+    }
+  }
+
+  @Test
+  public void testFetchOverlappingAnInvalidationIsNotCached() throws Exception {
+    final FeatureCache cache = new FeatureCache(100, 1, TimeUnit.MINUTES);
+    FeatureServer server = new FeatureServer();
+    MapsEngine engine = TestEngines.newEngine(server);
+
+    // the feature is patched, and invalidated, after the fetch has read it
+    server.duringFetch = new Runnable() {
+      @Override
+      public void run() {
+        cache.invalidate(TABLE_ID, Collections.singleton("1"));
+      }
+    };
+    Assert.assertNotNull(cache.get(engine, TABLE_ID, "1"));
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "1"));
+
+    // the same for a whole table
+    server.duringFetch = new Runnable() {
+      @Override
+      public void run() {
+        cache.invalidateTable(TABLE_ID);
+      }
+    };
+    cache.get(engine, TABLE_ID, "1");
+    Assert.assertNull(cache.getIfPresent(TABLE_ID, "1"));
+
+    // fetches that don't overlap an invalidation are cached
+    server.duringFetch = null;
+    cache.get(engine, TABLE_ID, "1");
+    cache.get(engine, TABLE_ID, "1");
+    Assert.assertEquals(3, server.getRequestCount());
+    Assert.assertNotNull(cache.getIfPresent(TABLE_ID, "1"));
+  }
+}
@@ -0,0 +1,152 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.maps.clients.ScriptedServer;
+import com.google.maps.clients.TestEngines;
+import com.google.maps.clients.mapsengine.geojson.Point;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link com.google.maps.clients.mapsengine.FeaturePublisher} and
+ * {@link com.google.maps.clients.mapsengine.BatchInsertSubscriber}.
+ */
+@RunWith(JUnit4.class)
+public class FeaturePublisherTest {
+
+  private static final String TABLE_ID = "12345678901234567890-12345678901234567890";
+  private static final Pattern PAGE_TOKEN = Pattern.compile("pageToken=(\\d+)");
+
+  /** Serves a table of 7 points, 3 to a page, and records batchInserts. */
+  private static class FeatureServer extends ScriptedServer {
+    int pagesServed;
+    final List<Integer> inserted = new ArrayList<Integer>();
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request)
+        throws IOException {
+      if ("POST".equals(method)) {
+        inserted.add(request.getContentAsString().split("\"Feature\"", -1).length - 1);
+        return json(204, "");
+      }
+
+      Matcher matcher = PAGE_TOKEN.matcher(request.getUrl());
+      int page = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+      pagesServed++;
+      StringBuilder json = new StringBuilder("{\"type\": \"FeatureCollection\", ");
+      if (page < 2) {
+        json.append("\"nextPageToken\": \"").append(page + 1).append("\", ");
+      }
+      json.append("\"features\": [");
+      for (int i = page * 3; i < Math.min(7, page * 3 + 3); i++) {
+        json.append(i % 3 == 0 ? "" : ", ")
+            .append("{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", ")
+            .append("\"coordinates\": [").append(i).append(", 0]}, ")
+            .append("\"properties\": {\"gx_id\": \"").append(i).append("\"}}");
+      }
+      return json(200, json.append("]}").toString());
+    }
+  }
+
+  /** A subscriber that only requests when told to. */
+  private static class ManualSubscriber implements Subscriber<TypedFeature> {
+    Subscription subscription;
+    final List<TypedFeature> features = new ArrayList<TypedFeature>();
+    boolean complete;
+    Throwable error;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(TypedFeature feature) {
+      features.add(feature);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+
+    @Override
+    public void onComplete() {
+      complete = true;
+    }
+  }
+
+  @Test
+  public void testPagesAreFetchedOnDemand() throws Exception {
+    FeatureServer server = new FeatureServer();
+    MapsEngine engine = TestEngines.newEngine(server);
+    FeaturePublisher publisher = new FeaturePublisher(engine.tables().features().list(TABLE_ID));
+    ManualSubscriber subscriber = new ManualSubscriber();
+    publisher.subscribe(subscriber);
+    Assert.assertEquals(0, server.pagesServed);
+
+    subscriber.subscription.request(2);
+    Assert.assertEquals(1, server.pagesServed);
+    Assert.assertEquals(2, subscriber.features.size());
+    Assert.assertEquals(1.0, ((Point) subscriber.features.get(1).getGeometry()).longitude, 1e-9);
+
+    // the rest of the first page is delivered before the second is fetched
+    subscriber.subscription.request(1);
+    Assert.assertEquals(1, server.pagesServed);
+    subscriber.subscription.request(1);
+    Assert.assertEquals(2, server.pagesServed);
+    Assert.assertEquals("3", subscriber.features.get(3).getProperties().get("gx_id"));
+
+    subscriber.subscription.request(Long.MAX_VALUE);
+    Assert.assertEquals(3, server.pagesServed);
+    Assert.assertEquals(7, subscriber.features.size());
+    Assert.assertTrue(subscriber.complete);
+    Assert.assertNull(subscriber.error);
+
+    // only one subscriber is allowed
+    ManualSubscriber another = new ManualSubscriber();
+    publisher.subscribe(another);
+    Assert.assertTrue(another.error instanceof IllegalStateException);
+  }
+
+  @Test
+  public void testCancelStopsFetching() throws Exception {
+    FeatureServer server = new FeatureServer();
+    MapsEngine engine = TestEngines.newEngine(server);
+    ManualSubscriber subscriber = new ManualSubscriber();
+    new FeaturePublisher(engine.tables().features().list(TABLE_ID)).subscribe(subscriber);
+
+    subscriber.subscription.request(3);
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(3);
+    Assert.assertEquals(1, server.pagesServed);
+    Assert.assertEquals(3, subscriber.features.size());
+    Assert.assertFalse(subscriber.complete);
+  }
+
+  @Test
+  public void testFeaturesCanBeCopiedInBatches() throws Exception {
+    FeatureServer server = new FeatureServer();
+    MapsEngine engine = TestEngines.newEngine(server);
+    BatchInsertSubscriber inserter = new BatchInsertSubscriber(engine, "copy", 2);
+
+    new FeaturePublisher(engine.tables().features().list(TABLE_ID)).subscribe(inserter);
+    inserter.await();
+
+    Assert.assertEquals("[2, 2, 2, 1]", server.inserted.toString());
+    Assert.assertEquals(7, inserter.getInsertedCount());
+  }
+}
@@ -0,0 +1,204 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.services.mapsengine.model.Feature;
+import com.google.maps.clients.AsyncRequestExecutor;
+import com.google.maps.clients.ScriptedServer;
+import com.google.maps.clients.TestEngines;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link com.google.maps.clients.mapsengine.InListQuery}.
+ */
+@RunWith(JUnit4.class)
+public class InListQueryTest {
+
+  private static final String TABLE_ID = "12345678901234567890-12345678901234567890";
+  private static final int MAX_URL_LENGTH = 600;
+
+  /**
+   * Answers each query with a feature for every value in its IN list, over two pages, plus a
+   * feature that every query matches.
+   */
+  private static class InListServer extends ScriptedServer {
+    final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected LowLevelHttpResponse respond(String method, MockLowLevelHttpRequest request) {
+      urls.add(request.getUrl());
+      GenericUrl parsed = new GenericUrl(request.getUrl());
+      String where = (String) parsed.getFirst("where");
+      String[] values = where.substring(where.indexOf('(') + 1, where.length() - 1).split(", ");
+      boolean secondPage = parsed.getFirst("pageToken") != null;
+
+      StringBuilder json = new StringBuilder("{\"type\": \"FeatureCollection\", ");
+      if (!secondPage) {
+        json.append("\"nextPageToken\": \"2\", ");
+      }
+      json.append("\"features\": [").append(feature("shared"));
+      for (int i = secondPage ? 1 : 0; i < values.length; i += 2) {
+        json.append(", ").append(feature(values[i]));
+      }
+      return json(200, json.append("]}").toString());
+    }
+
+    private static String feature(String value) {
+      return "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [0, 0]},"
+          + " \"properties\": {\"gx_id\": \"" + value.replace("'", "") + "\"}}";
+    }
+  }
+
+  @Test
+  public void testValuesAreSplitIntoFullQueries() throws Exception {
+    InListServer server = new InListServer();
+    InListQuery query =
+        new InListQuery(TestEngines.newEngine(server), TABLE_ID, "name", null, MAX_URL_LENGTH);
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      values.add("O'Name " + i);
+    }
+    values.add("O'Name 0");
+
+    List<String> clauses = query.getWhereClauses(values);
+    int matched = 0;
+    for (int i = 0; i < clauses.size(); i++) {
+      String clause = clauses.get(i);
+      Assert.assertTrue(clause, clause.startsWith("name IN ('O\\'Name "));
+      matched += clause.split(", ").length;
+      // only the last query may have room for another value
+      if (i < clauses.size() - 1) {
+        String url = TestEngines.newEngine(server).tables().features().list(TABLE_ID)
+            .setWhere(clause.replace(")", ", 'O\\'Name 499')")).setPageToken("")
+            .buildHttpRequestUrl().build();
+        Assert.assertTrue(url.length() + 200 > MAX_URL_LENGTH);
+      }
+    }
+    Assert.assertEquals(500, matched);
+  }
+
+  @Test
+  public void testQueriesAreMergedAndDeduplicated() throws Exception {
+    InListServer server = new InListServer();
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(4);
+    InListQuery query = new InListQuery(TestEngines.newEngine(server), TABLE_ID, "id", executor,
+        MAX_URL_LENGTH);
+    List<Integer> values = new ArrayList<Integer>();
+    for (int i = 0; i < 300; i++) {
+      values.add(i);
+    }
+
+    List<Feature> features;
+    try {
+      features = query.list(values);
+    } finally {
+      executor.shutdown();
+    }
+
+    int queries = query.getWhereClauses(values).size();
+    Assert.assertTrue(queries > 1);
+    // two pages for each query
+    Assert.assertEquals(queries * 2, server.urls.size());
+    for (String url : server.urls) {
+      Assert.assertTrue(url, url.length() <= MAX_URL_LENGTH);
+    }
+    Set<Object> ids = new HashSet<Object>();
+    for (Feature feature : features) {
+      ids.add(feature.getProperties().get("gx_id"));
+    }
+    Assert.assertEquals(301, features.size());
+    Assert.assertEquals(301, ids.size());
+  }
+
+  @Test
+  public void testPagesAreFetchedAsFeaturesAreRequested() throws Exception {
+    InListServer server = new InListServer();
+    ScheduledThreadPoolExecutor threads = new ScheduledThreadPoolExecutor(4);
+    AsyncRequestExecutor executor = new AsyncRequestExecutor(threads);
+    InListQuery query = new InListQuery(TestEngines.newEngine(server), TABLE_ID, "id", executor,
+        MAX_URL_LENGTH);
+    List<Integer> values = new ArrayList<Integer>();
+    for (int i = 0; i < 2000; i++) {
+      values.add(i);
+    }
+    int queries = query.getWhereClauses(values).size();
+    Assert.assertTrue(queries > FeatureQueries.MAX_OPEN_QUERIES);
+
+    final List<Object> ids = Collections.synchronizedList(new ArrayList<Object>());
+    final AtomicReference<Subscription> subscription = new AtomicReference<Subscription>();
+    final CountDownLatch done = new CountDownLatch(1);
+    // failures are called back on the executor's threads, so they're asserted on this one
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    try {
+      query.publish(values).subscribe(new Subscriber<TypedFeature>() {
+        @Override
+        public void onSubscribe(Subscription s) {
+          subscription.set(s);
+        }
+
+        @Override
+        public void onNext(TypedFeature feature) {
+          ids.add(feature.getProperties().get("gx_id"));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          error.set(t);
+          done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+          done.countDown();
+        }
+      });
+      Assert.assertEquals(0, server.getRequestCount());
+
+      // only the first page of each open query is fetched for the first feature
+      subscription.get().request(1);
+      // each page is fetched by one task, whose callback would schedule any further fetch
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (threads.getCompletedTaskCount() < FeatureQueries.MAX_OPEN_QUERIES
+          && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      if (error.get() != null) {
+        throw new AssertionError(error.get());
+      }
+      Assert.assertEquals(FeatureQueries.MAX_OPEN_QUERIES, threads.getCompletedTaskCount());
+      Assert.assertEquals(FeatureQueries.MAX_OPEN_QUERIES, threads.getTaskCount());
+      Assert.assertEquals(1, ids.size());
+      Assert.assertEquals(FeatureQueries.MAX_OPEN_QUERIES, server.getRequestCount());
+
+      subscription.get().request(Long.MAX_VALUE);
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+
+    Assert.assertEquals(queries * 2, server.getRequestCount());
+    Assert.assertEquals(2001, ids.size());
+    Assert.assertEquals(2001, new HashSet<Object>(ids).size());
+  }
+}
@@ -3,6 +3,8 @@ package com.google.maps.clients.mapsengine;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import com.google.maps.clients.AllocationBudget;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -46,4 +48,15 @@ public class SecurityTest {
     String sillyMixedInput = "'';!\"<XSS>=&{()}\\";
     assertEquals("'\\'\\';!\"<XSS>=&{()}\\\\'", Security.escapeAndQuoteString(sillyMixedInput));
   }
+
+  @Test
+  public void testEscapeAndQuoteStringAllocationBudget() throws Exception {
+    AllocationBudget.assertAtMost("Security.escapeAndQuoteString", 256,
+        new AllocationBudget.Operation() {
+          @Override
+          public void run() {
+            Security.escapeAndQuoteString("O'Reilly's \\ Co");
+          }
+        });
+  }
 }
@@ -0,0 +1,112 @@
+package com.google.maps.clients.mapsengine;
+
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.services.mapsengine.MapsEngine;
+import com.google.maps.clients.TestEngines;
+import com.google.maps.clients.mapsengine.geojson.Geometry;
+import com.google.maps.clients.mapsengine.geojson.MultiPolygon;
+import com.google.maps.clients.mapsengine.geojson.Point;
+import com.google.maps.clients.mapsengine.geojson.Polygon;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link com.google.maps.clients.mapsengine.SpatialQuery}.
+ */
+@RunWith(JUnit4.class)
+public class SpatialQueryTest {
+
+  private static final String TABLE_ID = "12345678901234567890-12345678901234567890";
+  private static final int MAX_URL_LENGTH = 2048;
+
+  /** Returns a counter-clockwise polygon approximating a circle, closed. */
+  private static Polygon circle(double lat, double lng, double radius, int vertices) {
+    List<Point> ring = new ArrayList<Point>(vertices + 1);
+    for (int i = 0; i < vertices; i++) {
+      double angle = 2 * Math.PI * i / vertices;
+      ring.add(new Point(lat + radius * Math.sin(angle), lng + radius * Math.cos(angle)));
+    }
+    ring.add(ring.get(0));
+    return Polygon.createSimplePolygon(ring);
+  }
+
+  private static int urlLength(MapsEngine engine, String where) throws Exception {
+    return engine.tables().features().list(TABLE_ID).setWhere(where).buildHttpRequestUrl()
+        .build().length();
+  }
+
+  @Test
+  public void testWhereWritesCompactWkt() throws Exception {
+    Polygon polygon = Polygon.createSimplePolygon(Arrays.asList(new Point(-33.85, 151.2),
+        new Point(-33.85, 151.3), new Point(-33.8000001, 151.3), new Point(-33.85, 151.2)));
+    Assert.assertEquals("ST_INTERSECTS(geometry, ST_GEOMFROMTEXT("
+        + "'POLYGON((151.2 -33.85,151.3 -33.85,151.3 -33.8000001,151.2 -33.85))'))",
+        SpatialQuery.where(SpatialQuery.Predicate.INTERSECTS, polygon));
+    Assert.assertEquals("ST_WITHIN(geometry, ST_GEOMFROMTEXT('POINT(-0.0000104 0)'))",
+        SpatialQuery.where(SpatialQuery.Predicate.WITHIN, new Point(-0.00000004, -0.0000104)));
+
+    // vertices that round to the same place are dropped
+    Polygon fine = Polygon.createSimplePolygon(Arrays.asList(new Point(1, 1),
+        new Point(1, 1.000001), new Point(1, 2), new Point(2, 2), new Point(1, 1)));
+    Assert.assertEquals("POLYGON((1 1,2 1,2 2,1 1))", SpatialQuery.toWkt(fine, 5));
+  }
+
+  @Test
+  public void testRingsDoNotCollapseWhenRounded() throws Exception {
+    // written to more decimal places, rather than as a ring with no area
+    Polygon tiny = Polygon.createSimplePolygon(Arrays.asList(new Point(1, 1),
+        new Point(1, 1.000001), new Point(1.000001, 1.000001), new Point(1, 1)));
+    Assert.assertEquals("POLYGON((1 1,1.000001 1,1.000001 1.000001,1 1))",
+        SpatialQuery.toWkt(tiny, 5));
+
+    // a ring with no area at any precision is written as the smallest box around it
+    Polygon flat = Polygon.createSimplePolygon(Arrays.asList(new Point(1, 1), new Point(1, 2),
+        new Point(1, 3), new Point(1, 1)));
+    Assert.assertEquals("POLYGON((1 1,3 1,3 1.00001,1 1.00001,1 1))",
+        SpatialQuery.toWkt(flat, 5));
+  }
+
+  @Test
+  public void testLargeGeometriesAreSplitOrSimplifiedToFit() throws Exception {
+    MapsEngine engine = TestEngines.newEngine(new MockHttpTransport());
+    SpatialQuery query = new SpatialQuery(engine, TABLE_ID, null, MAX_URL_LENGTH);
+
+    List<Polygon> circles = new ArrayList<Polygon>();
+    for (int i = 0; i < 20; i++) {
+      circles.add(circle(-33.8, 151 + i * 0.1, 0.01, 16));
+    }
+    Geometry suburbs = new MultiPolygon(circles);
+
+    // intersecting queries are split between the circles, without changing their shape
+    List<String> clauses = query.getWhereClauses(SpatialQuery.Predicate.INTERSECTS, suburbs);
+    Assert.assertTrue(clauses.size() > 1);
+    int polygons = 0;
+    for (String clause : clauses) {
+      Assert.assertTrue(clause, urlLength(engine, clause) <= MAX_URL_LENGTH);
+      int clausePolygons = clause.split("POLYGON", -1).length - 1;
+      // 17 vertices a polygon, and a comma before the WKT
+      Assert.assertEquals(17 * clausePolygons, clause.split(",", -1).length - 1);
+      polygons += clausePolygons;
+    }
+    Assert.assertEquals(20, polygons);
+
+    // nothing can be within only part of a geometry, so it's simplified instead
+    clauses = query.getWhereClauses(SpatialQuery.Predicate.WITHIN, suburbs);
+    Assert.assertEquals(1, clauses.size());
+    Assert.assertTrue(urlLength(engine, clauses.get(0)) <= MAX_URL_LENGTH);
+    Assert.assertTrue(clauses.get(0).startsWith("ST_WITHIN(geometry, ST_GEOMFROMTEXT('MULTI"));
+
+    // as is a single polygon too large to fit
+    Polygon detailed = circle(-33.8, 151, 0.5, 1000);
+    clauses = query.getWhereClauses(SpatialQuery.Predicate.INTERSECTS, detailed);
+    Assert.assertEquals(1, clauses.size());
+    Assert.assertTrue(urlLength(engine, clauses.get(0)) <= MAX_URL_LENGTH);
+  }
+}
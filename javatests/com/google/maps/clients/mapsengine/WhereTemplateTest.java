@@ -0,0 +1,88 @@
+package com.google.maps.clients.mapsengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.maps.clients.AllocationBudget;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Test the {@link com.google.maps.clients.mapsengine.WhereTemplate} class.
+ */
+@RunWith(JUnit4.class)
+public class WhereTemplateTest {
+
+  @Test
+  public void testBindEscapesStringsAndListsValues() throws Exception {
+    WhereTemplate template = new WhereTemplate("name = ? AND region IN (?)");
+    assertEquals(2, template.getPlaceholderCount());
+    assertEquals("name = 'Alice\\' OR gx_id = 1234' AND region IN ('a', 'b\\\\c')",
+        template.bind("Alice' OR gx_id = 1234", Arrays.asList("a", "b\\c")));
+    assertEquals("name = 'Bob' AND region IN (1, 2)",
+        template.bind("Bob", new Integer[] {1, 2}));
+  }
+
+  @Test
+  public void testBindWritesTypedValuesUnquoted() throws Exception {
+    WhereTemplate template = new WhereTemplate("a = ? AND b > ? AND c = ? AND d < ? AND e = ?");
+    assertEquals(
+        "a = 42 AND b > 1.5 AND c = true AND d < 0.00000001 AND e = '2014-06-30T23:59:59Z'",
+        template.bind(42, 1.5, true, new BigDecimal("1E-8"), new Date(1404172799000L)));
+  }
+
+  @Test
+  public void testNumbersAreWrittenWithoutExponents() throws Exception {
+    WhereTemplate template = new WhereTemplate("a < ? AND b > ? AND c = ? AND d = ?");
+    assertEquals("a < 10000000000 AND b > 0.00001 AND c = -123456789012345680000 AND d = 0.1",
+        template.bind(1e10, 1e-5, -1.2345678901234568e20, 0.1f));
+    assertEquals("a < 1.5 AND b > 0.0 AND c = 100.0 AND d = 0.000025",
+        template.bind(1.5, 0.0, 100.0, 2.5e-5f));
+  }
+
+  @Test
+  public void testPlaceholdersInLiteralsAreIgnored() throws Exception {
+    WhereTemplate template = new WhereTemplate("name = 'Who?' AND note = 'it\\'s ?' AND id = ?");
+    assertEquals(1, template.getPlaceholderCount());
+    assertEquals("name = 'Who?' AND note = 'it\\'s ?' AND id = 7", template.bind(7));
+  }
+
+  @Test
+  public void testBadValuesAreRejected() throws Exception {
+    WhereTemplate template = new WhereTemplate("id IN (?)");
+    Object[][] badValues = {
+        {}, {1, 2}, {null}, {Double.NaN}, {Collections.emptyList()}, {new Object()},
+        {Collections.singletonList(Collections.singletonList(1))}};
+    for (Object[] values : badValues) {
+      try {
+        template.bind(values);
+        fail("Bound " + Arrays.deepToString(values));
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnclosedQuoteIsRejected() throws Exception {
+    new WhereTemplate("name = 'Alice AND id = ?");
+  }
+
+  @Test
+  public void testBindAllocationBudget() throws Exception {
+    final WhereTemplate template = new WhereTemplate("name = ? AND id = ?");
+    AllocationBudget.assertAtMost("WhereTemplate.bind", 560, new AllocationBudget.Operation() {
+      @Override
+      public void run() {
+        template.bind("O'Reilly's \\ Co", 12345);
+      }
+    });
+  }
+}
@@ -93,4 +93,17 @@ public class GeometryCollectionTest {
     // check the lat/long of point #3 in the linestring
     Assert.assertEquals(0, secondPoly.getCoordinates().get(2).get(1), ERROR_MARGIN);
     Assert.assertEquals(1, secondPoly.getCoordinates().get(2).get(0), ERROR_MARGIN);
-  }}
+  }
+
+  @Test
+  public void testVertexCountIncludesNestedGeometries() throws Exception {
+    GeometryCollection geoms = new GeometryCollection(Arrays.asList(
+        new Point(-45, 100),
+        new LineString(Arrays.asList(new Point(0, 0), new Point(1, 1), new Point(0, 1))),
+        Polygon.createSimplePolygon(Arrays.asList(
+            new Point(0, 0), new Point(1, 0), new Point(1, 1), new Point(0, 1), new Point(0, 0)))
+    ));
+
+    Assert.assertEquals(1 + 3 + 5, geoms.getVertexCount());
+  }
+}
@@ -3,6 +3,7 @@ package com.google.maps.clients.mapsengine.geojson;
 import com.google.api.services.mapsengine.model.Feature;
 import com.google.api.services.mapsengine.model.GeoJsonGeometry;
 import com.google.api.services.mapsengine.model.GeoJsonPoint;
+import com.google.maps.clients.AllocationBudget;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -82,4 +83,15 @@ public class PointTest {
     Assert.assertEquals("value1", actualProps.get("column1"));
     Assert.assertEquals(600613, actualProps.get("column2"));
   }
+
+  @Test
+  public void testToCoordinatesAllocationBudget() throws Exception {
+    final Point point = new Point(-33.86, 151.21);
+    AllocationBudget.assertAtMost("Point.toCoordinates", 192, new AllocationBudget.Operation() {
+      @Override
+      public void run() {
+        point.toCoordinates();
+      }
+    });
+  }
 }
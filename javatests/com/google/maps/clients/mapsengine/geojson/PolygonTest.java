@@ -3,6 +3,7 @@ package com.google.maps.clients.mapsengine.geojson;
 import com.google.api.services.mapsengine.model.Feature;
 import com.google.api.services.mapsengine.model.GeoJsonGeometry;
 import com.google.api.services.mapsengine.model.GeoJsonPolygon;
+import com.google.maps.clients.AllocationBudget;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -11,6 +12,7 @@ import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -133,4 +135,61 @@ public class PolygonTest {
     Assert.assertEquals(0.5, ring2Point4.get(1), ERROR_MARGIN);
   }
 
+  @Test
+  public void testVertexCountIncludesEveryRing() throws Exception {
+    Polygon twoRingPoly = Polygon.createMultiRingPolygon(Arrays.asList(Arrays.asList(
+        new Point(0, 0), new Point(2, 0), new Point(2, 2), new Point(0, 2), new Point(0, 0)
+    ), Arrays.asList(
+        new Point(0.5, 0.5), new Point(1.5, 0.5), new Point(1.5, 1.5), new Point(0.5, 1.5),
+        new Point(0.5, 0.5)
+    )));
+
+    // both rings, including their closing points
+    Assert.assertEquals(10, twoRingPoly.getVertexCount());
+  }
+
+  @Test
+  public void testDefaultVertexCountIsTakenFromTheFeature() throws Exception {
+    final Polygon twoRingPoly = Polygon.createMultiRingPolygon(Arrays.asList(Arrays.asList(
+        new Point(0, 0), new Point(2, 0), new Point(2, 2), new Point(0, 2), new Point(0, 0)
+    ), Arrays.asList(
+        new Point(0.5, 0.5), new Point(1.5, 0.5), new Point(1.5, 1.5), new Point(0.5, 1.5),
+        new Point(0.5, 0.5)
+    )));
+    // a geometry defined outside this package, which only knows how to encode itself
+    Geometry external = new Geometry() {
+      @Override
+      public Feature asFeature(Map<String, Object> properties) {
+        return twoRingPoly.asFeature(properties);
+      }
+    };
+
+    Assert.assertEquals(10, external.getVertexCount());
+  }
+
+  @Test
+  public void testConversionAllocationBudgets() throws Exception {
+    // a 10 vertex polygon
+    List<Point> ring = new ArrayList<Point>();
+    for (int i = 0; i < 9; i++) {
+      ring.add(new Point(Math.sin(i * Math.PI / 4.5), Math.cos(i * Math.PI / 4.5)));
+    }
+    ring.add(ring.get(0));
+    final Polygon polygon = Polygon.createSimplePolygon(ring);
+    final Map<String, Object> properties = Collections.emptyMap();
+    final GeoJsonGeometry geoJson = polygon.asFeature(properties).getGeometry();
+
+    AllocationBudget.assertAtMost("Polygon.asFeature", 2500, new AllocationBudget.Operation() {
+      @Override
+      public void run() {
+        polygon.asFeature(properties);
+      }
+    });
+    AllocationBudget.assertAtMost("Geometry.fromGeoJson", 1200, new AllocationBudget.Operation() {
+      @Override
+      public void run() {
+        Geometry.fromGeoJson(geoJson);
+      }
+    });
+  }
 }